@@ -1,10 +1,9 @@
 package org.apache.flamingo.bean;
 
 import lombok.Getter;
+import org.apache.flamingo.sstable.SSTIterator;
 import org.apache.flamingo.utils.StringUtil;
 
-import java.io.DataInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 
 @Getter
@@ -16,58 +15,41 @@ public class CompactEntity {
 
 	private final byte[] key;
 
+	private final long sequence;
+
 	private byte[] value;
 
 	private VLogAddress address;
 
-	private final boolean fromNewSSTable;
-
-	private final DataInputStream reader;
-
-	public CompactEntity(DataInputStream reader, boolean fromNewSSTable) {
-		this.reader = reader;
-		this.fromNewSSTable = fromNewSSTable;
-		try {
-			if (reader != null && reader.available() > 0) {
-				int totalSize = reader.readInt();
-				byte deleteByte = reader.readByte();
-				this.deleted = StringUtil.fromByte(deleteByte);
-				byte storeModeByte = reader.readByte();
-				this.storeMode = StringUtil.fromByte(storeModeByte);
-				int keySize = reader.readInt();
-				byte[] key = new byte[keySize];
-				reader.readFully(key);
-				this.key = key;
-				if (storeMode) {
-					long fieldID = reader.readLong();
-					long offset = reader.readLong();
-					this.address = VLogAddress.from(fieldID, offset);
-				}
-				else {
-					int valueSize = reader.readInt();
-					byte[] value = new byte[valueSize];
-					reader.readFully(value);
-					this.value = value;
-				}
-			}
-			else {
-				this.key = null;
-				this.deleted = false;
-				this.storeMode = false;
-			}
+	/**
+	 * Position of the sorted run the entry comes from, 0 for the newest run.
+	 */
+	private final int run;
+
+	private final SSTIterator iterator;
+
+	public CompactEntity(SSTIterator iterator, int run) {
+		this.iterator = iterator;
+		this.run = run;
+		if (iterator != null && iterator.hasNext()) {
+			SLNode node = iterator.next();
+			this.deleted = node.isDeleted();
+			this.storeMode = node.isStoreMode();
+			this.key = node.getKey();
+			this.sequence = node.getSequence();
+			this.value = node.getValue();
+			this.address = node.getAddress();
 		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
+		else {
+			this.key = null;
+			this.sequence = 0;
+			this.deleted = false;
+			this.storeMode = false;
 		}
 	}
 
 	public boolean hasRemaining() {
-		try {
-			return reader != null && reader.available() > 0;
-		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return iterator != null && iterator.hasNext();
 	}
 
 	public byte[] toBytes() {
@@ -78,9 +60,11 @@ public class CompactEntity {
 		buffer.put(StringUtil.fromBool(storeMode));
 		buffer.putInt(key.length);
 		buffer.put(key);
+		buffer.putLong(sequence);
 		if (storeMode) {
 			buffer.putLong(address.getFieldID());
 			buffer.putLong(address.getOffset());
+			buffer.putInt(address.getSize());
 		}
 		else {
 			buffer.putInt(value.length);
@@ -95,9 +79,11 @@ public class CompactEntity {
 		total += 1; // store_mode
 		total += 4; // key_size
 		total += key.length; // key value size
+		total += 8; // sequence
 		if (storeMode) { // kv store
 			total += 8; // file size
 			total += 8; // offset
+			total += 4; // record size
 		}
 		else {
 			total += 4; // value_size
@@ -106,15 +92,4 @@ public class CompactEntity {
 		return total;
 	}
 
-	public void close() {
-		if (reader != null) {
-			try {
-				reader.close();
-			}
-			catch (IOException e) {
-				throw new RuntimeException(e);
-			}
-		}
-	}
-
 }
@@ -11,9 +11,11 @@ import java.nio.ByteBuffer;
 /**
  * Skip List Node
  * <p>
- * [total_size, delete_flag, store_mode(true), key_size, key_value, file_id, offset]
+ * [total_size, delete_flag, store_mode(true), key_size, key_value, sequence, file_id,
+ * offset, record_size]
  * <p>
- * [total_size, delete_flag, store_mode(false), key_size, key_value, value_size, value]
+ * [total_size, delete_flag, store_mode(false), key_size, key_value, sequence, value_size,
+ * value]
  */
 @Getter
 @Setter
@@ -25,6 +27,8 @@ public class SLNode {
 
 	public static final byte[] TailKey = StringUtil.fromString("TAIL");
 
+	private static final byte[] EmptyValue = new byte[0];
+
 	private byte[] key;
 
 	private byte[] value;
@@ -41,6 +45,17 @@ public class SLNode {
 
 	private boolean deleted = false;
 
+	/**
+	 * Sequence number of the write, the entries of a write batch get consecutive ones.
+	 */
+	private long sequence;
+
+	/**
+	 * Previous version of the key in a memory table, it has a smaller sequence number.
+	 * Memory tables keep every version so a snapshot can read the one it saw.
+	 */
+	private volatile SLNode olderVersion;
+
 	private SLNode right;
 
 	private SLNode left;
@@ -78,20 +93,29 @@ public class SLNode {
 		buffer.put(StringUtil.fromBool(node.isStoreMode()));
 		buffer.putInt(node.getKey().length);
 		buffer.put(node.getKey());
+		buffer.putLong(node.getSequence());
 		if (node.isStoreMode()) {
 			buffer.putLong(node.getAddress().getFieldID());
 			buffer.putLong(node.getAddress().getOffset());
+			buffer.putInt(node.getAddress().getSize());
 		}
 		else {
-			buffer.putInt(node.getValue().length);
-			buffer.put(node.getValue());
+			byte[] value = valueOrEmpty(node);
+			buffer.putInt(value.length);
+			buffer.put(value);
 		}
 		return buffer.array();
 	}
 
 	public static SLNode deserialization(byte[] array) {
+		return deserialization(ByteBuffer.wrap(array));
+	}
+
+	/**
+	 * Decode one record starting at the current position of the buffer.
+	 */
+	public static SLNode deserialization(ByteBuffer byteBuffer) {
 		SLNode node = new SLNode();
-		ByteBuffer byteBuffer = ByteBuffer.wrap(array);
 		int totalSize = byteBuffer.getInt();
 		byte deleteByte = byteBuffer.get();
 		boolean deleteFlag = StringUtil.fromByte(deleteByte);
@@ -100,10 +124,12 @@ public class SLNode {
 		int keySize = byteBuffer.getInt();
 		byte[] key = new byte[keySize];
 		byteBuffer.get(key);
+		node.setSequence(byteBuffer.getLong());
 		if (storeModeFlag) {
 			long fieldID = byteBuffer.getLong();
 			long offset = byteBuffer.getLong();
-			node.setAddress(VLogAddress.from(fieldID, offset));
+			int size = byteBuffer.getInt();
+			node.setAddress(VLogAddress.from(fieldID, offset, size));
 		}
 		else {
 			int valueSize = byteBuffer.getInt();
@@ -124,16 +150,36 @@ public class SLNode {
 		total += 4; // key_size
 		byte[] key = node.getKey();
 		total += key.length; // key value size
+		total += 8; // sequence
 		if (node.isStoreMode()) { // kv store
 			total += 8; // file size
 			total += 8; // offset
+			total += 4; // record size
 		}
 		else {
 			total += 4; // value_size
-			byte[] value = node.getValue();
-			total += value.length; // value value size
+			total += valueOrEmpty(node).length; // value value size
 		}
 		return total;
 	}
 
+	/**
+	 * @return the newest version whose sequence number is not greater than the sequence,
+	 * or null if every version is newer
+	 */
+	public SLNode versionAt(long sequence) {
+		SLNode version = this;
+		while (version != null && version.getSequence() > sequence) {
+			version = version.getOlderVersion();
+		}
+		return version;
+	}
+
+	/**
+	 * Tombstones carry no value.
+	 */
+	private static byte[] valueOrEmpty(SLNode node) {
+		return node.getValue() == null ? EmptyValue : node.getValue();
+	}
+
 }
@@ -15,14 +15,25 @@ public class VLogAddress {
 
 	private Long offset;
 
+	/**
+	 * Bytes of the whole record in the value log, tells the garbage collection how much a
+	 * dropped record frees.
+	 */
+	private int size;
+
 	public static VLogAddress from(Long fieldID, Long offset) {
-		return new VLogAddress(fieldID, offset);
+		return new VLogAddress(fieldID, offset, 0);
+	}
+
+	public static VLogAddress from(Long fieldID, Long offset, int size) {
+		return new VLogAddress(fieldID, offset, size);
 	}
 
 	public static byte[] serialize(VLogAddress address) {
-		ByteBuffer buffer = ByteBuffer.allocate(8 + 8);
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 4);
 		buffer.putLong(address.fieldID);
 		buffer.putLong(address.offset);
+		buffer.putInt(address.size);
 		return buffer.array();
 	}
 
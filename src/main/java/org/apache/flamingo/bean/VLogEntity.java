@@ -1,6 +1,7 @@
 package org.apache.flamingo.bean;
 
 import lombok.Getter;
+import lombok.Setter;
 import org.apache.flamingo.utils.StringUtil;
 
 import java.nio.ByteBuffer;
@@ -16,21 +17,34 @@ public class VLogEntity {
 
 	private final int totalSize;
 
+	/**
+	 * Assigned when the record is written, the records of a write batch get theirs when
+	 * the batch is applied.
+	 */
+	@Setter
+	private long sequence;
+
 	public VLogEntity(byte[] key, byte[] value, boolean deleted) {
+		this(key, value, deleted, 0);
+	}
+
+	public VLogEntity(byte[] key, byte[] value, boolean deleted, long sequence) {
 		this.key = key;
 		this.value = value;
 		this.deleted = deleted;
+		this.sequence = sequence;
 		this.totalSize = getTotalSize();
 	}
 
 	/**
-	 * [total_size,delete_flag,key_size,key,value_size,value]
+	 * [total_size,delete_flag,sequence,key_size,key,value_size,value]
 	 * @return total size
 	 */
 	public int getTotalSize() {
 		int total = 0;
 		total += 4;
 		total += 1;
+		total += 8;
 		total += 4;
 		total += key.length;
 		if (!deleted) {
@@ -44,6 +58,7 @@ public class VLogEntity {
 		ByteBuffer buffer = ByteBuffer.allocate(entity.getTotalSize());
 		buffer.putInt(entity.getTotalSize());
 		buffer.put(StringUtil.fromBool(entity.isDeleted()));
+		buffer.putLong(entity.getSequence());
 		buffer.putInt(entity.getKey().length);
 		buffer.put(entity.getKey());
 		if (!entity.isDeleted()) {
@@ -53,8 +68,29 @@ public class VLogEntity {
 		return buffer.array();
 	}
 
+	/**
+	 * Decode one record starting at the current position of the buffer.
+	 */
+	public static VLogEntity deserialize(ByteBuffer buffer) {
+		buffer.getInt();
+		boolean deleted = StringUtil.fromByte(buffer.get());
+		long sequence = buffer.getLong();
+		byte[] key = new byte[buffer.getInt()];
+		buffer.get(key);
+		byte[] value = null;
+		if (!deleted) {
+			value = new byte[buffer.getInt()];
+			buffer.get(value);
+		}
+		return new VLogEntity(key, value, deleted, sequence);
+	}
+
 	public static VLogEntity from(byte[] key, byte[] value, boolean deleted) {
 		return new VLogEntity(key, value, deleted);
 	}
 
+	public static VLogEntity from(byte[] key, byte[] value, boolean deleted, long sequence) {
+		return new VLogEntity(key, value, deleted, sequence);
+	}
+
 }
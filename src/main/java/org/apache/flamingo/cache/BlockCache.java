@@ -0,0 +1,145 @@
+package org.apache.flamingo.cache;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of sst data blocks, bounded by a byte budget.
+ * <p>
+ * The cache is split into shards by the hash of the key, every shard is an LRU list
+ * guarded by its own lock so concurrent readers rarely contend.
+ */
+public class BlockCache {
+
+	/**
+	 * Bookkeeping cost of one entry in addition to the block itself.
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	@Getter
+	private final long capacity;
+
+	private final Shard[] shards;
+
+	private final int shardMask;
+
+	private final Statistics statistics = Statistics.getInstance();
+
+	public BlockCache(long capacity, int shardBits) {
+		this.capacity = capacity;
+		int shardCount = 1 << shardBits;
+		this.shards = new Shard[shardCount];
+		this.shardMask = shardCount - 1;
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(Math.max(1, capacity / shardCount));
+		}
+	}
+
+	/**
+	 * @return a cache sized by the options, or null if the cache is disabled
+	 */
+	public static BlockCache fromOptions() {
+		long capacity = Long.parseLong(Options.BlockCacheSize.getValue());
+		if (capacity <= 0) {
+			return null;
+		}
+		return new BlockCache(capacity, Integer.parseInt(Options.BlockCacheShardBits.getValue()));
+	}
+
+	public ByteBuffer get(long sstId, long offset) {
+		Key key = new Key(sstId, offset);
+		ByteBuffer block = shard(key).get(key);
+		statistics.record(block == null ? Ticker.BLOCK_CACHE_MISS : Ticker.BLOCK_CACHE_HIT);
+		return block;
+	}
+
+	/**
+	 * The block must not be modified once it is cached, readers share it.
+	 */
+	public void put(long sstId, long offset, ByteBuffer block) {
+		Key key = new Key(sstId, offset);
+		shard(key).put(key, block);
+		statistics.record(Ticker.BLOCK_CACHE_ADD);
+	}
+
+	public long getUsage() {
+		long usage = 0;
+		for (Shard shard : shards) {
+			usage += shard.getUsage();
+		}
+		return usage;
+	}
+
+	private Shard shard(Key key) {
+		int h = key.hashCode();
+		return shards[(h ^ (h >>> 16)) & shardMask];
+	}
+
+	@EqualsAndHashCode
+	private static class Key {
+
+		private final long sstId;
+
+		private final long offset;
+
+		private Key(long sstId, long offset) {
+			this.sstId = sstId;
+			this.offset = offset;
+		}
+
+	}
+
+	private class Shard {
+
+		private final long capacity;
+
+		private final LinkedHashMap<Key, ByteBuffer> blocks = new LinkedHashMap<>(64, 0.75f, true);
+
+		private long usage = 0;
+
+		private Shard(long capacity) {
+			this.capacity = capacity;
+		}
+
+		private synchronized ByteBuffer get(Key key) {
+			return blocks.get(key);
+		}
+
+		private synchronized void put(Key key, ByteBuffer block) {
+			ByteBuffer old = blocks.put(key, block);
+			if (old != null) {
+				usage -= charge(old);
+			}
+			usage += charge(block);
+			Iterator<Map.Entry<Key, ByteBuffer>> iterator = blocks.entrySet().iterator();
+			while (usage > capacity && iterator.hasNext()) {
+				Map.Entry<Key, ByteBuffer> eldest = iterator.next();
+				if (eldest.getKey().equals(key)) {
+					// Never evict the block that has just been inserted
+					continue;
+				}
+				usage -= charge(eldest.getValue());
+				iterator.remove();
+				statistics.record(Ticker.BLOCK_CACHE_EVICT);
+			}
+		}
+
+		private synchronized long getUsage() {
+			return usage;
+		}
+
+		private int charge(ByteBuffer block) {
+			return block.capacity() + ENTRY_OVERHEAD;
+		}
+
+	}
+
+}
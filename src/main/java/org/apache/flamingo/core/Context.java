@@ -3,7 +3,9 @@ package org.apache.flamingo.core;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.Setter;
+import org.apache.flamingo.cache.BlockCache;
 import org.apache.flamingo.meta.MetaInfo;
+import org.apache.flamingo.reader.VLogReader;
 
 /**
  * LSM Context
@@ -14,7 +16,17 @@ public class Context {
 
 	private MetaInfo metaInfo;
 
-	private ObjectMapper objectMapper;
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	/**
+	 * Null if the block cache is disabled.
+	 */
+	private BlockCache blockCache;
+
+	/**
+	 * Resolves kv separated values.
+	 */
+	private VLogReader vLogReader = VLogReader.fromOptions();
 
 	private static final Context INSTANCE = new Context();
 
@@ -1,9 +1,13 @@
 package org.apache.flamingo.core;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * ID assigner, responsible for assigning id to ssTable and WalWriter
+ * ID assigner, responsible for assigning id to ssTable and WalWriter, and sequence
+ * numbers to writes
  */
 public class IDAssign {
 
@@ -11,6 +15,23 @@ public class IDAssign {
 
 	private static final AtomicInteger WALAssign = new AtomicInteger(0);
 
+	/**
+	 * Last sequence number handed out, the first write gets 1.
+	 */
+	private static final AtomicLong SequenceAssign = new AtomicLong(0);
+
+	/**
+	 * Every sequence number up to this one has been applied or dropped, as the RocksDB
+	 * LastSequence. Snapshots read as of it without any lock.
+	 */
+	private static volatile long LastPublishedSequence = 0;
+
+	/**
+	 * Ranges published ahead of an earlier one still in flight, first to last sequence
+	 * number. Also the monitor writers wait on for their range to become visible.
+	 */
+	private static final Map<Long, Long> PublishedRanges = new HashMap<>();
+
 	public static String getSSTNextID() {
 		return String.valueOf(SSTAssign.getAndIncrement());
 	}
@@ -19,6 +40,64 @@ public class IDAssign {
 		return String.valueOf(WALAssign.getAndIncrement());
 	}
 
+	/**
+	 * Reserve a contiguous range of sequence numbers.
+	 * @return the first sequence number of the range
+	 */
+	public static long nextSequence(int count) {
+		return SequenceAssign.getAndAdd(count) + 1;
+	}
+
+	public static long getLastSequence() {
+		return SequenceAssign.get();
+	}
+
+	/**
+	 * Mark the range of sequence numbers as applied, every range handed out must be
+	 * published once, dropped writes included. Returns once the range and all ranges
+	 * before it are visible, so a snapshot taken after a write returns sees it.
+	 * @param first first sequence number of the range
+	 */
+	public static void publishSequences(long first, int count) {
+		if (count <= 0) {
+			return;
+		}
+		long last = first + count - 1;
+		boolean interrupted = false;
+		synchronized (PublishedRanges) {
+			PublishedRanges.put(first, last);
+			Long end;
+			boolean advanced = false;
+			while ((end = PublishedRanges.remove(LastPublishedSequence + 1)) != null) {
+				LastPublishedSequence = end;
+				advanced = true;
+			}
+			if (advanced) {
+				PublishedRanges.notifyAll();
+			}
+			// Concurrent writers draw sequence numbers before their value log commit, an
+			// earlier one may still be inserting
+			while (LastPublishedSequence < last) {
+				try {
+					PublishedRanges.wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the sequence number up to which every write is visible
+	 */
+	public static long getLastPublishedSequence() {
+		return LastPublishedSequence;
+	}
+
 	public static void initSSTAssign(int initValue) {
 		SSTAssign.set(initValue);
 	}
@@ -27,4 +106,15 @@ public class IDAssign {
 		WALAssign.set(initValue);
 	}
 
+	/**
+	 * @param lastSequence largest sequence number already used
+	 */
+	public static void initSequenceAssign(long lastSequence) {
+		synchronized (PublishedRanges) {
+			SequenceAssign.set(lastSequence);
+			LastPublishedSequence = lastSequence;
+			PublishedRanges.clear();
+		}
+	}
+
 }
@@ -8,6 +8,10 @@ import org.apache.flamingo.wal.WALWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -131,4 +135,38 @@ public class FileUtil {
 		Files.createDirectories(path);
 	}
 
+	/**
+	 * Release a mapping eagerly instead of waiting for the buffer to be garbage
+	 * collected. The buffer must not be touched afterwards.
+	 */
+	public static void unmap(MappedByteBuffer buffer) {
+		try {
+			// Java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		}
+		catch (NoSuchMethodException e) {
+			// Java 8, fall through
+		}
+		catch (ReflectiveOperationException e) {
+			log.warn("Unmap buffer failed, leave it to the garbage collector", e);
+			return;
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		}
+		catch (ReflectiveOperationException e) {
+			log.warn("Unmap buffer failed, leave it to the garbage collector", e);
+		}
+	}
+
 }
@@ -29,6 +29,13 @@ public class NamedUtil {
 		return Pair.of(fileName, Long.parseLong(id));
 	}
 
+	/**
+	 * @return path of an existing value log file
+	 */
+	public static String getValueFilePath(long id) {
+		return getValueDir() + "/" + String.format(VLogWriter.ACTIVE, id);
+	}
+
 	public static Pair<String, Long> getKeyFilePath() {
 		String id = IDAssign.getSSTNextID();
 		String fileName = getKeyDir() + "/" + id + ".sst";
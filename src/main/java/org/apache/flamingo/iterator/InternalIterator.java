@@ -0,0 +1,47 @@
+package org.apache.flamingo.iterator;
+
+import org.apache.flamingo.bean.SLNode;
+
+/**
+ * Bidirectional cursor over the entries of one sorted source: a memory table, an sstable,
+ * a level, or a merge of them. Entries are in key order, every key appears at most once
+ * per source and tombstones are included.
+ * <p>
+ * Not thread safe. {@link #entry()} may only be called while the iterator is valid.
+ */
+public interface InternalIterator extends AutoCloseable {
+
+	boolean isValid();
+
+	void seekToFirst();
+
+	void seekToLast();
+
+	/**
+	 * Position at the first entry whose key is greater than or equal to the target.
+	 */
+	void seek(byte[] target);
+
+	/**
+	 * Position at the last entry whose key is less than or equal to the target.
+	 */
+	void seekForPrev(byte[] target);
+
+	void next();
+
+	void prev();
+
+	SLNode entry();
+
+	default byte[] key() {
+		return entry().getKey();
+	}
+
+	/**
+	 * Release what the iterator pins, idempotent.
+	 */
+	@Override
+	default void close() {
+	}
+
+}
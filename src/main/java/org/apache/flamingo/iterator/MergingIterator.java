@@ -0,0 +1,202 @@
+package org.apache.flamingo.iterator;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Streaming k-way merge of sorted children with a heap, nothing is materialized.
+ * <p>
+ * The children are given newest first. A key may appear in several children, its entries
+ * come out consecutively and the newest one first in both directions, so a reader takes
+ * the first entry of every key and skips the rest.
+ * <p>
+ * Switching direction re-seeks the other children around the current key, as in the
+ * LevelDB merging iterator.
+ */
+public class MergingIterator implements InternalIterator {
+
+	private final Child[] children;
+
+	private final PriorityQueue<Child> forwardHeap;
+
+	private final PriorityQueue<Child> reverseHeap;
+
+	private boolean forward = true;
+
+	private Child current;
+
+	/**
+	 * @param children newest first
+	 */
+	public MergingIterator(List<? extends InternalIterator> children) {
+		this.children = new Child[children.size()];
+		for (int i = 0; i < this.children.length; i++) {
+			this.children[i] = new Child(children.get(i), i);
+		}
+		Comparator<Child> byPriority = Comparator.comparingInt(child -> child.priority);
+		Comparator<Child> byKey = (c1, c2) -> StringUtil.compareByteArrays(c1.iterator.key(), c2.iterator.key());
+		int capacity = Math.max(1, this.children.length);
+		this.forwardHeap = new PriorityQueue<>(capacity, byKey.thenComparing(byPriority));
+		this.reverseHeap = new PriorityQueue<>(capacity, byKey.reversed().thenComparing(byPriority));
+	}
+
+	@Override
+	public boolean isValid() {
+		return current != null;
+	}
+
+	@Override
+	public void seekToFirst() {
+		for (Child child : children) {
+			child.iterator.seekToFirst();
+		}
+		rebuild(true);
+	}
+
+	@Override
+	public void seekToLast() {
+		for (Child child : children) {
+			child.iterator.seekToLast();
+		}
+		rebuild(false);
+	}
+
+	@Override
+	public void seek(byte[] target) {
+		for (Child child : children) {
+			child.iterator.seek(target);
+		}
+		rebuild(true);
+	}
+
+	@Override
+	public void seekForPrev(byte[] target) {
+		for (Child child : children) {
+			child.iterator.seekForPrev(target);
+		}
+		rebuild(false);
+	}
+
+	@Override
+	public void next() {
+		checkValid();
+		if (!forward) {
+			// Move every other child after the current key
+			byte[] key = current.iterator.key();
+			for (Child child : children) {
+				if (child == current) {
+					continue;
+				}
+				child.iterator.seek(key);
+				if (child.iterator.isValid() && Arrays.equals(child.iterator.key(), key)) {
+					child.iterator.next();
+				}
+			}
+			current.iterator.next();
+			rebuild(true);
+			return;
+		}
+		forwardHeap.poll();
+		current.iterator.next();
+		if (current.iterator.isValid()) {
+			forwardHeap.add(current);
+		}
+		current = forwardHeap.peek();
+	}
+
+	@Override
+	public void prev() {
+		checkValid();
+		if (forward) {
+			// Move every other child before the current key
+			byte[] key = current.iterator.key();
+			for (Child child : children) {
+				if (child == current) {
+					continue;
+				}
+				child.iterator.seekForPrev(key);
+				if (child.iterator.isValid() && Arrays.equals(child.iterator.key(), key)) {
+					child.iterator.prev();
+				}
+			}
+			current.iterator.prev();
+			rebuild(false);
+			return;
+		}
+		reverseHeap.poll();
+		current.iterator.prev();
+		if (current.iterator.isValid()) {
+			reverseHeap.add(current);
+		}
+		current = reverseHeap.peek();
+	}
+
+	@Override
+	public SLNode entry() {
+		checkValid();
+		return current.iterator.entry();
+	}
+
+	@Override
+	public void close() {
+		forwardHeap.clear();
+		reverseHeap.clear();
+		current = null;
+		RuntimeException failure = null;
+		for (Child child : children) {
+			try {
+				child.iterator.close();
+			}
+			catch (Exception e) {
+				if (failure == null) {
+					failure = new RuntimeException("Close merged iterator failed", e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void rebuild(boolean forward) {
+		this.forward = forward;
+		forwardHeap.clear();
+		reverseHeap.clear();
+		PriorityQueue<Child> heap = forward ? forwardHeap : reverseHeap;
+		for (Child child : children) {
+			if (child.iterator.isValid()) {
+				heap.add(child);
+			}
+		}
+		current = heap.peek();
+	}
+
+	private void checkValid() {
+		if (current == null) {
+			throw new NoSuchElementException();
+		}
+	}
+
+	private static final class Child {
+
+		private final InternalIterator iterator;
+
+		/**
+		 * Smaller is newer.
+		 */
+		private final int priority;
+
+		private Child(InternalIterator iterator, int priority) {
+			this.iterator = iterator;
+			this.priority = priority;
+		}
+
+	}
+
+}
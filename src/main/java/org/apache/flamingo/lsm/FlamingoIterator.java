@@ -0,0 +1,341 @@
+package org.apache.flamingo.lsm;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.core.Context;
+import org.apache.flamingo.iterator.InternalIterator;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Ordered cursor over the live keys of a range [start, end), created by
+ * {@link FlamingoLSM#newIterator(byte[], byte[])}.
+ * <p>
+ * It streams a merge of the memory tables and the sstables of a snapshot. Of the entries
+ * of a key only the newest counts, keys whose newest entry is a tombstone are skipped.
+ * Nothing is materialized, only the blocks the cursor passes are read.
+ * <p>
+ * With scan_prefetch_entries set, moving forward keeps a window of the next live entries
+ * found ahead and reads their kv separated values in the background, as in WiscKey: the
+ * window is split into chunks read in parallel on the prefetch threads, and each chunk
+ * fetches neighbouring records of a value log file with one read. Moving backward reads
+ * values on demand.
+ * <p>
+ * Not thread safe. Close it to release the tables it reads.
+ */
+public class FlamingoIterator implements AutoCloseable {
+
+	private final InternalIterator merged;
+
+	private final byte[] start;
+
+	private final byte[] end;
+
+	/**
+	 * Owned snapshot closed with the iterator, null if the caller owns it.
+	 */
+	private final Snapshot snapshot;
+
+	/**
+	 * 0 disables the prefetch.
+	 */
+	private final int prefetchEntries;
+
+	/**
+	 * Null to read the prefetched values on the calling thread.
+	 */
+	private final Executor prefetchExecutor;
+
+	/**
+	 * Chunks a window is split into.
+	 */
+	private final int prefetchParallelism;
+
+	private SLNode current;
+
+	/**
+	 * Value of the current entry if it was prefetched.
+	 */
+	private Prefetched currentPrefetched;
+
+	/**
+	 * Live entries after the current one, the merge is positioned at the last of them.
+	 */
+	private final ArrayDeque<Prefetched> ahead = new ArrayDeque<>();
+
+	/**
+	 * The window reached the end of the range.
+	 */
+	private boolean exhausted = false;
+
+	private boolean closed = false;
+
+	FlamingoIterator(InternalIterator merged, byte[] start, byte[] end, Snapshot snapshot, int prefetchEntries,
+			Executor prefetchExecutor, int prefetchParallelism) {
+		this.merged = merged;
+		this.start = start;
+		this.end = end;
+		this.snapshot = snapshot;
+		this.prefetchEntries = prefetchEntries;
+		this.prefetchExecutor = prefetchExecutor;
+		this.prefetchParallelism = Math.max(1, prefetchParallelism);
+	}
+
+	public boolean isValid() {
+		return current != null;
+	}
+
+	public void seekToFirst() {
+		dropWindow();
+		if (start == null) {
+			merged.seekToFirst();
+		}
+		else {
+			merged.seek(start);
+		}
+		current = findNext(null);
+		fillWindow();
+	}
+
+	public void seekToLast() {
+		dropWindow();
+		if (end == null) {
+			merged.seekToLast();
+		}
+		else {
+			merged.seekForPrev(end);
+		}
+		findPrev(null);
+	}
+
+	/**
+	 * Position at the first key greater than or equal to the target.
+	 */
+	public void seek(byte[] target) {
+		if (start != null && StringUtil.compareByteArrays(target, start) < 0) {
+			target = start;
+		}
+		dropWindow();
+		merged.seek(target);
+		current = findNext(null);
+		fillWindow();
+	}
+
+	/**
+	 * Position at the last key less than or equal to the target.
+	 */
+	public void seekForPrev(byte[] target) {
+		if (end != null && StringUtil.compareByteArrays(target, end) >= 0) {
+			seekToLast();
+			return;
+		}
+		dropWindow();
+		merged.seekForPrev(target);
+		findPrev(null);
+	}
+
+	public void next() {
+		checkValid();
+		if (prefetchEntries > 0) {
+			if (ahead.isEmpty()) {
+				fillWindow();
+			}
+			Prefetched next = ahead.poll();
+			current = next == null ? null : next.entry;
+			currentPrefetched = next;
+			// Top the window up while half of it is still being read
+			if (current != null && ahead.size() <= prefetchEntries / 2) {
+				fillWindow();
+			}
+			return;
+		}
+		// The older entries of the current key follow it
+		byte[] skip = current.getKey();
+		merged.next();
+		current = findNext(skip);
+	}
+
+	public void prev() {
+		checkValid();
+		byte[] skip = current.getKey();
+		if (dropWindow()) {
+			// The merge ran ahead of the current key
+			merged.seek(skip);
+		}
+		merged.prev();
+		findPrev(skip);
+	}
+
+	public byte[] key() {
+		checkValid();
+		return current.getKey();
+	}
+
+	public byte[] value() {
+		checkValid();
+		if (currentPrefetched != null) {
+			return currentPrefetched.value();
+		}
+		// Kv separated values are read only when asked for
+		return Context.getInstance().getVLogReader().resolve(current);
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		dropWindow();
+		try {
+			merged.close();
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			if (snapshot != null) {
+				snapshot.close();
+			}
+		}
+	}
+
+	/**
+	 * Find the live entries after the last one known and start reading their values.
+	 */
+	private void fillWindow() {
+		if (prefetchEntries <= 0 || current == null || exhausted) {
+			return;
+		}
+		byte[] skip = ahead.isEmpty() ? current.getKey() : ahead.peekLast().entry.getKey();
+		List<SLNode> window = new ArrayList<>();
+		while (ahead.size() + window.size() < prefetchEntries) {
+			merged.next();
+			SLNode entry = findNext(skip);
+			if (entry == null) {
+				exhausted = true;
+				break;
+			}
+			window.add(entry);
+			skip = entry.getKey();
+		}
+		int chunkSize = (window.size() + prefetchParallelism - 1) / prefetchParallelism;
+		for (int from = 0; from < window.size(); from += chunkSize) {
+			List<SLNode> chunk = window.subList(from, Math.min(window.size(), from + chunkSize));
+			CompletableFuture<List<byte[]>> values = prefetchExecutor == null
+					? CompletableFuture.completedFuture(Context.getInstance().getVLogReader().resolveAll(chunk))
+					: CompletableFuture.supplyAsync(() -> Context.getInstance().getVLogReader().resolveAll(chunk),
+							prefetchExecutor);
+			for (int i = 0; i < chunk.size(); i++) {
+				ahead.add(new Prefetched(chunk.get(i), values, i));
+			}
+			Statistics.getInstance()
+				.record(Ticker.VLOG_PREFETCHED_VALUES, chunk.stream().filter(SLNode::isStoreMode).count());
+		}
+	}
+
+	/**
+	 * Forget the window, reads still running are left to finish.
+	 * @return whether the merge had moved past the current entry
+	 */
+	private boolean dropWindow() {
+		boolean movedAhead = !ahead.isEmpty() || exhausted;
+		ahead.clear();
+		exhausted = false;
+		currentPrefetched = null;
+		return movedAhead;
+	}
+
+	/**
+	 * Stop at the first live key after the skipped one, within the end bound.
+	 * @return the newest entry of that key, null at the end of the range
+	 */
+	private SLNode findNext(byte[] skip) {
+		while (merged.isValid()) {
+			byte[] key = merged.key();
+			if (end != null && StringUtil.compareByteArrays(key, end) >= 0) {
+				return null;
+			}
+			if (skip == null || !Arrays.equals(key, skip)) {
+				// The first entry of a key is its newest
+				SLNode entry = merged.entry();
+				if (!entry.isDeleted()) {
+					return entry;
+				}
+				skip = key;
+			}
+			merged.next();
+		}
+		return null;
+	}
+
+	/**
+	 * Stop at the first live key before the skipped one, within the bounds.
+	 */
+	private void findPrev(byte[] skip) {
+		current = null;
+		while (merged.isValid()) {
+			byte[] key = merged.key();
+			if (start != null && StringUtil.compareByteArrays(key, start) < 0) {
+				return;
+			}
+			boolean inRange = end == null || StringUtil.compareByteArrays(key, end) < 0;
+			if (inRange && (skip == null || !Arrays.equals(key, skip))) {
+				SLNode entry = merged.entry();
+				if (!entry.isDeleted()) {
+					current = entry;
+					return;
+				}
+				skip = key;
+			}
+			merged.prev();
+		}
+	}
+
+	private void checkValid() {
+		if (current == null) {
+			throw new NoSuchElementException();
+		}
+	}
+
+	private static final class Prefetched {
+
+		private final SLNode entry;
+
+		/**
+		 * Values of the chunk the entry was read with.
+		 */
+		private final CompletableFuture<List<byte[]>> values;
+
+		private final int index;
+
+		private Prefetched(SLNode entry, CompletableFuture<List<byte[]>> values, int index) {
+			this.entry = entry;
+			this.values = values;
+			this.index = index;
+		}
+
+		private byte[] value() {
+			try {
+				return values.join().get(index);
+			}
+			catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+
+	}
+
+}
@@ -4,46 +4,170 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.bean.VLogEntity;
+import org.apache.flamingo.cache.BlockCache;
 import org.apache.flamingo.core.Context;
 import org.apache.flamingo.core.IDAssign;
 import org.apache.flamingo.file.FileUtil;
 import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.iterator.InternalIterator;
 import org.apache.flamingo.memtable.MemoryTable;
 import org.apache.flamingo.options.Options;
 import org.apache.flamingo.meta.MetaInfo;
+import org.apache.flamingo.meta.Version;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
 import org.apache.flamingo.task.MemoryTableTask;
 import org.apache.flamingo.task.TaskManager;
 import org.apache.flamingo.wal.WALWriter;
+import org.apache.flamingo.utils.Pair;
+import org.apache.flamingo.utils.StringUtil;
 
 import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Stream;
 
 @Slf4j
 @Getter
 public class FlamingoLSM implements AutoCloseable {
 
-	private final int memoryTableThresholdSize;
+	private final long memoryTableThresholdBytes;
 
-	private MemoryTable memoryTable;
+	private volatile MemoryTable memoryTable;
+
+	/**
+	 * Writers share the read lock while writing into the active memory table, switching
+	 * the memory table takes the write lock so no write lands in a table being flushed.
+	 */
+	private final ReentrantReadWriteLock switchLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Write batches are inserted under the write lock and memory table lookups take the
+	 * read lock, so a reader sees either none or all of a batch. Single writes are atomic
+	 * on their own and do not take it.
+	 */
+	private final ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
 
 	private MetaInfo metaInfo;
 
 	private final TaskManager taskManager;
 
+	private final int maxImmutableMemoryTables;
+
+	private final int level0SlowdownWritesTrigger;
+
+	private final int level0StopWritesTrigger;
+
+	private final long slowdownWriteDelayMicros;
+
+	/**
+	 * Full memory tables handed to the flush thread and not flushed yet, newest first.
+	 * They stay readable until their sstable is registered in the meta info.
+	 */
+	private final CopyOnWriteArrayList<MemoryTable> immutableMemoryTables = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Signalled whenever a flush completes, blocked writers wait on it.
+	 */
+	private final ReentrantLock stallLock = new ReentrantLock();
+
+	private final Condition flushCompleted = stallLock.newCondition();
+
+	/**
+	 * Asynchronous ingest, null unless async_write is enabled.
+	 */
+	private final WritePipeline writePipeline;
+
+	/**
+	 * Reads the sstables of a multi get in parallel, null unless multi_get_threads is
+	 * set.
+	 */
+	private final ExecutorService multiGetExecutor;
+
+	private final int scanPrefetchEntries;
+
+	private final int scanPrefetchThreads;
+
+	/**
+	 * Reads the values iterators prefetch, null unless scan_prefetch_threads is set.
+	 */
+	private final ExecutorService scanPrefetchExecutor;
+
+	/**
+	 * Snapshots not closed yet, the value log garbage collection keeps the files they may
+	 * read.
+	 */
+	private final Set<Snapshot> openSnapshots = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Held shared by reads without a snapshot and while a snapshot registers, held
+	 * exclusively by the value log garbage collection to wait for them.
+	 */
+	private final ReentrantReadWriteLock valueLogReadLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Tests only: runs while a snapshot is taken, after the sequence number and memory
+	 * tables were read and before the version is pinned.
+	 */
+	volatile Runnable beforeVersionPinned;
+
+	private final VLogGarbageCollector vLogGarbageCollector;
+
 	public FlamingoLSM() {
 		ObjectMapper objectMapper = new ObjectMapper();
 		Context.getInstance().setObjectMapper(objectMapper);
-		this.memoryTableThresholdSize = Integer.parseInt(Options.MemoryTableThresholdSize.getValue());
+		Context.getInstance().setBlockCache(BlockCache.fromOptions());
+		this.memoryTableThresholdBytes = Long.parseLong(Options.MemoryTableThresholdBytes.getValue());
+		this.maxImmutableMemoryTables = Integer.parseInt(Options.MaxImmutableMemoryTables.getValue());
+		// FIFO compaction keeps every table on level 0, the TTL and the size cap bound it
+		boolean fifo = "fifo".equals(Options.CompactionStyle.getValue());
+		this.level0SlowdownWritesTrigger = fifo ? Integer.MAX_VALUE
+				: Integer.parseInt(Options.Level0SlowdownWritesTrigger.getValue());
+		this.level0StopWritesTrigger = fifo ? Integer.MAX_VALUE
+				: Integer.parseInt(Options.Level0StopWritesTrigger.getValue());
+		this.slowdownWriteDelayMicros = Long.parseLong(Options.SlowdownWriteDelayMicros.getValue());
 		this.taskManager = new TaskManager();
-		this.memoryTable = new MemoryTable();
-		this.metaInfo = new MetaInfo();
-		Context.getInstance().setMetaInfo(metaInfo);
 		init();
+		Context.getInstance().setMetaInfo(metaInfo);
+		this.memoryTable = new MemoryTable();
 		taskManager.start();
+		this.writePipeline = Boolean.parseBoolean(Options.AsyncWrite.getValue())
+				? new WritePipeline(this, Integer.parseInt(Options.RingBufferSize.getValue())) : null;
+		this.multiGetExecutor = createExecutor("multi-get-", Integer.parseInt(Options.MultiGetThreads.getValue()));
+		this.scanPrefetchEntries = Integer.parseInt(Options.ScanPrefetchEntries.getValue());
+		this.scanPrefetchThreads = Integer.parseInt(Options.ScanPrefetchThreads.getValue());
+		this.scanPrefetchExecutor = createExecutor("scan-prefetch-", scanPrefetchThreads);
+		this.vLogGarbageCollector = new VLogGarbageCollector(this);
+	}
+
+	private static ExecutorService createExecutor(String namePrefix, int threads) {
+		if (threads <= 0) {
+			return null;
+		}
+		AtomicInteger threadId = new AtomicInteger(0);
+		return Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, namePrefix + threadId.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
 	private void init() {
@@ -52,10 +176,12 @@ public class FlamingoLSM implements AutoCloseable {
 			Files.createDirectories(Paths.get(NamedUtil.getValueDir()));
 			FileUtil.checkFileExistsOrCreate(NamedUtil.getMetaDir());
 			int keyMaxOrder = FileUtil.getMaxOrder(NamedUtil.getKeyDir(), "(\\d+)\\.sst");
-			int valMaxOrder = FileUtil.getMaxOrder(NamedUtil.getValueDir(), "(\\d+)\\.wal");
+			// Value log files are collected by id, so ids must never be reused
+			int valMaxOrder = FileUtil.getMaxOrder(NamedUtil.getValueDir(), "v_active_(\\d+)\\.wal");
 			IDAssign.initSSTAssign(keyMaxOrder);
 			IDAssign.initWALAssign(valMaxOrder);
 			this.metaInfo = MetaInfo.deserialize(NamedUtil.getMetaDir());
+			IDAssign.initSequenceAssign(metaInfo.getLargestSequence());
 		}
 		catch (FileAlreadyExistsException ignore) {
 			// Ignore exception
@@ -65,34 +191,474 @@ public class FlamingoLSM implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * With async_write the write is queued and becomes visible once the pipeline applied
+	 * it.
+	 */
 	public boolean add(byte[] key, byte[] value) throws IOException {
-		memoryTable.add(key, value);
-		if (memoryTable.size() > memoryTableThresholdSize) {
-			MemoryTableTask task = new MemoryTableTask(memoryTable);
-			taskManager.addTask(task);
-			log.debug("Switch memory table");
-			memoryTable = new MemoryTable();
+		if (writePipeline != null) {
+			writePipeline.publish(key, value, false);
+			return true;
+		}
+		makeRoomForWrite();
+		switchLock.readLock().lock();
+		try {
+			memoryTable.add(key, value);
+		}
+		finally {
+			switchLock.readLock().unlock();
 		}
 		return true;
 	}
 
+	/**
+	 * Apply the puts and deletes of the batch atomically: the records are appended to the
+	 * value log with one request, get consecutive sequence numbers and are inserted in
+	 * one pass. With async_write the batch is queued like a single write.
+	 */
+	public void write(WriteBatch batch) throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		if (writePipeline != null) {
+			writePipeline.publish(batch);
+			return;
+		}
+		makeRoomForWrite();
+		switchLock.readLock().lock();
+		try {
+			MemoryTable current = memoryTable;
+			long sequence = IDAssign.nextSequence(batch.count());
+			try {
+				batch.assignSequences(sequence);
+				List<VLogAddress> addresses = current.getWriter().write(batch.getEntities());
+				applyBatch(current, batch, addresses);
+			}
+			finally {
+				IDAssign.publishSequences(sequence, batch.count());
+			}
+		}
+		finally {
+			switchLock.readLock().unlock();
+		}
+	}
+
+	void applyBatch(MemoryTable target, WriteBatch batch, List<VLogAddress> addresses) {
+		batchLock.writeLock().lock();
+		try {
+			target.applyBatch(batch.getEntities(), addresses);
+		}
+		finally {
+			batchLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Make sure the active memory table can take a write, as in RocksDB:
+	 * <p>
+	 * 1: level 0 reached the slowdown trigger: delay the write once
+	 * <p>
+	 * 2: level 0 reached the stop trigger: block until compaction shrinks it
+	 * <p>
+	 * 3: the active memory table is full: switch it, or block while too many full tables
+	 * wait for the flush thread
+	 */
+	void makeRoomForWrite() {
+		boolean allowDelay = true;
+		long stallStart = 0;
+		while (true) {
+			int level0 = metaInfo.getLevelSize(0);
+			if (allowDelay && level0 >= level0SlowdownWritesTrigger && level0 < level0StopWritesTrigger) {
+				long start = System.nanoTime();
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(slowdownWriteDelayMicros));
+				Statistics.getInstance().record(Ticker.STALL_SLOWDOWN_WRITES);
+				Statistics.getInstance()
+					.record(Ticker.STALL_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+				allowDelay = false;
+			}
+			else if (level0 >= level0StopWritesTrigger || (memoryTable.getMemoryUsage() > memoryTableThresholdBytes
+					&& immutableMemoryTables.size() >= maxImmutableMemoryTables)) {
+				if (stallStart == 0) {
+					stallStart = System.nanoTime();
+					Statistics.getInstance().record(Ticker.STALL_STOP_WRITES);
+					log.debug("Stop writes, level 0 sstables: {}, immutable memory tables: {}", level0,
+							immutableMemoryTables.size());
+				}
+				awaitFlush();
+			}
+			else if (memoryTable.getMemoryUsage() > memoryTableThresholdBytes) {
+				switchMemoryTable(memoryTable);
+			}
+			else {
+				break;
+			}
+		}
+		if (stallStart != 0) {
+			Statistics.getInstance()
+				.record(Ticker.STALL_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - stallStart));
+		}
+	}
+
+	/**
+	 * Pin the active memory table for writes that are logged now and inserted later, it
+	 * is not flushed before they are released.
+	 */
+	MemoryTable pinActiveMemoryTable(int writes) {
+		switchLock.readLock().lock();
+		try {
+			MemoryTable current = memoryTable;
+			current.retainWrites(writes);
+			return current;
+		}
+		finally {
+			switchLock.readLock().unlock();
+		}
+	}
+
+	private void awaitFlush() {
+		stallLock.lock();
+		try {
+			// Compactions do not signal, so check the level 0 size again now and then
+			flushCompleted.await(10, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a flush!", e);
+		}
+		finally {
+			stallLock.unlock();
+		}
+	}
+
+	/**
+	 * Hand the full memory table to the flush thread, only the first writer that sees it
+	 * full does the switch.
+	 */
+	private void switchMemoryTable(MemoryTable full) {
+		switchLock.writeLock().lock();
+		try {
+			if (memoryTable != full) {
+				return;
+			}
+			scheduleFlush(full);
+			log.debug("Switch memory table, usage: {} bytes, entries: {}", full.getMemoryUsage(), full.size());
+			memoryTable = new MemoryTable();
+		}
+		finally {
+			switchLock.writeLock().unlock();
+		}
+	}
+
+	private void scheduleFlush(MemoryTable immutable) {
+		// Readers look at the active table before the immutable ones, so the table
+		// must be listed before it stops being the active one
+		immutableMemoryTables.add(0, immutable);
+		taskManager.addTask(new MemoryTableTask(immutable, this::onFlushCompleted));
+	}
+
+	private void onFlushCompleted(MemoryTable flushed, boolean success) {
+		// The sstable is registered before a success is reported, nothing becomes
+		// invisible. A failed table stays readable while the task manager retries it
+		if (success) {
+			metaInfo.getFlushLock().writeLock().lock();
+			try {
+				immutableMemoryTables.remove(flushed);
+			}
+			finally {
+				metaInfo.getFlushLock().writeLock().unlock();
+			}
+		}
+		stallLock.lock();
+		try {
+			flushCompleted.signalAll();
+		}
+		finally {
+			stallLock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of full memory tables waiting for the flush thread
+	 */
+	public int getImmutableMemoryTableCount() {
+		return immutableMemoryTables.size();
+	}
+
+	/**
+	 * @return approximate bytes held by the active memory table, it is switched once this
+	 * exceeds {@link #getMemoryTableThresholdBytes()}
+	 */
+	public long getMemoryTableUsage() {
+		return memoryTable.getMemoryUsage();
+	}
+
 	public boolean delete(byte[] key) {
+		if (writePipeline != null) {
+			writePipeline.publish(key, null, true);
+			return true;
+		}
+		// Tombstones take memory as well
+		makeRoomForWrite();
+		switchLock.readLock().lock();
 		try {
 			memoryTable.delete(key);
 		}
 		catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		finally {
+			switchLock.readLock().unlock();
+		}
 		return true;
 	}
 
+	/**
+	 * Search the active memory table, then the immutable ones from newest to oldest, then
+	 * the sstables. The first entry found wins, a tombstone hides older values.
+	 */
 	public byte[] search(byte[] key) {
-		SLNode memory = memoryTable.search(key);
-		if (memory != null && memory.isDeleted()) {
-			return null;
+		// The value log garbage collection waits for the read to resolve its address
+		valueLogReadLock.readLock().lock();
+		try {
+			SLNode memory;
+			batchLock.readLock().lock();
+			try {
+				memory = memoryTable.get(key);
+				if (memory == null) {
+					for (MemoryTable immutable : immutableMemoryTables) {
+						memory = immutable.get(key);
+						if (memory != null) {
+							break;
+						}
+					}
+				}
+			}
+			finally {
+				batchLock.readLock().unlock();
+			}
+			if (memory != null) {
+				return Context.getInstance().getVLogReader().resolve(memory);
+			}
+			// Search from disk
+			return metaInfo.search(key);
+		}
+		finally {
+			valueLogReadLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Take a consistent view of the store for reads with
+	 * {@link #search(byte[], Snapshot)}, without blocking writers. It sees every write
+	 * returned so far, writes in flight and later ones stay invisible. It pins the memory
+	 * tables and sstables it reads, so close it when done.
+	 */
+	public Snapshot getSnapshot() {
+		valueLogReadLock.readLock().lock();
+		try {
+			return registerSnapshot();
+		}
+		finally {
+			valueLogReadLock.readLock().unlock();
+		}
+	}
+
+	private Snapshot registerSnapshot() {
+		long sequence;
+		List<MemoryTable> memoryTables;
+		Version version;
+		// No flush installs a table in between: every sstable pinned below was flushed
+		// after all its writes were published, so before the sequence is read
+		metaInfo.getFlushLock().readLock().lock();
+		try {
+			// Writes are published in order once inserted, so every write up to the
+			// sequence is in one of the tables below
+			sequence = IDAssign.getLastPublishedSequence();
+			// A switched table is listed as immutable before the new one becomes active,
+			// so reading the active table first misses nothing
+			MemoryTable active = memoryTable;
+			memoryTables = new ArrayList<>(1 + immutableMemoryTables.size());
+			memoryTables.add(active);
+			memoryTables.addAll(immutableMemoryTables);
+			Runnable hook = beforeVersionPinned;
+			if (hook != null) {
+				hook.run();
+			}
+			version = metaInfo.currentVersion();
+		}
+		finally {
+			metaInfo.getFlushLock().readLock().unlock();
+		}
+		Snapshot snapshot = new Snapshot(sequence, memoryTables, version, openSnapshots::remove);
+		openSnapshots.add(snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * Read the key as of the snapshot, without blocking writers.
+	 */
+	public byte[] search(byte[] key, Snapshot snapshot) {
+		return snapshot.get(key);
+	}
+
+	/**
+	 * Look up many keys at once, faster than searching them one by one: the keys are
+	 * sorted, every memory table is probed once per key and each sstable that may hold
+	 * some of them is read once, sharing block reads between neighbouring keys.
+	 * @return the values in the order of the keys, null where a key is absent
+	 */
+	public List<byte[]> multiGet(List<byte[]> keys) {
+		try (Snapshot snapshot = getSnapshot()) {
+			return multiGet(keys, snapshot);
+		}
+	}
+
+	/**
+	 * Look up many keys as of the snapshot.
+	 */
+	public List<byte[]> multiGet(List<byte[]> keys, Snapshot snapshot) {
+		return snapshot.multiGet(keys, multiGetExecutor);
+	}
+
+	/**
+	 * Iterate the keys in [start, end) as they are now. The iterator reads its own
+	 * snapshot and releases it on close.
+	 * @param start inclusive, null for no lower bound
+	 * @param end exclusive, null for no upper bound
+	 */
+	public FlamingoIterator newIterator(byte[] start, byte[] end) {
+		Snapshot snapshot = getSnapshot();
+		try {
+			return newIterator(snapshot.newInternalIterator(), start, end, snapshot);
+		}
+		catch (RuntimeException e) {
+			snapshot.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Iterate the keys in [start, end) as of the snapshot, which must stay open while the
+	 * iterator is used.
+	 */
+	public FlamingoIterator newIterator(byte[] start, byte[] end, Snapshot snapshot) {
+		return newIterator(snapshot.newInternalIterator(), start, end, null);
+	}
+
+	/**
+	 * Iterate the keys starting with the prefix as they are now. Sstables whose key range
+	 * or prefix bloom filter rules the prefix out are not read at all, in the others the
+	 * sparse index seeks straight to the first block that may hold the prefix and the
+	 * scan stops at the first key past it.
+	 */
+	public FlamingoIterator scanPrefix(byte[] prefix) {
+		byte[] end = StringUtil.prefixSuccessor(prefix);
+		Snapshot snapshot = getSnapshot();
+		try {
+			return newIterator(snapshot.newInternalIterator(table -> table.mayContainPrefix(prefix)), prefix, end,
+					snapshot);
+		}
+		catch (RuntimeException e) {
+			snapshot.close();
+			throw e;
+		}
+	}
+
+	private FlamingoIterator newIterator(InternalIterator merged, byte[] start, byte[] end, Snapshot owned) {
+		return new FlamingoIterator(merged, start, end, owned, scanPrefetchEntries, scanPrefetchExecutor,
+				scanPrefetchThreads);
+	}
+
+	/**
+	 * Wait for the reads without a snapshot in flight, reads starting later see the
+	 * addresses relocated so far.
+	 * @return the snapshots open right now, none of them half registered
+	 */
+	List<Snapshot> awaitValueLogReads() {
+		valueLogReadLock.writeLock().lock();
+		try {
+			return new ArrayList<>(openSnapshots);
+		}
+		finally {
+			valueLogReadLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrite the value log files whose garbage ratio reaches vlog_gc_garbage_ratio and
+	 * delete the files rewritten before that nothing reads anymore. The collection also
+	 * runs in the background every vlog_gc_interval_millis.
+	 * @return number of files rewritten
+	 */
+	public int collectValueLogGarbage() {
+		return vLogGarbageCollector.collect();
+	}
+
+	/**
+	 * Block until the background compactions are done, the tables flushed so far have
+	 * been merged down as far as the level thresholds require.
+	 */
+	public void waitForCompactions() {
+		metaInfo.awaitCompactions();
+	}
+
+	/**
+	 * Move the kv separated records of a value log file that are still the newest entry
+	 * of their key to the active value log. They keep their sequence number, so the moved
+	 * entry shadows the old one everywhere it is compared: the memory table is searched
+	 * first and compactions prefer the newer table on equal sequence numbers.
+	 * @param addresses where the records are now
+	 * @return the records moved and the memory table they were inserted into, null when
+	 * none moved
+	 */
+	Pair<List<VLogEntity>, MemoryTable> relocate(List<VLogEntity> entities, List<VLogAddress> addresses)
+			throws IOException {
+		makeRoomForWrite();
+		switchLock.readLock().lock();
+		// Immutable tables before the version, a table flushed in between is seen twice
+		// rather than not at all
+		List<MemoryTable> immutables = new ArrayList<>(immutableMemoryTables);
+		try (Version version = metaInfo.currentVersion()) {
+			MemoryTable current = memoryTable;
+			List<VLogEntity> live = new ArrayList<>(entities.size());
+			for (int i = 0; i < entities.size(); i++) {
+				byte[] key = entities.get(i).getKey();
+				SLNode newest = current.get(key);
+				for (int j = 0; newest == null && j < immutables.size(); j++) {
+					newest = immutables.get(j).get(key);
+				}
+				if (newest == null) {
+					newest = version.get(key);
+				}
+				if (newest != null && newest.isStoreMode() && !newest.isDeleted()
+						&& sameRecord(newest.getAddress(), addresses.get(i))) {
+					live.add(entities.get(i));
+				}
+			}
+			if (live.isEmpty()) {
+				return Pair.of(live, null);
+			}
+			List<VLogAddress> moved = current.getWriter().write(live);
+			batchLock.writeLock().lock();
+			try {
+				for (int i = 0; i < live.size(); i++) {
+					VLogEntity entity = live.get(i);
+					current.apply(entity.getKey(), entity.getValue(), false, moved.get(i), entity.getSequence());
+				}
+			}
+			finally {
+				batchLock.writeLock().unlock();
+			}
+			return Pair.of(live, current);
+		}
+		finally {
+			switchLock.readLock().unlock();
 		}
-		// Search from disk
-		return metaInfo.search(key);
+	}
+
+	private static boolean sameRecord(VLogAddress address, VLogAddress other) {
+		return address != null && Objects.equals(address.getFieldID(), other.getFieldID())
+				&& Objects.equals(address.getOffset(), other.getOffset());
 	}
 
 	/**
@@ -136,28 +702,56 @@ public class FlamingoLSM implements AutoCloseable {
 	private void restoreSilenceFile(Path path) {
 		String silenceFileName = path.getFileName().toString();
 		MemoryTable silenceMemTable = MemoryTable.buildFromWAL(this, FileUtil.getDataDirFilePath(silenceFileName));
-		MemoryTableTask task = new MemoryTableTask(silenceMemTable);
-		taskManager.addTask(task);
+		scheduleFlush(silenceMemTable);
 	}
 
 	public void flush(boolean terminal) {
-		MemoryTableTask task = new MemoryTableTask(memoryTable);
-		taskManager.addTask(task);
-		if (!terminal) {
-			memoryTable = new MemoryTable();
+		switchLock.writeLock().lock();
+		try {
+			scheduleFlush(memoryTable);
+			if (!terminal) {
+				memoryTable = new MemoryTable();
+			}
+		}
+		finally {
+			switchLock.writeLock().unlock();
 		}
 	}
 
 	@Override
 	public void close() {
+		vLogGarbageCollector.close();
+		RuntimeException backgroundError = null;
+		if (writePipeline != null) {
+			// Apply everything published so far, a background error is thrown once the
+			// rest is closed
+			try {
+				writePipeline.close();
+			}
+			catch (RuntimeException e) {
+				backgroundError = e;
+			}
+		}
 		flush(true);
-		memoryTable.close();
 		try {
 			taskManager.close();
 		}
 		catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
+		// The last memory table has been flushed by the task manager
+		memoryTable.closeWriter();
+		metaInfo.close();
+		if (multiGetExecutor != null) {
+			multiGetExecutor.shutdown();
+		}
+		if (scanPrefetchExecutor != null) {
+			scanPrefetchExecutor.shutdown();
+		}
+		Context.getInstance().getVLogReader().close();
+		if (backgroundError != null) {
+			throw backgroundError;
+		}
 		log.debug("Closing FlamingoLSM Success!");
 	}
 
@@ -0,0 +1,166 @@
+package org.apache.flamingo.lsm;
+
+import lombok.Getter;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.core.Context;
+import org.apache.flamingo.iterator.InternalIterator;
+import org.apache.flamingo.iterator.MergingIterator;
+import org.apache.flamingo.memtable.MemoryTable;
+import org.apache.flamingo.meta.LevelIterator;
+import org.apache.flamingo.meta.MetaInfo;
+import org.apache.flamingo.meta.SSTMetaInfo;
+import org.apache.flamingo.meta.Version;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Point-in-time view of the store, taken by {@link FlamingoLSM#getSnapshot()}.
+ * <p>
+ * Every write has a sequence number and the snapshot sees exactly the writes up to its
+ * own. The memory tables of the moment are kept with all their versions and read as of
+ * that sequence number; the sstables of the moment are pinned as a {@link Version}, so
+ * flushes and compactions go on without disturbing the snapshot. Their records are all
+ * older than the snapshot: sstables are not compared by sequence number, so a table
+ * flushed while the snapshot is taken must not be pinned, see
+ * {@link MetaInfo#getFlushLock()}.
+ * <p>
+ * Pinned memory tables and files are held until {@link #close()}.
+ */
+public class Snapshot implements AutoCloseable {
+
+	@Getter
+	private final long sequence;
+
+	/**
+	 * Newest first.
+	 */
+	private final List<MemoryTable> memoryTables;
+
+	private final Version version;
+
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	/**
+	 * Called once on close.
+	 */
+	private final Consumer<Snapshot> onClose;
+
+	Snapshot(long sequence, List<MemoryTable> memoryTables, Version version, Consumer<Snapshot> onClose) {
+		this.sequence = sequence;
+		this.memoryTables = memoryTables;
+		this.version = version;
+		this.onClose = onClose;
+	}
+
+	byte[] get(byte[] key) {
+		for (MemoryTable memoryTable : memoryTables) {
+			SLNode entry = memoryTable.get(key, sequence);
+			if (entry != null) {
+				return Context.getInstance().getVLogReader().resolve(entry);
+			}
+		}
+		return version.search(key).getF0();
+	}
+
+	/**
+	 * Merge of every memory table and sstable of the snapshot, newest source first:
+	 * memory tables, the level 0 tables one by one, then one concatenation per level.
+	 */
+	InternalIterator newInternalIterator() {
+		return newInternalIterator(table -> true);
+	}
+
+	/**
+	 * @param tableFilter tables it rejects are left out of the merge
+	 */
+	InternalIterator newInternalIterator(Predicate<SSTMetaInfo> tableFilter) {
+		List<InternalIterator> children = new ArrayList<>();
+		for (MemoryTable memoryTable : memoryTables) {
+			children.add(memoryTable.newIterator(sequence));
+		}
+		for (int level = 0; level < version.getLevelCount(); level++) {
+			SSTMetaInfo[] tables = Arrays.stream(version.getTables(level))
+				.filter(tableFilter)
+				.toArray(SSTMetaInfo[]::new);
+			if (tables.length == 0) {
+				continue;
+			}
+			if (level == 0) {
+				for (SSTMetaInfo table : tables) {
+					children.add(table.getReader().newIterator(true));
+				}
+			}
+			else {
+				children.add(new LevelIterator(tables));
+			}
+		}
+		return new MergingIterator(children);
+	}
+
+	/**
+	 * Sort the keys once, probe every memory table once per key, then hand the rest to
+	 * the sstables in one pass per level.
+	 */
+	List<byte[]> multiGet(List<byte[]> keys, Executor executor) {
+		Integer[] order = new Integer[keys.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (i1, i2) -> StringUtil.compareByteArrays(keys.get(i1), keys.get(i2)));
+		// Duplicates share one slot
+		int[] slots = new int[order.length];
+		List<byte[]> distinct = new ArrayList<>(order.length);
+		for (Integer index : order) {
+			byte[] key = keys.get(index);
+			if (distinct.isEmpty() || !Arrays.equals(distinct.get(distinct.size() - 1), key)) {
+				distinct.add(key);
+			}
+			slots[index] = distinct.size() - 1;
+		}
+		byte[][] sorted = distinct.toArray(new byte[0][]);
+		SLNode[] found = new SLNode[sorted.length];
+		for (MemoryTable memoryTable : memoryTables) {
+			for (int i = 0; i < sorted.length; i++) {
+				if (found[i] == null) {
+					found[i] = memoryTable.get(sorted[i], sequence);
+				}
+			}
+		}
+		version.multiGet(sorted, found, executor);
+		List<byte[]> values = new ArrayList<>(order.length);
+		for (int slot : slots) {
+			SLNode entry = found[slot];
+			values.add(entry == null ? null : Context.getInstance().getVLogReader().resolve(entry));
+		}
+		return values;
+	}
+
+	List<MemoryTable> getMemoryTables() {
+		return memoryTables;
+	}
+
+	Version getVersion() {
+		return version;
+	}
+
+	boolean isClosed() {
+		return closed.get();
+	}
+
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		version.release();
+		onClose.accept(this);
+	}
+
+}
@@ -0,0 +1,240 @@
+package org.apache.flamingo.lsm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.bean.VLogEntity;
+import org.apache.flamingo.core.Context;
+import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.memtable.MemoryTable;
+import org.apache.flamingo.meta.MetaInfo;
+import org.apache.flamingo.meta.VLogMetaInfo;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.Pair;
+import org.apache.flamingo.utils.RateLimiter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Value log garbage collection, as in WiscKey and the RocksDB blob files.
+ * <p>
+ * The value log file of a flushed memory table holds the kv separated values its sstable
+ * references, plus garbage: inline values, tombstones and versions overwritten in the
+ * memory table. Compactions add the separated values they drop. Files whose garbage ratio
+ * reaches vlog_gc_garbage_ratio are read sequentially, the records still referenced by
+ * the newest entry of their key are appended to the active value log and inserted again
+ * with their sequence number, and the file is dropped from the meta info.
+ * <p>
+ * The file itself is deleted in a later round, once the memory tables holding the moved
+ * records are flushed and the snapshots that were open when it was rewritten are closed.
+ * Reads without a snapshot in flight during the rewrite are waited for, later ones find
+ * the moved records. A crash before the deletion leaks the file, the moved records are
+ * not lost with the memory table. The reads and writes of the collection are throttled by
+ * vlog_gc_bytes_per_second.
+ */
+@Slf4j
+class VLogGarbageCollector implements AutoCloseable {
+
+	/**
+	 * Records relocated under one lock.
+	 */
+	private static final int RELOCATE_BATCH = 256;
+
+	private final FlamingoLSM lsm;
+
+	private final double garbageRatio;
+
+	private final RateLimiter rateLimiter;
+
+	/**
+	 * Null when the collection only runs on demand.
+	 */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Rewritten files waiting to be deleted.
+	 */
+	private final List<PendingDelete> pendingDeletes = new ArrayList<>();
+
+	VLogGarbageCollector(FlamingoLSM lsm) {
+		this.lsm = lsm;
+		this.garbageRatio = Double.parseDouble(Options.VLogGCGarbageRatio.getValue());
+		this.rateLimiter = new RateLimiter(Long.parseLong(Options.VLogGCBytesPerSecond.getValue()));
+		long intervalMillis = Long.parseLong(Options.VLogGCIntervalMillis.getValue());
+		if (intervalMillis > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "vlog-gc");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(this::collectQuietly, intervalMillis, intervalMillis,
+					TimeUnit.MILLISECONDS);
+		}
+		else {
+			this.scheduler = null;
+		}
+	}
+
+	private void collectQuietly() {
+		try {
+			collect();
+		}
+		catch (RuntimeException e) {
+			log.error("Value log garbage collection failed", e);
+		}
+	}
+
+	/**
+	 * Delete the files rewritten by earlier rounds that nothing reads anymore, then
+	 * rewrite the files with enough garbage.
+	 * @return number of files rewritten
+	 */
+	synchronized int collect() {
+		deleteObsoleteFiles();
+		MetaInfo metaInfo = lsm.getMetaInfo();
+		VLogMetaInfo vLogMetaInfo = metaInfo.getVLogMetaInfo();
+		int rewritten = 0;
+		for (VLogMetaInfo.FileStats stats : vLogMetaInfo.pickFiles(garbageRatio)) {
+			long fileId = stats.getFileId();
+			List<MemoryTable> relocatedInto = new ArrayList<>();
+			try {
+				rewrite(fileId, relocatedInto);
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Rewrite value log " + fileId + " failed", e);
+			}
+			vLogMetaInfo.removeFile(fileId);
+			metaInfo.serialize();
+			pendingDeletes.add(new PendingDelete(fileId, relocatedInto, lsm.awaitValueLogReads()));
+			Statistics.getInstance().record(Ticker.VLOG_GC_FILES);
+			rewritten++;
+		}
+		return rewritten;
+	}
+
+	private void rewrite(long fileId, List<MemoryTable> relocatedInto) throws IOException {
+		String path = NamedUtil.getValueFilePath(fileId);
+		log.debug("Rewrite value log {}", path);
+		List<VLogEntity> entities = new ArrayList<>(RELOCATE_BATCH);
+		List<VLogAddress> addresses = new ArrayList<>(RELOCATE_BATCH);
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			long offset = 0;
+			while (true) {
+				int total;
+				try {
+					total = input.readInt();
+				}
+				catch (EOFException e) {
+					break;
+				}
+				rateLimiter.acquire(total);
+				ByteBuffer record = ByteBuffer.allocate(total);
+				record.putInt(0, total);
+				input.readFully(record.array(), 4, total - 4);
+				VLogEntity entity = VLogEntity.deserialize(record);
+				if (!entity.isDeleted()) {
+					entities.add(entity);
+					addresses.add(VLogAddress.from(fileId, offset, total));
+				}
+				offset += total;
+				if (entities.size() >= RELOCATE_BATCH) {
+					relocate(entities, addresses, relocatedInto);
+				}
+			}
+		}
+		relocate(entities, addresses, relocatedInto);
+	}
+
+	private void relocate(List<VLogEntity> entities, List<VLogAddress> addresses, List<MemoryTable> relocatedInto)
+			throws IOException {
+		if (entities.isEmpty()) {
+			return;
+		}
+		Pair<List<VLogEntity>, MemoryTable> result = lsm.relocate(entities, addresses);
+		List<VLogEntity> relocated = result.getF0();
+		MemoryTable table = result.getF1();
+		if (table != null && relocatedInto.stream().noneMatch(added -> added == table)) {
+			relocatedInto.add(table);
+		}
+		// The records are written again
+		rateLimiter.acquire(relocated.stream().mapToLong(VLogEntity::getTotalSize).sum());
+		Statistics.getInstance().record(Ticker.VLOG_GC_RELOCATED_RECORDS, relocated.size());
+		entities.clear();
+		addresses.clear();
+	}
+
+	private void deleteObsoleteFiles() {
+		Iterator<PendingDelete> iterator = pendingDeletes.iterator();
+		while (iterator.hasNext()) {
+			PendingDelete pending = iterator.next();
+			if (!pending.isObsolete()) {
+				continue;
+			}
+			File file = new File(NamedUtil.getValueFilePath(pending.fileId));
+			if (file.exists() && !file.delete()) {
+				log.warn("Delete value log {} failed, retry in the next round", file);
+				continue;
+			}
+			Context.getInstance().getVLogReader().evict(pending.fileId);
+			Statistics.getInstance().record(Ticker.VLOG_GC_DELETED_FILES);
+			iterator.remove();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while stopping the value log garbage collection!", e);
+			}
+		}
+	}
+
+	private static final class PendingDelete {
+
+		private final long fileId;
+
+		/**
+		 * Memory tables the records were moved to, until they are flushed the old records
+		 * are the only durable copy.
+		 */
+		private final List<MemoryTable> relocatedInto;
+
+		/**
+		 * Snapshots open when the file was rewritten, they may still read the old
+		 * addresses.
+		 */
+		private final List<Snapshot> blockers;
+
+		private PendingDelete(long fileId, List<MemoryTable> relocatedInto, List<Snapshot> blockers) {
+			this.fileId = fileId;
+			this.relocatedInto = relocatedInto;
+			this.blockers = blockers;
+		}
+
+		private boolean isObsolete() {
+			return relocatedInto.stream().allMatch(table -> table.getState() == MemoryTable.MemoryTableState.Flushed)
+					&& blockers.stream().allMatch(Snapshot::isClosed);
+		}
+
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.apache.flamingo.lsm;
+
+import org.apache.flamingo.bean.VLogEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Puts and deletes applied together by {@link FlamingoLSM#write(WriteBatch)}: one value
+ * log append, one range of sequence numbers and one memory table insertion pass. Readers
+ * see either none or all of the batch.
+ * <p>
+ * Later operations on the same key win. Not thread safe, and a batch must not be changed
+ * once handed to the store.
+ */
+public class WriteBatch {
+
+	private final List<VLogEntity> entities = new ArrayList<>();
+
+	private long approximateSize = 0;
+
+	public WriteBatch put(byte[] key, byte[] value) {
+		return add(VLogEntity.from(key, value, false));
+	}
+
+	public WriteBatch delete(byte[] key) {
+		return add(VLogEntity.from(key, null, true));
+	}
+
+	private WriteBatch add(VLogEntity entity) {
+		entities.add(entity);
+		approximateSize += entity.getTotalSize();
+		return this;
+	}
+
+	public int count() {
+		return entities.size();
+	}
+
+	public boolean isEmpty() {
+		return entities.isEmpty();
+	}
+
+	/**
+	 * @return bytes the batch takes in the value log
+	 */
+	public long getApproximateSize() {
+		return approximateSize;
+	}
+
+	public void clear() {
+		entities.clear();
+		approximateSize = 0;
+	}
+
+	/**
+	 * Give the records consecutive sequence numbers in batch order.
+	 */
+	void assignSequences(long firstSequence) {
+		for (int i = 0; i < entities.size(); i++) {
+			entities.get(i).setSequence(firstSequence + i);
+		}
+	}
+
+	List<VLogEntity> getEntities() {
+		return Collections.unmodifiableList(entities);
+	}
+
+}
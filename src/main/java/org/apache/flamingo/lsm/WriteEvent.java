@@ -0,0 +1,75 @@
+package org.apache.flamingo.lsm;
+
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.memtable.MemoryTable;
+
+import java.util.List;
+
+/**
+ * Slot of the ring buffer of {@link WritePipeline}, allocated once and reused.
+ */
+class WriteEvent {
+
+	byte[] key;
+
+	byte[] value;
+
+	boolean deleted;
+
+	/**
+	 * Set instead of key and value when a whole {@link WriteBatch} was published.
+	 */
+	WriteBatch batch;
+
+	/**
+	 * Filled in by the journal handler.
+	 */
+	VLogAddress address;
+
+	/**
+	 * Addresses of the batch records, filled in by the journal handler.
+	 */
+	List<VLogAddress> addresses;
+
+	/**
+	 * Sequence number of the write, the first one of a batch. Filled in by the journal
+	 * handler.
+	 */
+	long sequence;
+
+	/**
+	 * Table whose value log holds the record, the entry is inserted into it. Null if the
+	 * record could not be logged.
+	 */
+	MemoryTable memoryTable;
+
+	void set(byte[] key, byte[] value, boolean deleted) {
+		this.key = key;
+		this.value = value;
+		this.deleted = deleted;
+		this.batch = null;
+		this.address = null;
+		this.addresses = null;
+		this.memoryTable = null;
+	}
+
+	void set(WriteBatch batch) {
+		set(null, null, false);
+		this.batch = batch;
+	}
+
+	/**
+	 * @return number of records the write puts into the value log
+	 */
+	int count() {
+		return batch == null ? 1 : batch.count();
+	}
+
+	/**
+	 * Drop the references so a slot does not keep data alive for a whole ring cycle.
+	 */
+	void clear() {
+		set(null, null, false);
+	}
+
+}
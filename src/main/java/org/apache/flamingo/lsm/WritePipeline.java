@@ -0,0 +1,241 @@
+package org.apache.flamingo.lsm;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.EventTranslatorThreeArg;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.bean.VLogEntity;
+import org.apache.flamingo.core.IDAssign;
+import org.apache.flamingo.memtable.MemoryTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous ingest built on a Disruptor ring buffer.
+ * <p>
+ * Producers publish into pre-allocated {@link WriteEvent}s and return. The journal
+ * handler collects the events of a batch and appends them to the value log of the active
+ * memory table with one group commit request. The memtable handler runs behind it and
+ * inserts the events in ring order, so later writes to a key win as in the synchronous
+ * path. A {@link WriteBatch} takes one slot and is applied as a whole.
+ * <p>
+ * A write is visible to readers only once the memtable handler applied it.
+ * <p>
+ * Once a write fails in the background, as with the RocksDB background error, the
+ * pipeline stops: the failed and all later writes are dropped, and every following
+ * publish as well as close throw the error.
+ */
+@Slf4j
+class WritePipeline implements AutoCloseable {
+
+	/**
+	 * Upper bound of the records appended to the value log at once.
+	 */
+	private static final int MAX_JOURNAL_BATCH = 1024;
+
+	private static final EventTranslatorThreeArg<WriteEvent, byte[], byte[], Boolean> TRANSLATOR = (event, sequence,
+			key, value, deleted) -> event.set(key, value, deleted);
+
+	private static final EventTranslatorOneArg<WriteEvent, WriteBatch> BATCH_TRANSLATOR = (event, sequence,
+			batch) -> event.set(batch);
+
+	private final FlamingoLSM lsm;
+
+	private final Disruptor<WriteEvent> disruptor;
+
+	private final RingBuffer<WriteEvent> ringBuffer;
+
+	/**
+	 * First failure of a handler, sticky.
+	 */
+	private final AtomicReference<Throwable> backgroundError = new AtomicReference<>();
+
+	WritePipeline(FlamingoLSM lsm, int ringBufferSize) {
+		this.lsm = lsm;
+		this.disruptor = new Disruptor<>(WriteEvent::new, ringBufferSize, DaemonThreadFactory.INSTANCE,
+				ProducerType.MULTI, new BlockingWaitStrategy());
+		disruptor.handleEventsWith(new JournalHandler()).then(new MemTableHandler());
+		this.ringBuffer = disruptor.start();
+	}
+
+	/**
+	 * Blocks only while the ring buffer is full.
+	 */
+	void publish(byte[] key, byte[] value, boolean deleted) {
+		checkBackgroundError();
+		ringBuffer.publishEvent(TRANSLATOR, key, value, deleted);
+	}
+
+	/**
+	 * The batch takes one slot and is applied atomically by the memtable handler.
+	 */
+	void publish(WriteBatch batch) {
+		checkBackgroundError();
+		ringBuffer.publishEvent(BATCH_TRANSLATOR, batch);
+	}
+
+	/**
+	 * Wait until every published write has been applied or dropped, then stop the
+	 * handlers.
+	 * @throws RuntimeException if a write failed in the background
+	 */
+	@Override
+	public void close() {
+		// Disruptor#shutdown ignores handlers whose thread has not started yet, wait for
+		// the memtable handler explicitly
+		while (ringBuffer.getMinimumGatingSequence() < ringBuffer.getCursor()) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+		}
+		disruptor.shutdown();
+		checkBackgroundError();
+	}
+
+	private void checkBackgroundError() {
+		Throwable error = backgroundError.get();
+		if (error != null) {
+			throw new RuntimeException("Async writes stopped by a background error", error);
+		}
+	}
+
+	private void setBackgroundError(Throwable error) {
+		if (!backgroundError.compareAndSet(null, error)) {
+			backgroundError.get().addSuppressed(error);
+		}
+	}
+
+	private class JournalHandler implements EventHandler<WriteEvent> {
+
+		private final List<WriteEvent> events = new ArrayList<>();
+
+		@Override
+		public void onEvent(WriteEvent event, long sequence, boolean endOfBatch) {
+			events.add(event);
+			// The slots of a batch are not reused before this handler finishes it
+			if (endOfBatch || events.size() >= MAX_JOURNAL_BATCH) {
+				journal();
+			}
+		}
+
+		private void journal() {
+			MemoryTable target = null;
+			long sequence = 0;
+			// Sequence numbers drawn, to publish if the events are not handed over
+			int records = 0;
+			boolean handedOver = false;
+			try {
+				if (backgroundError.get() != null) {
+					log.error("Drop {} writes after a background error", events.size());
+					return;
+				}
+				// Backpressure: stalls here fill the ring buffer and then block producers
+				lsm.makeRoomForWrite();
+				target = lsm.pinActiveMemoryTable(events.size());
+				int total = 0;
+				for (WriteEvent event : events) {
+					total += event.count();
+				}
+				// Only this thread assigns sequences to piped writes, so they
+				// follow ring order
+				sequence = IDAssign.nextSequence(total);
+				records = total;
+				List<VLogEntity> entities = new ArrayList<>(records);
+				for (WriteEvent event : events) {
+					event.sequence = sequence + entities.size();
+					if (event.batch != null) {
+						event.batch.assignSequences(event.sequence);
+						entities.addAll(event.batch.getEntities());
+					}
+					else {
+						entities.add(VLogEntity.from(event.key, event.value, event.deleted, event.sequence));
+					}
+				}
+				List<VLogAddress> addresses = target.getWriter().write(entities);
+				int index = 0;
+				for (WriteEvent event : events) {
+					int count = event.count();
+					if (event.batch != null) {
+						event.addresses = addresses.subList(index, index + count);
+					}
+					else {
+						event.address = addresses.get(index);
+					}
+					index += count;
+				}
+				// The memtable handler releases and publishes these writes from here on
+				for (WriteEvent event : events) {
+					event.memoryTable = target;
+				}
+				handedOver = true;
+			}
+			catch (IOException | RuntimeException e) {
+				log.error("Failed to log {} writes, async writes are stopped", events.size(), e);
+				setBackgroundError(e);
+			}
+			finally {
+				if (!handedOver) {
+					// Published before a flush may take the table
+					IDAssign.publishSequences(sequence, records);
+					if (target != null) {
+						for (int i = 0; i < events.size(); i++) {
+							target.releaseWrite();
+						}
+					}
+				}
+				events.clear();
+			}
+		}
+
+	}
+
+	private class MemTableHandler implements EventHandler<WriteEvent> {
+
+		/**
+		 * Writes logged before a journal failure are still applied, after a failed insert
+		 * nothing is.
+		 */
+		private boolean failed;
+
+		@Override
+		public void onEvent(WriteEvent event, long sequence, boolean endOfBatch) {
+			MemoryTable target = event.memoryTable;
+			if (target != null) {
+				try {
+					if (!failed) {
+						if (event.batch != null) {
+							lsm.applyBatch(target, event.batch, event.addresses);
+						}
+						else {
+							target.apply(event.key, event.value, event.deleted, event.address, event.sequence);
+						}
+					}
+				}
+				catch (RuntimeException e) {
+					log.error("Failed to apply a write, async writes are stopped", e);
+					failed = true;
+					setBackgroundError(e);
+				}
+				finally {
+					// Events are applied in sequence order, publishing never waits.
+					// A flush waits for the release, so its table holds only
+					// published writes
+					IDAssign.publishSequences(event.sequence, event.count());
+					target.releaseWrite();
+				}
+			}
+			event.clear();
+		}
+
+	}
+
+}
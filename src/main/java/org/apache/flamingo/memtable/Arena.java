@@ -0,0 +1,103 @@
+package org.apache.flamingo.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bump allocator handing out space in large blocks, so a memory table holds a few big
+ * buffers instead of many small arrays.
+ * <p>
+ * An address is an int: the block number in the high bits and the position inside the
+ * block in the low bits. A record larger than the block size gets a block of its own.
+ * Space is never freed one record at a time, the whole arena goes away with its memory
+ * table.
+ */
+public class Arena {
+
+	private final int blockBits;
+
+	private final int blockSize;
+
+	private final boolean offHeap;
+
+	private final AtomicReferenceArray<ByteBuffer> blocks;
+
+	private int blockCount = 0;
+
+	private ByteBuffer current;
+
+	private int currentIndex = -1;
+
+	private int currentPos = 0;
+
+	private volatile long memoryUsage = 0;
+
+	/**
+	 * @param blockSize rounded up to a power of two
+	 * @param offHeap allocate direct buffers outside the java heap
+	 */
+	public Arena(int blockSize, boolean offHeap) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Arena block size must be positive: " + blockSize);
+		}
+		this.blockBits = 32 - Integer.numberOfLeadingZeros(blockSize - 1);
+		if (blockBits > 30) {
+			throw new IllegalArgumentException("Arena block size too large: " + blockSize);
+		}
+		this.blockSize = 1 << blockBits;
+		this.offHeap = offHeap;
+		this.blocks = new AtomicReferenceArray<>(1 << (31 - blockBits));
+	}
+
+	/**
+	 * @return address of {@code size} bytes owned by the caller
+	 */
+	public synchronized int allocate(int size) {
+		if (size > blockSize) {
+			return (newBlock(size) << blockBits);
+		}
+		if (current == null || currentPos + size > blockSize) {
+			currentIndex = newBlock(blockSize);
+			current = blocks.get(currentIndex);
+			currentPos = 0;
+		}
+		int address = (currentIndex << blockBits) | currentPos;
+		currentPos += size;
+		return address;
+	}
+
+	private int newBlock(int size) {
+		if (blockCount == blocks.length()) {
+			throw new IllegalStateException("Arena is full, blocks: " + blockCount);
+		}
+		ByteBuffer block = offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		blocks.set(blockCount, block);
+		memoryUsage += size;
+		return blockCount++;
+	}
+
+	/**
+	 * Copy the bytes to an address returned by {@link #allocate(int)}.
+	 */
+	public void write(int address, byte[] bytes) {
+		ByteBuffer buffer = block(address).duplicate();
+		buffer.position(offset(address));
+		buffer.put(bytes);
+	}
+
+	public ByteBuffer block(int address) {
+		return blocks.get(address >>> blockBits);
+	}
+
+	public int offset(int address) {
+		return address & (blockSize - 1);
+	}
+
+	/**
+	 * @return bytes of all blocks allocated so far
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+}
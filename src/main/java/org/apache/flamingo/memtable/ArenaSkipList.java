@@ -0,0 +1,445 @@
+package org.apache.flamingo.memtable;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.iterator.InternalIterator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.apache.flamingo.utils.StringUtil.compareByteArrays;
+
+/**
+ * Skip list whose entries live in an {@link Arena}, in the style of the RocksDB arena
+ * skip list. It follows the same lock-free protocol as {@link ConcurrentSkipList} but
+ * allocates no object per entry.
+ * <p>
+ * Every entry is stored in the arena as the index of its version link followed by its
+ * serialized record (see {@link SLNode#serialize}). Nodes and version links are int slots
+ * in blocks of {@link AtomicIntegerArray}:
+ * <p>
+ * node: [record_address, height, next_0, ..., next_(height - 1)]
+ * <p>
+ * version link: [older_record_address]
+ * <p>
+ * A node is an int index into these blocks and 0 is the null link. Overwriting a key
+ * appends a new record linked to the current one and swaps the record address of the
+ * node. A version arriving out of order is linked into the middle of the chain, so the
+ * links live in the blocks with volatile semantics like the rest, the arena record itself
+ * is never written once published.
+ */
+public class ArenaSkipList implements MemTableRep {
+
+	private static final int MAX_HEIGHT = 12;
+
+	private static final int BRANCHING = 4;
+
+	private static final int LINK_BLOCK_BITS = 16;
+
+	private static final int LINK_BLOCK_SIZE = 1 << LINK_BLOCK_BITS;
+
+	private static final int NIL = 0;
+
+	private static final int RECORD = 0;
+
+	private static final int HEIGHT = 1;
+
+	private static final int NEXT = 2;
+
+	// Offsets inside an arena record: [version_link, total_size, delete_flag, store_mode,
+	// key_size, key, sequence, ...]
+	private static final int VERSION_LINK_OFFSET = 0;
+
+	private static final int SERIALIZED_OFFSET = 4;
+
+	private static final int KEY_SIZE_OFFSET = SERIALIZED_OFFSET + 6;
+
+	private static final int KEY_OFFSET = SERIALIZED_OFFSET + 10;
+
+	private final Arena arena;
+
+	private final AtomicReferenceArray<AtomicIntegerArray> linkBlocks = new AtomicReferenceArray<>(
+			1 << (31 - LINK_BLOCK_BITS));
+
+	private int linkBlockCount = 0;
+
+	// Slot 0 of the first block is never handed out, it stands for NIL
+	private int linkPos = LINK_BLOCK_SIZE;
+
+	private final int head;
+
+	private final AtomicInteger height = new AtomicInteger(1);
+
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	public ArenaSkipList(int arenaBlockSize, boolean offHeap) {
+		this.arena = new Arena(arenaBlockSize, offHeap);
+		// Record address 0 stands for NIL in the version links, never hand it out
+		arena.allocate(Integer.BYTES);
+		this.head = newNode(MAX_HEIGHT, NIL);
+	}
+
+	private synchronized int newNode(int nodeHeight, int record) {
+		int node = allocateSlots(NEXT + nodeHeight);
+		AtomicIntegerArray block = links(node);
+		int base = slot(node);
+		block.lazySet(base + HEIGHT, nodeHeight);
+		block.lazySet(base + RECORD, record);
+		return node;
+	}
+
+	/**
+	 * @return index of the first of the consecutive slots, all 0
+	 */
+	private synchronized int allocateSlots(int slots) {
+		if (linkPos + slots > LINK_BLOCK_SIZE) {
+			if (linkBlockCount == linkBlocks.length()) {
+				throw new IllegalStateException("Arena skip list is full, nodes blocks: " + linkBlockCount);
+			}
+			linkBlocks.set(linkBlockCount++, new AtomicIntegerArray(LINK_BLOCK_SIZE));
+			linkPos = linkBlockCount == 1 ? 1 : 0;
+		}
+		int index = ((linkBlockCount - 1) << LINK_BLOCK_BITS) | linkPos;
+		linkPos += slots;
+		return index;
+	}
+
+	private AtomicIntegerArray links(int node) {
+		return linkBlocks.get(node >>> LINK_BLOCK_BITS);
+	}
+
+	private static int slot(int node) {
+		return node & (LINK_BLOCK_SIZE - 1);
+	}
+
+	private int nextOf(int node, int level) {
+		return links(node).get(slot(node) + NEXT + level);
+	}
+
+	private boolean casNext(int node, int level, int expect, int update) {
+		return links(node).compareAndSet(slot(node) + NEXT + level, expect, update);
+	}
+
+	private int record(int node) {
+		return links(node).get(slot(node) + RECORD);
+	}
+
+	/**
+	 * Compare the key of the node with the key.
+	 */
+	private int compareKey(int node, byte[] key) {
+		int record = record(node);
+		ByteBuffer block = arena.block(record);
+		int offset = arena.offset(record);
+		int keySize = block.getInt(offset + KEY_SIZE_OFFSET);
+		return compareByteArrays(block, offset + KEY_OFFSET, keySize, key);
+	}
+
+	private SLNode decode(int record) {
+		ByteBuffer buffer = arena.block(record).duplicate();
+		buffer.position(arena.offset(record) + SERIALIZED_OFFSET);
+		return SLNode.deserialization(buffer);
+	}
+
+	private long sequence(int record) {
+		ByteBuffer block = arena.block(record);
+		int offset = arena.offset(record);
+		return block.getLong(offset + KEY_OFFSET + block.getInt(offset + KEY_SIZE_OFFSET));
+	}
+
+	private int versionLink(int record) {
+		return arena.block(record).getInt(arena.offset(record) + VERSION_LINK_OFFSET);
+	}
+
+	/**
+	 * Give the record its own version link, before the record is published.
+	 */
+	private void newVersionLink(int record) {
+		arena.block(record).putInt(arena.offset(record) + VERSION_LINK_OFFSET, allocateSlots(1));
+	}
+
+	private int olderRecord(int record) {
+		int link = versionLink(record);
+		return links(link).get(slot(link));
+	}
+
+	private void setOlderRecord(int record, int older) {
+		int link = versionLink(record);
+		links(link).set(slot(link), older);
+	}
+
+	@Override
+	public void put(SLNode entry) {
+		byte[] key = entry.getKey();
+		byte[] bytes = SLNode.serialize(entry);
+		int record = arena.allocate(SERIALIZED_OFFSET + bytes.length);
+		newVersionLink(record);
+		arena.write(record + SERIALIZED_OFFSET, bytes);
+		int[] prev = new int[MAX_HEIGHT];
+		int node = NIL;
+		int nodeHeight = 0;
+		while (true) {
+			int next = findGreaterOrEqual(key, prev);
+			if (next != NIL && compareKey(next, key) == 0) {
+				addVersion(next, record, entry.getSequence());
+				return;
+			}
+			if (node == NIL) {
+				nodeHeight = randomHeight();
+				node = newNode(nodeHeight, record);
+			}
+			links(node).set(slot(node) + NEXT, next);
+			if (casNext(prev[0], 0, next, node)) {
+				break;
+			}
+		}
+		size.incrementAndGet();
+		for (int level = 1; level < nodeHeight; level++) {
+			linkLevel(node, prev[level], level, key);
+		}
+		int current = height.get();
+		while (nodeHeight > current && !height.compareAndSet(current, nodeHeight)) {
+			current = height.get();
+		}
+	}
+
+	/**
+	 * Writers of the same key serialize here to keep the versions ordered by sequence
+	 * number. Linking behind the newest version happens before the record is published by
+	 * the store into the node, a record arriving out of order is published by the store
+	 * into the link of the next newer version.
+	 */
+	private synchronized void addVersion(int node, int record, long sequence) {
+		int newest = record(node);
+		if (sequence >= sequence(newest)) {
+			setOlderRecord(record, newest);
+			links(node).set(slot(node) + RECORD, record);
+			return;
+		}
+		// Arrived out of order, goes behind every newer version
+		int newer = newest;
+		while (olderRecord(newer) != NIL && sequence(olderRecord(newer)) > sequence) {
+			newer = olderRecord(newer);
+		}
+		setOlderRecord(record, olderRecord(newer));
+		setOlderRecord(newer, record);
+	}
+
+	private void linkLevel(int node, int prev, int level, byte[] key) {
+		while (true) {
+			int next = nextOf(prev, level);
+			while (next != NIL && compareKey(next, key) < 0) {
+				prev = next;
+				next = nextOf(prev, level);
+			}
+			links(node).set(slot(node) + NEXT + level, next);
+			if (casNext(prev, level, next, node)) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public SLNode get(byte[] key) {
+		int node = findGreaterOrEqual(key, null);
+		if (node != NIL && compareKey(node, key) == 0) {
+			return decode(record(node));
+		}
+		return null;
+	}
+
+	@Override
+	public SLNode get(byte[] key, long sequence) {
+		int node = findGreaterOrEqual(key, null);
+		if (node == NIL || compareKey(node, key) != 0) {
+			return null;
+		}
+		return versionAt(node, sequence);
+	}
+
+	private int findGreaterOrEqual(byte[] key, int[] prev) {
+		int x = head;
+		int level = height.get() - 1;
+		if (prev != null) {
+			Arrays.fill(prev, level + 1, MAX_HEIGHT, head);
+		}
+		while (true) {
+			int next = nextOf(x, level);
+			if (next != NIL && compareKey(next, key) < 0) {
+				x = next;
+			}
+			else {
+				if (prev != null) {
+					prev[level] = x;
+				}
+				if (level == 0) {
+					return next;
+				}
+				level--;
+			}
+		}
+	}
+
+	/**
+	 * @param orEqual whether a node with the key itself qualifies
+	 * @return the last node whose key is less than (or equal to) the key, or NIL
+	 */
+	private int findLess(byte[] key, boolean orEqual) {
+		int x = head;
+		int level = height.get() - 1;
+		while (true) {
+			int next = nextOf(x, level);
+			int cmp = next == NIL ? 1 : compareKey(next, key);
+			if (cmp < 0 || (orEqual && cmp == 0)) {
+				x = next;
+			}
+			else if (level == 0) {
+				return x == head ? NIL : x;
+			}
+			else {
+				level--;
+			}
+		}
+	}
+
+	private int findLast() {
+		int x = head;
+		int level = height.get() - 1;
+		while (true) {
+			int next = nextOf(x, level);
+			if (next != NIL) {
+				x = next;
+			}
+			else if (level == 0) {
+				return x == head ? NIL : x;
+			}
+			else {
+				level--;
+			}
+		}
+	}
+
+	private byte[] keyOf(int node) {
+		int record = record(node);
+		ByteBuffer block = arena.block(record).duplicate();
+		int offset = arena.offset(record);
+		byte[] key = new byte[block.getInt(offset + KEY_SIZE_OFFSET)];
+		block.position(offset + KEY_OFFSET);
+		block.get(key);
+		return key;
+	}
+
+	private SLNode versionAt(int node, long sequence) {
+		int record = record(node);
+		while (record != NIL && sequence(record) > sequence) {
+			record = olderRecord(record);
+		}
+		return record == NIL ? null : decode(record);
+	}
+
+	private int randomHeight() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int nodeHeight = 1;
+		while (nodeHeight < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+			nodeHeight++;
+		}
+		return nodeHeight;
+	}
+
+	@Override
+	public int getSize() {
+		return size.get();
+	}
+
+	/**
+	 * @return bytes held by the arena and the node blocks
+	 */
+	@Override
+	public long getMemoryUsage() {
+		long linkBytes;
+		synchronized (this) {
+			linkBytes = (long) linkBlockCount * LINK_BLOCK_SIZE * Integer.BYTES;
+		}
+		return arena.getMemoryUsage() + linkBytes;
+	}
+
+	/**
+	 * Nodes are boxed, NIL is null.
+	 */
+	@Override
+	public InternalIterator newIterator(long sequence) {
+		return new MemTableIterator<Integer>(sequence) {
+
+			@Override
+			protected Integer first() {
+				return box(nextOf(head, 0));
+			}
+
+			@Override
+			protected Integer last() {
+				return box(findLast());
+			}
+
+			@Override
+			protected Integer ceiling(byte[] key) {
+				return box(findGreaterOrEqual(key, null));
+			}
+
+			@Override
+			protected Integer floor(byte[] key) {
+				return box(findLess(key, true));
+			}
+
+			@Override
+			protected Integer next(Integer node) {
+				return box(nextOf(node, 0));
+			}
+
+			@Override
+			protected Integer previous(Integer node) {
+				return box(findLess(keyOf(node), false));
+			}
+
+			@Override
+			protected SLNode entryAt(Integer node, long sequence) {
+				return versionAt(node, sequence);
+			}
+
+			private Integer box(int node) {
+				return node == NIL ? null : node;
+			}
+		};
+	}
+
+	/**
+	 * Weakly consistent, decodes every entry out of the arena.
+	 */
+	@Override
+	public Iterator<SLNode> iterator() {
+		return new Iterator<SLNode>() {
+
+			private int current = nextOf(head, 0);
+
+			@Override
+			public boolean hasNext() {
+				return current != NIL;
+			}
+
+			@Override
+			public SLNode next() {
+				if (current == NIL) {
+					throw new NoSuchElementException();
+				}
+				SLNode entry = decode(record(current));
+				current = nextOf(current, 0);
+				return entry;
+			}
+		};
+	}
+
+}
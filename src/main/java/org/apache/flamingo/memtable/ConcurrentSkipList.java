@@ -0,0 +1,293 @@
+package org.apache.flamingo.memtable;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.iterator.InternalIterator;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.apache.flamingo.utils.StringUtil.compareByteArrays;
+
+/**
+ * Lock-free skip list specialized for byte[] keys, in the style of
+ * {@link java.util.concurrent.ConcurrentSkipListMap}.
+ * <p>
+ * Nodes are never unlinked: a delete is a tombstone entry and an overwrite adds a version
+ * to the existing node, so inserting a key is the only structural change. A node is
+ * published by a CAS on the bottom level and only then linked into the upper levels,
+ * which are just shortcuts. Readers never lock and always see a whole entry because
+ * entries are linked in, not mutated. Writers of the same key serialize on its node to
+ * keep the versions ordered.
+ */
+public class ConcurrentSkipList implements MemTableRep {
+
+	private static final int MAX_HEIGHT = 12;
+
+	/**
+	 * A node gets one more level with probability 1 / BRANCHING.
+	 */
+	private static final int BRANCHING = 4;
+
+	private final Node head = new Node(null, null, MAX_HEIGHT);
+
+	/**
+	 * Height of the tallest node, searches start from here.
+	 */
+	private final AtomicInteger height = new AtomicInteger(1);
+
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	private final AtomicLong memoryUsage = new AtomicLong(0);
+
+	@Override
+	public void put(SLNode entry) {
+		byte[] key = entry.getKey();
+		Node[] prev = new Node[MAX_HEIGHT];
+		while (true) {
+			Node next = findGreaterOrEqual(key, prev);
+			if (next != null && Arrays.equals(next.key, key)) {
+				next.addVersion(entry);
+				memoryUsage.addAndGet(MemTableRep.approximateSize(entry));
+				return;
+			}
+			int nodeHeight = randomHeight();
+			Node node = new Node(key, entry, nodeHeight);
+			node.next.lazySet(0, next);
+			if (!prev[0].next.compareAndSet(0, next, node)) {
+				// Another writer changed the bottom level around the key, search again
+				continue;
+			}
+			size.incrementAndGet();
+			memoryUsage.addAndGet(MemTableRep.approximateSize(entry) + (long) nodeHeight * 8);
+			for (int level = 1; level < nodeHeight; level++) {
+				linkLevel(node, prev[level], level);
+			}
+			increaseHeight(nodeHeight);
+			return;
+		}
+	}
+
+	private void linkLevel(Node node, Node prev, int level) {
+		while (true) {
+			Node next = prev.next.get(level);
+			// prev may be stale, step forward past keys inserted since the search
+			while (next != null && compareByteArrays(next.key, node.key) < 0) {
+				prev = next;
+				next = prev.next.get(level);
+			}
+			node.next.set(level, next);
+			if (prev.next.compareAndSet(level, next, node)) {
+				return;
+			}
+		}
+	}
+
+	private void increaseHeight(int nodeHeight) {
+		int current = height.get();
+		while (nodeHeight > current && !height.compareAndSet(current, nodeHeight)) {
+			current = height.get();
+		}
+	}
+
+	@Override
+	public SLNode get(byte[] key) {
+		Node node = findGreaterOrEqual(key, null);
+		if (node != null && Arrays.equals(node.key, key)) {
+			return node.entry;
+		}
+		return null;
+	}
+
+	/**
+	 * @param prev if not null, filled with the last node before the key on every level
+	 * @return the first node whose key is not less than the key, or null
+	 */
+	private Node findGreaterOrEqual(byte[] key, Node[] prev) {
+		Node x = head;
+		int level = height.get() - 1;
+		if (prev != null) {
+			Arrays.fill(prev, level + 1, MAX_HEIGHT, head);
+		}
+		while (true) {
+			Node next = x.next.get(level);
+			if (next != null && compareByteArrays(next.key, key) < 0) {
+				x = next;
+			}
+			else {
+				if (prev != null) {
+					prev[level] = x;
+				}
+				if (level == 0) {
+					return next;
+				}
+				level--;
+			}
+		}
+	}
+
+	/**
+	 * @param orEqual whether a node with the key itself qualifies
+	 * @return the last node whose key is less than (or equal to) the key, or null
+	 */
+	private Node findLess(byte[] key, boolean orEqual) {
+		Node x = head;
+		int level = height.get() - 1;
+		while (true) {
+			Node next = x.next.get(level);
+			int cmp = next == null ? 1 : compareByteArrays(next.key, key);
+			if (cmp < 0 || (orEqual && cmp == 0)) {
+				x = next;
+			}
+			else if (level == 0) {
+				return x == head ? null : x;
+			}
+			else {
+				level--;
+			}
+		}
+	}
+
+	private Node findLast() {
+		Node x = head;
+		int level = height.get() - 1;
+		while (true) {
+			Node next = x.next.get(level);
+			if (next != null) {
+				x = next;
+			}
+			else if (level == 0) {
+				return x == head ? null : x;
+			}
+			else {
+				level--;
+			}
+		}
+	}
+
+	private int randomHeight() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int nodeHeight = 1;
+		while (nodeHeight < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+			nodeHeight++;
+		}
+		return nodeHeight;
+	}
+
+	@Override
+	public int getSize() {
+		return size.get();
+	}
+
+	@Override
+	public long getMemoryUsage() {
+		return memoryUsage.get();
+	}
+
+	/**
+	 * Weakly consistent: entries written during the iteration may or may not be seen.
+	 */
+	@Override
+	public Iterator<SLNode> iterator() {
+		return new Iterator<SLNode>() {
+
+			private Node current = head.next.get(0);
+
+			@Override
+			public boolean hasNext() {
+				return current != null;
+			}
+
+			@Override
+			public SLNode next() {
+				if (current == null) {
+					throw new NoSuchElementException();
+				}
+				SLNode entry = current.entry;
+				current = current.next.get(0);
+				return entry;
+			}
+		};
+	}
+
+	@Override
+	public InternalIterator newIterator(long sequence) {
+		return new MemTableIterator<Node>(sequence) {
+
+			@Override
+			protected Node first() {
+				return head.next.get(0);
+			}
+
+			@Override
+			protected Node last() {
+				return findLast();
+			}
+
+			@Override
+			protected Node ceiling(byte[] key) {
+				return findGreaterOrEqual(key, null);
+			}
+
+			@Override
+			protected Node floor(byte[] key) {
+				return findLess(key, true);
+			}
+
+			@Override
+			protected Node next(Node node) {
+				return node.next.get(0);
+			}
+
+			@Override
+			protected Node previous(Node node) {
+				return findLess(node.key, false);
+			}
+
+			@Override
+			protected SLNode entryAt(Node node, long sequence) {
+				return node.entry.versionAt(sequence);
+			}
+		};
+	}
+
+	private static final class Node {
+
+		private final byte[] key;
+
+		private volatile SLNode entry;
+
+		private final AtomicReferenceArray<Node> next;
+
+		private Node(byte[] key, SLNode entry, int height) {
+			this.key = key;
+			this.entry = entry;
+			this.next = new AtomicReferenceArray<>(height);
+		}
+
+		/**
+		 * Writers with sequence numbers allocated out of order may arrive out of order,
+		 * so the version is linked in behind every newer one.
+		 */
+		private synchronized void addVersion(SLNode version) {
+			SLNode newest = entry;
+			if (version.getSequence() >= newest.getSequence()) {
+				version.setOlderVersion(newest);
+				entry = version;
+				return;
+			}
+			SLNode newer = newest;
+			while (newer.getOlderVersion() != null && newer.getOlderVersion().getSequence() > version.getSequence()) {
+				newer = newer.getOlderVersion();
+			}
+			version.setOlderVersion(newer.getOlderVersion());
+			newer.setOlderVersion(version);
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.apache.flamingo.memtable;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.iterator.InternalIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over a skip list as of a sequence number: every key shows its newest version
+ * not newer than the sequence number, keys written only later are skipped.
+ * <p>
+ * Subclasses provide the navigation over their nodes, null stands for no node. Moving
+ * backwards searches from the top again, as in the LevelDB skip list, so the nodes need
+ * no back links.
+ *
+ * @param <N> node type
+ */
+abstract class MemTableIterator<N> implements InternalIterator {
+
+	private final long sequence;
+
+	private N node;
+
+	private SLNode entry;
+
+	MemTableIterator(long sequence) {
+		this.sequence = sequence;
+	}
+
+	protected abstract N first();
+
+	protected abstract N last();
+
+	/**
+	 * @return first node whose key is greater than or equal to the key
+	 */
+	protected abstract N ceiling(byte[] key);
+
+	/**
+	 * @return last node whose key is less than or equal to the key
+	 */
+	protected abstract N floor(byte[] key);
+
+	protected abstract N next(N node);
+
+	/**
+	 * @return last node whose key is less than the key of the node
+	 */
+	protected abstract N previous(N node);
+
+	/**
+	 * @return the version of the node visible at the sequence number, or null
+	 */
+	protected abstract SLNode entryAt(N node, long sequence);
+
+	@Override
+	public boolean isValid() {
+		return entry != null;
+	}
+
+	@Override
+	public void seekToFirst() {
+		node = first();
+		skipForward();
+	}
+
+	@Override
+	public void seekToLast() {
+		node = last();
+		skipBackward();
+	}
+
+	@Override
+	public void seek(byte[] target) {
+		node = ceiling(target);
+		skipForward();
+	}
+
+	@Override
+	public void seekForPrev(byte[] target) {
+		node = floor(target);
+		skipBackward();
+	}
+
+	@Override
+	public void next() {
+		checkValid();
+		node = next(node);
+		skipForward();
+	}
+
+	@Override
+	public void prev() {
+		checkValid();
+		node = previous(node);
+		skipBackward();
+	}
+
+	@Override
+	public SLNode entry() {
+		checkValid();
+		return entry;
+	}
+
+	private void skipForward() {
+		entry = null;
+		while (node != null && (entry = entryAt(node, sequence)) == null) {
+			node = next(node);
+		}
+	}
+
+	private void skipBackward() {
+		entry = null;
+		while (node != null && (entry = entryAt(node, sequence)) == null) {
+			node = previous(node);
+		}
+	}
+
+	private void checkValid() {
+		if (entry == null) {
+			throw new NoSuchElementException();
+		}
+	}
+
+}
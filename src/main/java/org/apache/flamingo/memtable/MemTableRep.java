@@ -0,0 +1,80 @@
+package org.apache.flamingo.memtable;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.iterator.InternalIterator;
+
+import java.util.Iterator;
+
+/**
+ * Sorted in-memory representation of a memory table.
+ * <p>
+ * Writing an existing key adds a version of the entry, linked from the newer one by
+ * {@link SLNode#getOlderVersion()} and ordered by sequence number. A delete is written as
+ * a tombstone entry. Every version is kept until the table is dropped, so a snapshot can
+ * read the table as of its sequence number.
+ */
+public interface MemTableRep {
+
+	/**
+	 * Approximate heap bytes of one entry besides its key and value: the node, the entry,
+	 * the value log address and the array headers.
+	 */
+	int ENTRY_OVERHEAD = 96;
+
+	void put(SLNode node);
+
+	/**
+	 * @return the newest entry of the key, a tombstone if it was deleted, or null if
+	 * absent
+	 */
+	SLNode get(byte[] key);
+
+	/**
+	 * @return the newest entry of the key whose sequence number is not greater than the
+	 * sequence, or null if there is none
+	 */
+	default SLNode get(byte[] key, long sequence) {
+		SLNode entry = get(key);
+		return entry == null ? null : entry.versionAt(sequence);
+	}
+
+	/**
+	 * @return the live entry of the key, or null if the key is absent or deleted
+	 */
+	default SLNode search(byte[] key) {
+		SLNode entry = get(key);
+		return entry == null || entry.isDeleted() ? null : entry;
+	}
+
+	/**
+	 * @return number of distinct keys, tombstones included
+	 */
+	int getSize();
+
+	/**
+	 * @return approximate bytes held by the entries, older versions and node overhead
+	 * included
+	 */
+	long getMemoryUsage();
+
+	default boolean isEmpty() {
+		return getSize() == 0;
+	}
+
+	/**
+	 * Newest entries in key order, tombstones included.
+	 */
+	Iterator<SLNode> iterator();
+
+	/**
+	 * @return bidirectional iterator over the entries as of the sequence number,
+	 * tombstones included
+	 */
+	InternalIterator newIterator(long sequence);
+
+	static long approximateSize(SLNode node) {
+		byte[] value = node.getValue();
+		return ENTRY_OVERHEAD + node.getKey().length + (value == null ? 0 : value.length);
+	}
+
+}
@@ -5,47 +5,71 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.flamingo.bean.VLogAddress;
 import org.apache.flamingo.bean.VLogEntity;
 import org.apache.flamingo.core.Context;
+import org.apache.flamingo.core.IDAssign;
 import org.apache.flamingo.file.FileUtil;
 import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.iterator.InternalIterator;
 import org.apache.flamingo.lsm.FlamingoLSM;
 import org.apache.flamingo.bean.SLNode;
 import org.apache.flamingo.meta.MetaInfo;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
 import org.apache.flamingo.options.Options;
 import org.apache.flamingo.meta.SSTMetaInfo;
+import org.apache.flamingo.sstable.SSTWriter;
 import org.apache.flamingo.utils.Pair;
+import org.apache.flamingo.utils.StringUtil;
 import org.apache.flamingo.writer.VLogWriter;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 @Slf4j
 @Getter
 public class MemoryTable implements AutoCloseable {
 
-	private final SkipList skipList;
+	private final MemTableRep table;
 
-	private MemoryTableState state = MemoryTableState.Active;
-
-	private final int memTableSize;
+	private volatile MemoryTableState state = MemoryTableState.Active;
 
 	private final int maxValueSize;
 
 	private final VLogWriter writer;
 
+	private final AtomicInteger pendingWrites = new AtomicInteger(0);
+
 	private final Options options = Options.getInstance();
 
 	private final MetaInfo metaInfo = Context.getInstance().getMetaInfo();
 
 	public MemoryTable() {
-		this.skipList = new SkipList();
+		this.table = createTable();
 		this.maxValueSize = Integer.parseInt(Options.MaxValueSize.getValue());
-		this.memTableSize = Integer.parseInt(Options.MemoryTableThresholdSize.getValue());
 		this.writer = new VLogWriter();
 	}
 
+	private static MemTableRep createTable() {
+		String type = Options.MemTableRepType.getValue();
+		switch (type) {
+			case "concurrent_skiplist":
+				return new ConcurrentSkipList();
+			case "arena_skiplist":
+				return new ArenaSkipList(Integer.parseInt(Options.ArenaBlockSize.getValue()),
+						Boolean.parseBoolean(Options.ArenaOffHeap.getValue()));
+			default:
+				throw new IllegalArgumentException("Unknown memtable_rep: " + type);
+		}
+	}
+
 	/**
 	 * 写入流程: 1: 首先写入value_log(当作持久化日志写入) 2: 写入SkipList 3: 判断SkipList的元素数量是否超过了阈值，
 	 * 如果超过则溢血到Level_0层的磁盘.
@@ -53,31 +77,120 @@ public class MemoryTable implements AutoCloseable {
 	 * @param value
 	 */
 	public void add(byte[] key, byte[] value) throws IOException {
-		VLogEntity entity = VLogEntity.from(key, value, false);
-		VLogAddress address = writer.write(entity);
-		SLNode node = SLNode.builder().key(key).value(value).address(address).deleted(false).build();
-		if (value.length > maxValueSize) {
-			node.setStoreMode(true);
+		long sequence = IDAssign.nextSequence(1);
+		try {
+			VLogEntity entity = VLogEntity.from(key, value, false, sequence);
+			VLogAddress address = writer.write(entity);
+			apply(key, value, false, address, sequence);
+		}
+		finally {
+			IDAssign.publishSequences(sequence, 1);
+		}
+	}
+
+	/**
+	 * Insert an entry whose record has already been appended to the value log of this
+	 * table.
+	 * @param value ignored for deletes
+	 */
+	public void apply(byte[] key, byte[] value, boolean deleted, VLogAddress address, long sequence) {
+		SLNode node;
+		if (deleted) {
+			// 删除的数据一定不是kv分离的
+			node = SLNode.builder().key(key).address(address).deleted(true).storeMode(false).sequence(sequence).build();
+		}
+		else {
+			node = SLNode.builder().key(key).value(value).address(address).deleted(false).sequence(sequence).build();
+			if (value.length > maxValueSize) {
+				node.setStoreMode(true);
+			}
+		}
+		table.put(node);
+	}
+
+	/**
+	 * Insert the records of a write batch in one pass, they have been appended to the
+	 * value log of this table with their sequence numbers.
+	 */
+	public void applyBatch(List<VLogEntity> entities, List<VLogAddress> addresses) {
+		for (int i = 0; i < entities.size(); i++) {
+			VLogEntity entity = entities.get(i);
+			apply(entity.getKey(), entity.getValue(), entity.isDeleted(), addresses.get(i), entity.getSequence());
+		}
+	}
+
+	/**
+	 * Announce writes that were logged to this table but are not inserted yet, a flush
+	 * waits for them. Must be called while the table is still the active one.
+	 */
+	public void retainWrites(int writes) {
+		pendingWrites.addAndGet(writes);
+	}
+
+	/**
+	 * One write announced by {@link #retainWrites(int)} has been inserted or dropped.
+	 */
+	public void releaseWrite() {
+		pendingWrites.decrementAndGet();
+	}
+
+	private void awaitPendingWrites() {
+		while (pendingWrites.get() > 0) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
 		}
-		skipList.put(node);
 	}
 
 	public int size() {
-		return skipList.getSize();
+		return table.getSize();
+	}
+
+	/**
+	 * @return approximate bytes held by this memory table
+	 */
+	public long getMemoryUsage() {
+		return table.getMemoryUsage();
 	}
 
 	/**
 	 * 删除的数据一定不是kv分离的
 	 */
 	public void delete(byte[] key) throws IOException {
-		VLogEntity entity = VLogEntity.from(key, null, true);
-		VLogAddress address = writer.write(entity);
-		SLNode node = SLNode.builder().key(key).address(address).deleted(true).storeMode(false).build();
-		skipList.put(node);
+		long sequence = IDAssign.nextSequence(1);
+		try {
+			VLogEntity entity = VLogEntity.from(key, null, true, sequence);
+			VLogAddress address = writer.write(entity);
+			apply(key, null, true, address, sequence);
+		}
+		finally {
+			IDAssign.publishSequences(sequence, 1);
+		}
 	}
 
 	public SLNode search(byte[] key) {
-		return skipList.search(key);
+		return table.search(key);
+	}
+
+	/**
+	 * @return the entry of the key, a tombstone if it was deleted, or null if absent
+	 */
+	public SLNode get(byte[] key) {
+		return table.get(key);
+	}
+
+	/**
+	 * @return the entry of the key as of the sequence number, a tombstone if it was
+	 * deleted then, or null if it was absent
+	 */
+	public SLNode get(byte[] key, long sequence) {
+		return table.get(key, sequence);
+	}
+
+	/**
+	 * @return bidirectional iterator over the table as of the sequence number, tombstones
+	 * included
+	 */
+	public InternalIterator newIterator(long sequence) {
+		return table.newIterator(sequence);
 	}
 
 	/**
@@ -85,13 +198,60 @@ public class MemoryTable implements AutoCloseable {
 	 */
 	public void flush() {
 		state = MemoryTableState.Immutable;
+		awaitPendingWrites();
 		Pair<String, Long> pair = NamedUtil.getKeyFilePath();
 		SSTMetaInfo sst = SSTMetaInfo.builder()
 			.fileName(pair.getF0())
 			.id(String.valueOf(pair.getF1()))
 			.level(0)
 			.build();
-		skipList.flush(sst);
+		flush(sst);
+		state = MemoryTableState.Flushed;
+	}
+
+	/**
+	 * Flush memory data to disk and register the sst to the meta info.
+	 * @param sst target file
+	 */
+	private void flush(SSTMetaInfo sst) {
+		if (table.isEmpty()) {
+			log.debug("Memory table is empty, nothing to flush to {}", sst.getFileName());
+			return;
+		}
+		String fileName = sst.getFileName();
+		try (SSTWriter sstWriter = new SSTWriter(fileName)) {
+			Iterator<SLNode> iterator = table.iterator();
+			long largestSequence = 0;
+			long liveBytes = 0;
+			while (iterator.hasNext()) {
+				// Only the newest version goes to disk, snapshots read older ones from
+				// the memory table itself
+				SLNode node = iterator.next();
+				sstWriter.add(node.getKey(), SLNode.serialize(node));
+				largestSequence = Math.max(largestSequence, node.getSequence());
+				if (node.isStoreMode() && node.getAddress().getFieldID() == writer.getActiveID()) {
+					liveBytes += node.getAddress().getSize();
+				}
+			}
+			sst.setFileSize(sstWriter.finish());
+			Statistics.getInstance().record(Ticker.FLUSH_WRITE_BYTES, sst.getFileSize());
+			// The rest of the value log file lives on in the sstable or is garbage
+			metaInfo.getVLogMetaInfo()
+				.addFile(writer.getActiveID(), new File(writer.getActiveFullPath()).length(), liveBytes);
+			sst.setLargestSequence(largestSequence);
+			sst.setMinimumValue(sstWriter.getMinKey());
+			sst.setMaximumValue(sstWriter.getMaxKey());
+			sst.setCount(sstWriter.getCount());
+			log.debug("Flush memory table to sst, file: {}, count: {}. Minimum key: {}, maximum key: {}.", fileName,
+					sstWriter.getCount(), StringUtil.fromBytes(sstWriter.getMinKey()),
+					StringUtil.fromBytes(sstWriter.getMaxKey()));
+		}
+		catch (RuntimeException e) {
+			// The flush is retried into a new file, the partial one may not even exist
+			new File(fileName).delete();
+			throw e;
+		}
+		metaInfo.addTable(sst);
 	}
 
 	public static MemoryTable buildFromWAL(FlamingoLSM lsm, String walLogPath) {
@@ -133,7 +293,11 @@ public class MemoryTable implements AutoCloseable {
 
 	public enum MemoryTableState {
 
-		Active(1), Immutable(2);
+		Active(1), Immutable(2),
+		/**
+		 * The sstable is registered, the table may still be read by snapshots.
+		 */
+		Flushed(3);
 
 		public final int state;
 
@@ -146,6 +310,17 @@ public class MemoryTable implements AutoCloseable {
 	@Override
 	public void close() {
 		flush();
+		closeWriter();
+	}
+
+	/**
+	 * Close the value log writer without flushing, used once the table has been flushed
+	 * by a {@link org.apache.flamingo.task.MemoryTableTask}.
+	 */
+	public void closeWriter() {
+		if (writer.isClosed()) {
+			return;
+		}
 		writer.close();
 		// If the file is completely empty when stopped, it can be deleted directly
 		String activeFullPath = writer.getActiveFullPath();
@@ -17,6 +17,10 @@ import java.util.*;
 
 import static org.apache.flamingo.utils.StringUtil.compareByteArrays;
 
+/**
+ * Single-threaded skip list, callers must serialize every access. It does not back memory
+ * tables, which are written and read concurrently.
+ */
 @Slf4j
 @Getter
 public class SkipList {
@@ -2,189 +2,341 @@ package org.apache.flamingo.meta;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flamingo.bean.CompactEntity;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.bean.VLogAddress;
 import org.apache.flamingo.file.FileUtil;
 import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
 import org.apache.flamingo.options.Options;
+import org.apache.flamingo.sstable.SSTIterator;
+import org.apache.flamingo.sstable.SSTWriter;
 import org.apache.flamingo.utils.Pair;
 import org.apache.flamingo.utils.StringUtil;
 
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class Compact {
 
 	private final MetaInfo metaInfo;
 
+	private final int maxEntriesPerFile;
+
+	private final int maxSubcompactions;
+
+	/**
+	 * Runs the subcompactions, null if compactions are not split.
+	 */
+	private final ExecutorService executor;
+
 	public Compact(MetaInfo metaInfo) {
 		this.metaInfo = metaInfo;
+		this.maxEntriesPerFile = Integer.parseInt(Options.SSTableMaxSize.getValue());
+		this.maxSubcompactions = Math.max(1, Integer.parseInt(Options.MaxSubcompactions.getValue()));
+		if (maxSubcompactions > 1) {
+			AtomicInteger threadId = new AtomicInteger(0);
+			this.executor = Executors.newFixedThreadPool(maxSubcompactions, runnable -> {
+				Thread thread = new Thread(runnable, "subcompaction-" + threadId.getAndIncrement());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			});
+		}
+		else {
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Stop the subcompaction threads, called once no compaction runs anymore.
+	 */
+	public void close() {
+		if (executor != null) {
+			executor.shutdown();
+		}
 	}
 
 	/**
-	 * <a href="https://en.wikipedia.org/wiki/Merge_sort">File Merge Sort</a>
+	 * Merge a level into the next one.
 	 * @param upperLevelSST New data. Absolutely impossible to be null or empty! When
 	 * duplicate keys appear during the merging process, the new data takes effect
 	 * @param lowerLevelSST Old data. May be empty, but absolutely impossible to be null!
 	 */
 	public void majorCompact(List<SSTMetaInfo> upperLevelSST, List<SSTMetaInfo> lowerLevelSST) {
-		ArrayList<SSTMetaInfo> newLowerLevelSST = new ArrayList<>();
-		logCompactInfo(upperLevelSST, lowerLevelSST);
-		final int maxEntriesPerFile = Integer.parseInt(Options.SSTableMaxSize.getValue());
 		// The lowerLevelSST may be empty, so the target level cannot be taken from it.
-		final int targetLevel = upperLevelSST.get(0).getLevel() + 1;
-		List<DataInputStream> newReaders = createReaders(upperLevelSST);
-		List<DataInputStream> oldReaders = createReaders(lowerLevelSST);
-		// The same key needs to ensure that the data in the upper level SST pops up first
-		PriorityQueue<CompactEntity> queue = new PriorityQueue<>((o1, o2) -> {
-			int keyComparison = StringUtil.compareByteArrays(o1.getKey(), o2.getKey());
-			if (keyComparison != 0) {
-				return keyComparison;
+		compact(Arrays.asList(upperLevelSST, lowerLevelSST), upperLevelSST.get(0).getLevel() + 1);
+	}
+
+	/**
+	 * <a href="https://en.wikipedia.org/wiki/Merge_sort">File Merge Sort</a> of sorted
+	 * runs into one run on the target level, the inputs are dropped from their levels.
+	 * <p>
+	 * A large compaction is split at input table boundaries into disjoint key ranges, the
+	 * subcompactions, merged in parallel into their own output tables. The outputs of all
+	 * ranges are installed together.
+	 * @param runs newest first, a level 0 table or tables of one level each. When
+	 * duplicate keys appear, the newer run takes effect
+	 * @param targetLevel level of the outputs, no input lies below it
+	 */
+	public void compact(List<List<SSTMetaInfo>> runs, int targetLevel) {
+		logCompactInfo(runs);
+		List<byte[]> boundaries = partition(runs);
+		ArrayList<SSTMetaInfo> newTables = new ArrayList<>();
+		// Shadowed kv separated values per value log file, counted once the outputs are
+		// installed so a retried compaction does not count them again
+		Map<Long, Long> garbage = new HashMap<>();
+		if (boundaries.isEmpty()) {
+			newTables.addAll(merge(runs, null, null, targetLevel, garbage));
+		}
+		else {
+			List<CompletableFuture<List<SSTMetaInfo>>> futures = new ArrayList<>();
+			List<Map<Long, Long>> rangeGarbage = new ArrayList<>();
+			for (int i = 0; i <= boundaries.size(); i++) {
+				byte[] start = i == 0 ? null : boundaries.get(i - 1);
+				byte[] end = i == boundaries.size() ? null : boundaries.get(i);
+				Map<Long, Long> shadowed = new HashMap<>();
+				rangeGarbage.add(shadowed);
+				futures
+					.add(CompletableFuture.supplyAsync(() -> merge(runs, start, end, targetLevel, shadowed), executor));
+			}
+			try {
+				// Completes once every range is done, failed or not
+				CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+			}
+			catch (RuntimeException e) {
+				// A failed range deleted its own outputs, the others are never installed
+				futures.stream()
+					.filter(future -> !future.isCompletedExceptionally())
+					.forEach(future -> deleteOutputs(future.join()));
+				throw e;
+			}
+			// The ranges are sorted, so are their outputs
+			futures.forEach(future -> newTables.addAll(future.join()));
+			rangeGarbage
+				.forEach(shadowed -> shadowed.forEach((fileId, bytes) -> garbage.merge(fileId, bytes, Long::sum)));
+			Statistics.getInstance().record(Ticker.SUBCOMPACTIONS, futures.size());
+		}
+		logNewTables(newTables);
+		List<SSTMetaInfo> inputs = new ArrayList<>();
+		runs.forEach(inputs::addAll);
+		metaInfo.installCompaction(inputs, newTables, targetLevel);
+		garbage.forEach(metaInfo.getVLogMetaInfo()::addGarbage);
+	}
+
+	/**
+	 * FIFO compaction: drop level 0 tables without merging anything. Their kv separated
+	 * values turn into garbage of the value log.
+	 */
+	public void dropTables(List<SSTMetaInfo> tables) {
+		Map<Long, Long> garbage = new HashMap<>();
+		for (SSTMetaInfo table : tables) {
+			try (SSTIterator iterator = table.getReader().iterator(false)) {
+				while (iterator.hasNext()) {
+					SLNode node = iterator.next();
+					if (node.isStoreMode()) {
+						VLogAddress address = node.getAddress();
+						garbage.merge(address.getFieldID(), (long) address.getSize(), Long::sum);
+					}
+				}
+			}
+		}
+		log.info("FIFO compaction drops {} tables", tables.size());
+		metaInfo.removeTable(tables);
+		garbage.forEach(metaInfo.getVLogMetaInfo()::addGarbage);
+		Statistics.getInstance().record(Ticker.FIFO_DELETED_TABLES, tables.size());
+	}
+
+	/**
+	 * Choose the start keys of the subcompactions after the first one among the minimum
+	 * keys of the input tables, so the ranges get about the same number of entries. Every
+	 * range gets at least a full output table worth of entries.
+	 * @return sorted distinct boundaries, empty to merge the whole compaction on the
+	 * calling thread
+	 */
+	List<byte[]> partition(List<List<SSTMetaInfo>> runs) {
+		List<byte[]> boundaries = new ArrayList<>();
+		List<SSTMetaInfo> inputs = new ArrayList<>();
+		runs.forEach(inputs::addAll);
+		long total = inputs.stream().mapToLong(SSTMetaInfo::getCount).sum();
+		long ranges = Math.min(maxSubcompactions, total / maxEntriesPerFile);
+		if (ranges < 2 || inputs.size() < 2) {
+			return boundaries;
+		}
+		inputs.sort((t1, t2) -> StringUtil.compareByteArrays(t1.getMinimumValue(), t2.getMinimumValue()));
+		byte[] last = inputs.get(0).getMinimumValue();
+		long seen = inputs.get(0).getCount();
+		for (int i = 1; i < inputs.size() && boundaries.size() < ranges - 1; i++) {
+			SSTMetaInfo table = inputs.get(i);
+			if (seen * ranges >= total * (boundaries.size() + 1)
+					&& StringUtil.compareByteArrays(table.getMinimumValue(), last) > 0) {
+				last = table.getMinimumValue();
+				boundaries.add(last);
 			}
-			return Boolean.compare(o1.isFromNewSSTable(), o2.isFromNewSSTable());
-		});
-		loadInitialEntries(queue, newReaders, true);
-		loadInitialEntries(queue, oldReaders, false);
-		Pair<String, Long> pair = NamedUtil.getKeyFilePath();
-		DataOutputStream writer = createNewTargetWriter(pair.getF0());
-		long entryCount = 0;
-		byte[] lastKey = null;
-		assert queue.peek() != null;
-		byte[] minKey = queue.peek().getKey();
-		byte[] maxKey = queue.peek().getKey();
+			seen += table.getCount();
+		}
+		return boundaries;
+	}
+
+	/**
+	 * Merge the entries of the inputs within [start, end).
+	 * @param start inclusive, null for no lower bound
+	 * @param end exclusive, null for no upper bound
+	 * @param garbage collects the bytes of the shadowed kv separated values per value log
+	 * file
+	 * @return output tables in key order
+	 */
+	private List<SSTMetaInfo> merge(List<List<SSTMetaInfo>> runs, byte[] start, byte[] end, int targetLevel,
+			Map<Long, Long> garbage) {
+		ArrayList<SSTMetaInfo> newLowerLevelSST = new ArrayList<>();
+		List<SSTIterator> readers = new ArrayList<>();
+		Pair<String, Long> pair = null;
+		SSTWriter writer = null;
 		try {
+			// The newest version of a key pops up first: the larger sequence number, then
+			// the newer run for records written before sequence numbers were persisted
+			PriorityQueue<CompactEntity> queue = new PriorityQueue<>((o1, o2) -> {
+				int keyComparison = StringUtil.compareByteArrays(o1.getKey(), o2.getKey());
+				if (keyComparison != 0) {
+					return keyComparison;
+				}
+				int sequenceComparison = Long.compare(o2.getSequence(), o1.getSequence());
+				if (sequenceComparison != 0) {
+					return sequenceComparison;
+				}
+				return Integer.compare(o1.getRun(), o2.getRun());
+			});
+			for (int run = 0; run < runs.size(); run++) {
+				List<SSTIterator> runReaders = createReaders(runs.get(run), start, end);
+				readers.addAll(runReaders);
+				loadInitialEntries(queue, runReaders, run);
+			}
+			byte[] lastKey = null;
+			long largestSequence = 0;
 			while (!queue.isEmpty()) {
 				CompactEntity entry = queue.poll();
 				byte[] entryKey = entry.getKey();
-				if (StringUtil.compareByteArrays(minKey, entryKey) > 0) {
-					minKey = entryKey;
-				}
-				if (StringUtil.compareByteArrays(maxKey, entryKey) < 0) {
-					maxKey = entryKey;
-				}
 				// There are several situations as follows
 				// 1: First write: direct write
 				// 2: The key is different from the previous key: direct write
-				// 3: The key is same as last time, Because the data that pops up first is
-				// of higher priority,
+				// 3: The key is same as last time, Because the data that pops up first
+				// is of higher priority,
 				// the data that pops up at this time is directly discarded.
 				if (lastKey == null || !Arrays.equals(lastKey, entryKey)) {
-					writer.write(entry.toBytes());
-					entryCount++;
+					if (writer == null) {
+						pair = NamedUtil.getKeyFilePath();
+						writer = new SSTWriter(pair.getF0());
+					}
+					writer.add(entryKey, entry.toBytes());
 					lastKey = entryKey;
+					largestSequence = Math.max(largestSequence, entry.getSequence());
 				}
-				if (entryCount >= maxEntriesPerFile) {
-					writer.flush();
-					writer.close();
-					SSTMetaInfo sst = SSTMetaInfo.builder()
-						.fileName(pair.getF0())
-						.id(String.valueOf(pair.getF1()))
-						.level(targetLevel)
-						.minimumValue(minKey)
-						.count(entryCount)
-						.maximumValue(maxKey)
-						.build();
-					newLowerLevelSST.add(sst);
-					pair = NamedUtil.getKeyFilePath();
-					writer = createNewTargetWriter(pair.getF0());
-					entryCount = 0;
+				else if (entry.isStoreMode()) {
+					// The shadowed value is garbage in its value log file now
+					VLogAddress address = entry.getAddress();
+					garbage.merge(address.getFieldID(), (long) address.getSize(), Long::sum);
 				}
-				if (entry.hasRemaining()) {
-					queue.offer(new CompactEntity(entry.getReader(), entry.isFromNewSSTable()));
+				if (writer != null && writer.getCount() >= maxEntriesPerFile) {
+					newLowerLevelSST.add(finishTable(writer, pair, targetLevel, largestSequence));
+					writer = null;
+					largestSequence = 0;
 				}
-				else {
-					entry.close();
+				if (entry.hasRemaining()) {
+					queue.offer(new CompactEntity(entry.getIterator(), entry.getRun()));
 				}
 			}
-			writer.flush();
-			writer.close();
-		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-		if (entryCount > 0) {
-			try {
-				writer.flush();
-				writer.close();
+			if (writer != null) {
+				newLowerLevelSST.add(finishTable(writer, pair, targetLevel, largestSequence));
+				writer = null;
 			}
-			catch (IOException e) {
-				throw new RuntimeException(e);
+			return newLowerLevelSST;
+		}
+		catch (RuntimeException e) {
+			// Nothing of a failed merge is installed, the compaction is retried into new
+			// files as a failed flush
+			if (writer != null) {
+				try {
+					writer.close();
+				}
+				catch (RuntimeException closeError) {
+					e.addSuppressed(closeError);
+				}
+				new File(pair.getF0()).delete();
 			}
-			SSTMetaInfo sst = SSTMetaInfo.builder()
-				.fileName(pair.getF0())
-				.id(String.valueOf(pair.getF1()))
-				.level(targetLevel)
-				.minimumValue(minKey)
-				.count(entryCount)
-				.maximumValue(maxKey)
-				.build();
-			newLowerLevelSST.add(sst);
+			deleteOutputs(newLowerLevelSST);
+			throw e;
 		}
-		addMetaInfo(newLowerLevelSST);
-		// Remove
-		removeDeleteInfo(upperLevelSST);
-		if (!lowerLevelSST.isEmpty()) {
-			removeDeleteInfo(lowerLevelSST);
+		finally {
+			readers.forEach(SSTIterator::close);
 		}
 	}
 
-	/**
-	 * Delete the merged file information after the merge is completed
-	 */
-	private void removeDeleteInfo(List<SSTMetaInfo> needDelSST) {
-		metaInfo.removeTable(needDelSST);
+	private static void deleteOutputs(List<SSTMetaInfo> outputs) {
+		outputs.forEach(table -> new File(table.getFileName()).delete());
 	}
 
-	private void addMetaInfo(List<SSTMetaInfo> sstTables) {
+	private SSTMetaInfo finishTable(SSTWriter writer, Pair<String, Long> pair, int targetLevel, long largestSequence) {
+		long fileSize = writer.finish();
+		Statistics.getInstance().record(Ticker.COMPACTION_WRITE_BYTES, fileSize);
+		return SSTMetaInfo.builder()
+			.fileName(pair.getF0())
+			.fileSize(fileSize)
+			.id(String.valueOf(pair.getF1()))
+			.level(targetLevel)
+			.minimumValue(writer.getMinKey())
+			.count(writer.getCount())
+			.maximumValue(writer.getMaxKey())
+			.largestSequence(largestSequence)
+			.build();
+	}
+
+	private void logNewTables(List<SSTMetaInfo> sstTables) {
 		log.info("new files generated by merging: ");
-		sstTables.forEach(table -> {
-			log.debug(table.toString());
-			metaInfo.addTable(table);
-		});
+		sstTables.forEach(table -> log.debug(table.toString()));
 	}
 
-	private List<DataInputStream> createReaders(List<SSTMetaInfo> tables) {
-		List<DataInputStream> readers = new ArrayList<>();
+	/**
+	 * @return iterators over the entries within [start, end) of the tables overlapping
+	 * the range
+	 */
+	private List<SSTIterator> createReaders(List<SSTMetaInfo> tables, byte[] start, byte[] end) {
+		List<SSTIterator> readers = new ArrayList<>();
 		for (SSTMetaInfo table : tables) {
-			String fileName = table.getFileName();
-			FileUtil.checkFileExists(fileName, true);
-			InputStream inputStream;
-			try {
-				inputStream = Files.newInputStream(Paths.get(fileName));
+			if (start != null && StringUtil.compareByteArrays(table.getMaximumValue(), start) < 0
+					|| end != null && StringUtil.compareByteArrays(table.getMinimumValue(), end) >= 0) {
+				continue;
 			}
-			catch (IOException e) {
-				throw new RuntimeException("Read file " + fileName + " failed", e);
+			FileUtil.checkFileExists(table.getFileName(), true);
+			// Compaction inputs are read once, keep them out of the block cache
+			SSTIterator reader = table.getReader().iterator(false);
+			if (start != null) {
+				reader.seek(start);
 			}
-			readers.add(new DataInputStream(inputStream));
+			reader.setUpperBound(end);
+			readers.add(reader);
 		}
 		return readers;
 	}
 
-	private DataOutputStream createNewTargetWriter(String targetFileName) {
-		OutputStream outputStream;
-		try {
-			outputStream = Files.newOutputStream(Paths.get(targetFileName));
-		}
-		catch (IOException e) {
-			throw new RuntimeException("Create file " + targetFileName + " failed", e);
-		}
-		return new DataOutputStream(new BufferedOutputStream(outputStream));
-	}
-
-	private void loadInitialEntries(PriorityQueue<CompactEntity> queue, List<DataInputStream> readers,
-			boolean fromNewSSTable) {
-		for (DataInputStream reader : readers) {
-			queue.offer(new CompactEntity(reader, fromNewSSTable));
+	private void loadInitialEntries(PriorityQueue<CompactEntity> queue, List<SSTIterator> readers, int run) {
+		for (SSTIterator reader : readers) {
+			if (reader.hasNext()) {
+				queue.offer(new CompactEntity(reader, run));
+			}
 		}
 	}
 
-	private void logCompactInfo(List<SSTMetaInfo> upperLevelSST, List<SSTMetaInfo> lowerLevelSST) {
+	private void logCompactInfo(List<List<SSTMetaInfo>> runs) {
 		log.debug("Begin Major Compaction, Print Compaction Info");
-		log.debug("High priority SST Files ");
-		upperLevelSST.forEach(System.out::println);
-		log.debug("Low priority SST Files ");
-		lowerLevelSST.forEach(System.out::println);
+		for (int run = 0; run < runs.size(); run++) {
+			log.debug("Sorted run {}, the smaller the higher priority", run);
+			runs.get(run).forEach(table -> log.debug(table.toString()));
+		}
 		log.debug("End Print Compaction Info!");
 	}
 
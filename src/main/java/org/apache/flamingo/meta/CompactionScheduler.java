@@ -0,0 +1,416 @@
+package org.apache.flamingo.meta;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.Pair;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs compactions on a thread pool of its own, so a flush only registers its table and
+ * never waits on a merge, as the LevelDB background compaction.
+ * <p>
+ * Levels are served by {@link MetaInfo#score(int)}, level 0 first on a tie since it
+ * stalls writes. Above level 0 the table is picked by compaction_pri. Compactions run
+ * concurrently as long as they share no input table and their outputs cover disjoint key
+ * ranges of the target level. Only one level 0 compaction runs at a time: it always takes
+ * the oldest table and newer tables must not reach level 1 before it.
+ * <p>
+ * With compaction_style universal the {@link UniversalCompactionPicker} chooses instead,
+ * one compaction at a time. With compaction_style fifo the {@link FifoCompactionPicker}
+ * only drops level 0 tables.
+ * <p>
+ * The compaction threads run below the normal priority of the flush thread. A failed
+ * compaction is picked again after a backoff, a level 0 over level0_stop_writes_trigger
+ * would otherwise block the writers until a flush that never comes.
+ */
+@Slf4j
+public class CompactionScheduler implements AutoCloseable {
+
+	/**
+	 * Backoff of a failed compaction, doubled after every failure in a row up to the
+	 * maximum.
+	 */
+	static final long RETRY_MIN_MILLIS = 100;
+
+	static final long RETRY_MAX_MILLIS = 10_000;
+
+	private final MetaInfo metaInfo;
+
+	private final int maxBackgroundCompactions;
+
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Ids of the input tables of the running compactions.
+	 */
+	private final Set<String> busyTables = new HashSet<>();
+
+	private final List<Task> running = new ArrayList<>();
+
+	/**
+	 * compaction_pri round_robin: per level the largest key of the table compacted last.
+	 * Kept in memory only, a restart begins at the start of every level again.
+	 */
+	private final Map<Integer, byte[]> cursors = new HashMap<>();
+
+	private final boolean roundRobin;
+
+	/**
+	 * Null unless compaction_style is universal.
+	 */
+	private final UniversalCompactionPicker universal;
+
+	/**
+	 * Null unless compaction_style is fifo.
+	 */
+	private final FifoCompactionPicker fifo;
+
+	/**
+	 * fifo: a thread drops tables, and whether it has to look again.
+	 */
+	private boolean fifoRunning = false;
+
+	private boolean fifoRequested = false;
+
+	private boolean closed = false;
+
+	private long retryDelayMillis = RETRY_MIN_MILLIS;
+
+	private ScheduledFuture<?> retry;
+
+	CompactionScheduler(MetaInfo metaInfo) {
+		this.metaInfo = metaInfo;
+		this.maxBackgroundCompactions = Math.max(1, Integer.parseInt(Options.MaxBackgroundCompactions.getValue()));
+		this.roundRobin = "round_robin".equals(Options.CompactionPri.getValue());
+		this.universal = "universal".equals(Options.CompactionStyle.getValue())
+				? new UniversalCompactionPicker(metaInfo) : null;
+		this.fifo = "fifo".equals(Options.CompactionStyle.getValue()) ? new FifoCompactionPicker(metaInfo) : null;
+		AtomicInteger threadId = new AtomicInteger(0);
+		this.executor = Executors.newScheduledThreadPool(maxBackgroundCompactions, runnable -> {
+			Thread thread = new Thread(runnable, "compaction-" + threadId.getAndIncrement());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		});
+		if (fifo != null && fifo.getCheckIntervalMillis() > 0) {
+			// Tables expire without any flush
+			executor.scheduleWithFixedDelay(this::maybeSchedule, fifo.getCheckIntervalMillis(),
+					fifo.getCheckIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Start compactions while threads are free and some level is over its threshold.
+	 */
+	public synchronized void maybeSchedule() {
+		if (fifo != null) {
+			fifoRequested = true;
+			if (!closed && !fifoRunning) {
+				fifoRunning = true;
+				executor.execute(this::runFifo);
+			}
+			return;
+		}
+		while (!closed && running.size() < maxBackgroundCompactions) {
+			Task task = pick();
+			if (task == null) {
+				return;
+			}
+			task.inputs().forEach(table -> busyTables.add(table.getId()));
+			running.add(task);
+			executor.execute(() -> run(task));
+		}
+	}
+
+	/**
+	 * Drop tables until no flush asked for another look meanwhile.
+	 */
+	private void runFifo() {
+		while (true) {
+			synchronized (this) {
+				if (!fifoRequested) {
+					fifoRunning = false;
+					notifyAll();
+					return;
+				}
+				fifoRequested = false;
+			}
+			try {
+				List<SSTMetaInfo> dropped = fifo.pick();
+				if (!dropped.isEmpty()) {
+					metaInfo.getCompact().dropTables(dropped);
+				}
+			}
+			catch (RuntimeException e) {
+				log.error("FIFO compaction failed", e);
+			}
+		}
+	}
+
+	private void run(Task task) {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			metaInfo.getCompact().compact(task.runs, task.targetLevel);
+			success = true;
+			Statistics.getInstance().record(Ticker.COMPACTIONS);
+			Statistics.getInstance()
+				.record(Ticker.COMPACTION_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		}
+		catch (RuntimeException e) {
+			log.error("Compaction of level {} into level {} failed", task.level, task.targetLevel, e);
+		}
+		finally {
+			synchronized (this) {
+				task.inputs().forEach(table -> busyTables.remove(table.getId()));
+				running.remove(task);
+				// The outputs may have filled the next level
+				if (success) {
+					retryDelayMillis = RETRY_MIN_MILLIS;
+					maybeSchedule();
+				}
+				else {
+					scheduleRetry();
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Pick again after the backoff, unless a retry is due anyway. A flush meanwhile may
+	 * pick earlier.
+	 */
+	private void scheduleRetry() {
+		if (closed || (retry != null && !retry.isDone())) {
+			return;
+		}
+		log.info("Retry compactions in {} ms", retryDelayMillis);
+		retry = executor.schedule(this::maybeSchedule, retryDelayMillis, TimeUnit.MILLISECONDS);
+		retryDelayMillis = Math.min(retryDelayMillis * 2, RETRY_MAX_MILLIS);
+	}
+
+	/**
+	 * @return the most urgent compaction that does not conflict with the running ones
+	 */
+	private Task pick() {
+		if (universal != null) {
+			// One universal compaction at a time, every merge changes the sorted runs the
+			// next one is picked from
+			if (!running.isEmpty()) {
+				return null;
+			}
+			Pair<List<List<SSTMetaInfo>>, Integer> picked = universal.pick();
+			return picked == null ? null : new Task(picked.getF0(), picked.getF1());
+		}
+		int maxLevel = metaInfo.getMaxLevel();
+		List<Integer> levels = new ArrayList<>();
+		Map<Integer, Double> scores = new HashMap<>();
+		for (int level = 0; level < maxLevel - 1; level++) {
+			double score = score(level);
+			if (score >= 1) {
+				levels.add(level);
+				scores.put(level, score);
+			}
+		}
+		// Stable sort, level 0 stays first among equal scores
+		levels.sort((l1, l2) -> Double.compare(scores.get(l2), scores.get(l1)));
+		for (int level : levels) {
+			Task task = pick(level);
+			if (task != null) {
+				return task;
+			}
+		}
+		return null;
+	}
+
+	private double score(int level) {
+		List<SSTMetaInfo> compacting = new ArrayList<>();
+		for (Task task : running) {
+			if (task.level == level) {
+				compacting.addAll(task.upper);
+			}
+		}
+		return metaInfo.score(level, compacting);
+	}
+
+	private Task pick(int level) {
+		LevelMetaInfo levelMetaInfo = metaInfo.getLevelMetaInfo(level);
+		List<SSTMetaInfo> candidates = levelMetaInfo.getTablesInOrder();
+		if (level == 0) {
+			// Only the oldest level 0 table may go down
+			if (running.stream().anyMatch(task -> task.level == 0)) {
+				return null;
+			}
+			candidates = candidates.isEmpty() ? candidates : candidates.subList(0, 1);
+		}
+		List<Task> tasks = new ArrayList<>();
+		for (SSTMetaInfo upper : candidates) {
+			if (busyTables.contains(upper.getId())) {
+				continue;
+			}
+			List<SSTMetaInfo> upperTables = new ArrayList<>();
+			upperTables.add(upper);
+			Task task = new Task(level, upperTables, metaInfo.getOverlapTables(upperTables, level + 1));
+			if (task.inputs().stream().noneMatch(table -> busyTables.contains(table.getId()))
+					&& running.stream().noneMatch(task::overlaps)) {
+				tasks.add(task);
+			}
+		}
+		if (tasks.isEmpty()) {
+			return null;
+		}
+		if (level > 0 && roundRobin) {
+			return nextByCursor(level, tasks);
+		}
+		// Merging the table rewrites its overlapping bytes in the next level, the
+		// smallest rewrite per byte moved down keeps the write amplification low
+		return tasks.stream().min(Comparator.comparingDouble(Task::overlappingRatio)).get();
+	}
+
+	/**
+	 * @return the task of the first table after the cursor of the level in key order,
+	 * wrapping around at the end of the level
+	 */
+	private Task nextByCursor(int level, List<Task> tasks) {
+		tasks.sort((t1, t2) -> StringUtil.compareByteArrays(t1.upper.get(0).getMinimumValue(),
+				t2.upper.get(0).getMinimumValue()));
+		byte[] cursor = cursors.get(level);
+		Task next = tasks.get(0);
+		if (cursor != null) {
+			for (Task task : tasks) {
+				if (StringUtil.compareByteArrays(task.upper.get(0).getMinimumValue(), cursor) > 0) {
+					next = task;
+					break;
+				}
+			}
+		}
+		cursors.put(level, next.upper.get(0).getMaximumValue());
+		return next;
+	}
+
+	/**
+	 * Block until no compaction runs and none is due. A retry waiting for its backoff is
+	 * not waited for.
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (!running.isEmpty() || fifoRunning) {
+			wait();
+		}
+	}
+
+	/**
+	 * Let the running compactions finish and stop the threads, nothing is scheduled
+	 * afterwards.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			if (retry != null) {
+				retry.cancel(false);
+			}
+		}
+		try {
+			awaitIdle();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for compactions!", e);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private static final class Task {
+
+		/**
+		 * Level of the newest run.
+		 */
+		private final int level;
+
+		/**
+		 * Sorted runs to merge, newest first.
+		 */
+		private final List<List<SSTMetaInfo>> runs;
+
+		private final int targetLevel;
+
+		private final List<SSTMetaInfo> upper;
+
+		private final List<SSTMetaInfo> lower = new ArrayList<>();
+
+		/**
+		 * Key range of the outputs in the target level.
+		 */
+		private final byte[] minKey;
+
+		private final byte[] maxKey;
+
+		/**
+		 * Merge tables of a level into the next one.
+		 */
+		private Task(int level, List<SSTMetaInfo> upper, List<SSTMetaInfo> lower) {
+			this(Arrays.asList(upper, lower), level + 1);
+		}
+
+		private Task(List<List<SSTMetaInfo>> runs, int targetLevel) {
+			this.level = runs.get(0).get(0).getLevel();
+			this.runs = runs;
+			this.targetLevel = targetLevel;
+			this.upper = runs.get(0);
+			runs.subList(1, runs.size()).forEach(lower::addAll);
+			byte[] min = null;
+			byte[] max = null;
+			for (SSTMetaInfo table : inputs()) {
+				if (min == null || StringUtil.compareByteArrays(table.getMinimumValue(), min) < 0) {
+					min = table.getMinimumValue();
+				}
+				if (max == null || StringUtil.compareByteArrays(table.getMaximumValue(), max) > 0) {
+					max = table.getMaximumValue();
+				}
+			}
+			this.minKey = min;
+			this.maxKey = max;
+		}
+
+		/**
+		 * @return overlapping bytes of the next level per byte of the upper table
+		 */
+		private double overlappingRatio() {
+			long overlapping = lower.stream().mapToLong(SSTMetaInfo::getFileSize).sum();
+			long size = upper.stream().mapToLong(SSTMetaInfo::getFileSize).sum();
+			return (double) overlapping / Math.max(1, size);
+		}
+
+		private List<SSTMetaInfo> inputs() {
+			List<SSTMetaInfo> inputs = new ArrayList<>(upper);
+			inputs.addAll(lower);
+			return inputs;
+		}
+
+		private boolean overlaps(Task other) {
+			return targetLevel == other.targetLevel && StringUtil.compareByteArrays(minKey, other.maxKey) <= 0
+					&& StringUtil.compareByteArrays(other.minKey, maxKey) <= 0;
+		}
+
+	}
+
+}
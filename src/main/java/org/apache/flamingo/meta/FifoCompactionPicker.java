@@ -0,0 +1,69 @@
+package org.apache.flamingo.meta;
+
+import org.apache.flamingo.options.Options;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the tables of the FIFO style, as the RocksDB FIFO compaction. Tables stay on
+ * level 0, the oldest by {@link SSTMetaInfo#getCreateTime()} are dropped whole once they
+ * are older than fifo_ttl_seconds or while level 0 holds more than
+ * fifo_max_table_files_size bytes. Nothing is merged, lookups skip tables by their key
+ * range and filters.
+ * <p>
+ * Tables below level 0, left by another compaction style, are kept as they are.
+ */
+class FifoCompactionPicker {
+
+	private final MetaInfo metaInfo;
+
+	/**
+	 * 0 keeps tables regardless of their age.
+	 */
+	private final long ttlMillis;
+
+	/**
+	 * 0 for no cap.
+	 */
+	private final long maxTableFilesSize;
+
+	FifoCompactionPicker(MetaInfo metaInfo) {
+		this.metaInfo = metaInfo;
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(Options.FifoTtlSeconds.getValue()));
+		this.maxTableFilesSize = Long.parseLong(Options.FifoMaxTableFilesSize.getValue());
+	}
+
+	/**
+	 * @return how often tables have to be checked for their age, 0 without a TTL
+	 */
+	long getCheckIntervalMillis() {
+		return Math.min(ttlMillis, TimeUnit.MINUTES.toMillis(1));
+	}
+
+	/**
+	 * @return the level 0 tables to drop, oldest first
+	 */
+	List<SSTMetaInfo> pick() {
+		List<SSTMetaInfo> tables = metaInfo.getLevelMetaInfo(0).getTablesInOrder();
+		// Stable, tables written in the same millisecond keep their flush order
+		tables.sort(Comparator.comparingLong(SSTMetaInfo::getCreateTime));
+		long total = tables.stream().mapToLong(SSTMetaInfo::getFileSize).sum();
+		long expireBefore = System.currentTimeMillis() - ttlMillis;
+		List<SSTMetaInfo> dropped = new ArrayList<>();
+		for (SSTMetaInfo table : tables) {
+			boolean expired = ttlMillis > 0 && table.getCreateTime() <= expireBefore;
+			boolean overSize = maxTableFilesSize > 0 && total > maxTableFilesSize;
+			if (!expired && !overSize) {
+				// Newer tables are younger and the rest fits under the cap
+				break;
+			}
+			dropped.add(table);
+			total -= table.getFileSize();
+		}
+		return dropped;
+	}
+
+}
@@ -0,0 +1,163 @@
+package org.apache.flamingo.meta;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.iterator.InternalIterator;
+import org.apache.flamingo.sstable.TableIterator;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Concatenates the tables of a level other than level 0. They are sorted by minimum key
+ * and do not overlap, so one table iterator is open at a time and the next one is opened
+ * only when the cursor crosses into it.
+ */
+public class LevelIterator implements InternalIterator {
+
+	private final SSTMetaInfo[] tables;
+
+	private int tableIndex = -1;
+
+	private TableIterator current;
+
+	/**
+	 * @param tables tables sorted by minimum key without overlap, the caller keeps their
+	 * readers retained
+	 */
+	public LevelIterator(SSTMetaInfo[] tables) {
+		this.tables = tables;
+	}
+
+	@Override
+	public boolean isValid() {
+		return current != null && current.isValid();
+	}
+
+	@Override
+	public void seekToFirst() {
+		if (open(0)) {
+			current.seekToFirst();
+			skipForward();
+		}
+	}
+
+	@Override
+	public void seekToLast() {
+		if (open(tables.length - 1)) {
+			current.seekToLast();
+			skipBackward();
+		}
+	}
+
+	@Override
+	public void seek(byte[] target) {
+		// First table whose maximum key is not less than the target
+		int low = 0;
+		int high = tables.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (StringUtil.compareByteArrays(tables[mid].getMaximumValue(), target) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		if (open(low)) {
+			current.seek(target);
+			skipForward();
+		}
+	}
+
+	@Override
+	public void seekForPrev(byte[] target) {
+		// Last table whose minimum key is not greater than the target
+		int low = 0;
+		int high = tables.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (StringUtil.compareByteArrays(tables[mid].getMinimumValue(), target) <= 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		if (open(high)) {
+			current.seekForPrev(target);
+			skipBackward();
+		}
+	}
+
+	@Override
+	public void next() {
+		checkValid();
+		current.next();
+		skipForward();
+	}
+
+	@Override
+	public void prev() {
+		checkValid();
+		current.prev();
+		skipBackward();
+	}
+
+	@Override
+	public SLNode entry() {
+		checkValid();
+		return current.entry();
+	}
+
+	@Override
+	public void close() {
+		closeCurrent();
+		tableIndex = -1;
+	}
+
+	private void skipForward() {
+		while (current != null && !current.isValid()) {
+			if (open(tableIndex + 1)) {
+				current.seekToFirst();
+			}
+		}
+	}
+
+	private void skipBackward() {
+		while (current != null && !current.isValid()) {
+			if (open(tableIndex - 1)) {
+				current.seekToLast();
+			}
+		}
+	}
+
+	/**
+	 * @return false, and the iterator is invalid, if there is no such table
+	 */
+	private boolean open(int index) {
+		if (index < 0 || index >= tables.length) {
+			closeCurrent();
+			return false;
+		}
+		if (index != tableIndex || current == null) {
+			closeCurrent();
+			current = tables[index].getReader().newIterator(true);
+			tableIndex = index;
+		}
+		return true;
+	}
+
+	private void closeCurrent() {
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+	}
+
+	private void checkValid() {
+		if (!isValid()) {
+			throw new NoSuchElementException();
+		}
+	}
+
+}
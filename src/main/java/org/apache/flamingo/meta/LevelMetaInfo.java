@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import lombok.Getter;
+import org.apache.flamingo.bean.SLNode;
 import org.apache.flamingo.core.Context;
 import org.apache.flamingo.utils.Pair;
 import org.apache.flamingo.utils.StringUtil;
@@ -25,6 +26,13 @@ public class LevelMetaInfo {
 	// Now we choose LinkedHashMap
 	private final Map<String, SSTMetaInfo> tables;
 
+	/**
+	 * Search order of the tables, rebuilt on every change so lookups neither copy nor
+	 * walk the map. Level 0 tables overlap and are kept newest first; tables of the other
+	 * levels do not overlap and are kept sorted by minimum key.
+	 */
+	private SSTMetaInfo[] searchOrder = new SSTMetaInfo[0];
+
 	private final ReentrantReadWriteLock locker;
 
 	private final ObjectMapper objectMapper = Context.getInstance().getObjectMapper();
@@ -45,18 +53,27 @@ public class LevelMetaInfo {
 		}
 	}
 
-	public List<SSTMetaInfo> chooseNeedCompactTable() {
+	/**
+	 * @return total bytes of the sst files on the level
+	 */
+	public long bytes() {
 		locker.readLock().lock();
 		try {
-			Set<String> keySet = tables.keySet();
-			List<SSTMetaInfo> result = new ArrayList<>();
-			if (!keySet.isEmpty()) {
-				keySet.stream().findFirst().ifPresent(s -> {
-					SSTMetaInfo table = tables.get(s);
-					result.add(table);
-				});
-			}
-			return result;
+			return tables.values().stream().mapToLong(SSTMetaInfo::getFileSize).sum();
+		}
+		finally {
+			locker.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the tables of the level from the oldest to the newest, the order
+	 * compactions take them in
+	 */
+	public List<SSTMetaInfo> getTablesInOrder() {
+		locker.readLock().lock();
+		try {
+			return new ArrayList<>(tables.values());
 		}
 		finally {
 			locker.readLock().unlock();
@@ -69,7 +86,10 @@ public class LevelMetaInfo {
 			String tableId = table.getId();
 			SSTMetaInfo sst = tables.get(tableId);
 			if (sst == null) {
+				// Open (and map) the file once, before the table becomes visible
+				table.getReader();
 				tables.put(tableId, table);
+				rebuildSearchOrder();
 			}
 			else {
 				throw new RuntimeException("table already exists: " + tableId);
@@ -80,11 +100,40 @@ public class LevelMetaInfo {
 		}
 	}
 
+	/**
+	 * Atomically swap compaction inputs of this level for the compaction outputs, so
+	 * readers never see overlapping tables on a level above 0.
+	 */
+	public void replaceTables(List<SSTMetaInfo> delTables, List<SSTMetaInfo> newTables) {
+		List<SSTMetaInfo> removed = new ArrayList<>();
+		locker.writeLock().lock();
+		try {
+			for (SSTMetaInfo table : newTables) {
+				if (tables.containsKey(table.getId())) {
+					throw new RuntimeException("table already exists: " + table.getId());
+				}
+				table.getReader();
+			}
+			for (SSTMetaInfo table : delTables) {
+				if (tables.remove(table.getId()) != null) {
+					removed.add(table);
+				}
+			}
+			newTables.forEach(table -> tables.put(table.getId(), table));
+			rebuildSearchOrder();
+		}
+		finally {
+			locker.writeLock().unlock();
+		}
+		removed.forEach(SSTMetaInfo::delete);
+	}
+
 	public void deleteTable(SSTMetaInfo table) {
 		locker.writeLock().lock();
 		try {
 			// TODO: 考虑此处的删除操作移到锁外执行以便于减小持有锁的时间
 			tables.remove(table.getId());
+			rebuildSearchOrder();
 		}
 		finally {
 			locker.writeLock().unlock();
@@ -102,12 +151,26 @@ public class LevelMetaInfo {
 					table.delete();
 				}
 			});
+			rebuildSearchOrder();
 		}
 		finally {
 			locker.writeLock().unlock();
 		}
 	}
 
+	/**
+	 * @return the tables of the level in search order
+	 */
+	public List<SSTMetaInfo> getTables() {
+		locker.readLock().lock();
+		try {
+			return Arrays.asList(searchOrder);
+		}
+		finally {
+			locker.readLock().unlock();
+		}
+	}
+
 	public List<SSTMetaInfo> getOverlapTables(SSTMetaInfo table) {
 		locker.readLock().lock();
 		ArrayList<SSTMetaInfo> res = new ArrayList<>();
@@ -133,46 +196,122 @@ public class LevelMetaInfo {
 	}
 
 	/**
-	 * According to the order of addition, we should prioritize traversing from back to
-	 * front.
+	 * Level 0 is searched from the newest table to the oldest. On the other levels at
+	 * most one table can contain the key and it is found by binary search.
 	 * @param key Search key.
 	 * @return f0: value f1: Did you find the key in this layer ?
 	 */
 	public Pair<byte[], Boolean> search(byte[] key) {
 		locker.readLock().lock();
 		try {
-			if (tables.isEmpty()) {
-				return Pair.of(null, false);
-			}
-			// If the data at layer 0 cannot be found, continue searching downwards
-			if (level == 0) {
-				for (SSTMetaInfo table : reverse()) {
-					Pair<byte[], Boolean> pair = table.search(key);
-					if (pair.getF1()) {
-						return pair;
-					}
+			return search(level, searchOrder, key);
+		}
+		finally {
+			locker.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param order tables of the level in search order
+	 */
+	static Pair<byte[], Boolean> search(int level, SSTMetaInfo[] order, byte[] key) {
+		SLNode node = get(level, order, key);
+		if (node == null) {
+			return Pair.of(null, false);
+		}
+		// Null for tombstones, kv separated values come from the value log
+		return Pair.of(Context.getInstance().getVLogReader().resolve(node), true);
+	}
+
+	/**
+	 * @return the newest entry of the key on the level as stored, tombstones included
+	 */
+	static SLNode get(int level, SSTMetaInfo[] order, byte[] key) {
+		// If the data at layer 0 cannot be found, continue searching downwards
+		if (level == 0) {
+			for (SSTMetaInfo table : order) {
+				if (!inRange(table, key)) {
+					continue;
+				}
+				SLNode node = table.get(key);
+				if (node != null) {
+					return node;
 				}
-				return Pair.of(null, false);
 			}
-			for (SSTMetaInfo table : reverse()) {
-				byte[] minimumValue = table.getMinimumValue();
-				byte[] maximumValue = table.getMaximumValue();
-				if (StringUtil.compareByteArrays(minimumValue, key) <= 0
-						&& StringUtil.compareByteArrays(maximumValue, key) >= 0) {
-					Pair<byte[], Boolean> searchPair = table.search(key);
-					if (searchPair.getF1()) {
-						return searchPair;
+			return null;
+		}
+		SSTMetaInfo table = findTable(order, key);
+		return table == null ? null : table.get(key);
+	}
+
+	/**
+	 * Take a reference on the reader of every table of the level, so the tables stay
+	 * readable after a compaction deleted them. The caller releases the readers.
+	 * @return the tables in search order
+	 */
+	public SSTMetaInfo[] pinTables() {
+		locker.readLock().lock();
+		try {
+			SSTMetaInfo[] order = searchOrder;
+			for (int i = 0; i < order.length; i++) {
+				// Tables are deleted only after they left the search order
+				if (!order[i].getReader().retain()) {
+					for (int j = 0; j < i; j++) {
+						order[j].getReader().release();
 					}
-					break;
+					throw new IllegalStateException("SST " + order[i].getFileName() + " was released while listed");
 				}
 			}
-			return Pair.of(null, false);
+			return order;
 		}
 		finally {
 			locker.readLock().unlock();
 		}
 	}
 
+	/**
+	 * @param order tables sorted by minimum key without overlap
+	 * @return the only table whose range covers the key, or null
+	 */
+	static SSTMetaInfo findTable(SSTMetaInfo[] order, byte[] key) {
+		// Find the last table whose minimum key is not greater than the key
+		int low = 0;
+		int high = order.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (StringUtil.compareByteArrays(order[mid].getMinimumValue(), key) <= 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		if (high < 0) {
+			return null;
+		}
+		SSTMetaInfo table = order[high];
+		return StringUtil.compareByteArrays(table.getMaximumValue(), key) >= 0 ? table : null;
+	}
+
+	static boolean inRange(SSTMetaInfo table, byte[] key) {
+		return StringUtil.compareByteArrays(table.getMinimumValue(), key) <= 0
+				&& StringUtil.compareByteArrays(table.getMaximumValue(), key) >= 0;
+	}
+
+	/**
+	 * Must be called with the write lock held.
+	 */
+	private void rebuildSearchOrder() {
+		SSTMetaInfo[] order = tables.values().toArray(new SSTMetaInfo[0]);
+		if (level == 0) {
+			Collections.reverse(Arrays.asList(order));
+		}
+		else {
+			Arrays.sort(order, (o1, o2) -> StringUtil.compareByteArrays(o1.getMinimumValue(), o2.getMinimumValue()));
+		}
+		searchOrder = order;
+	}
+
 	private List<SSTMetaInfo> reverse() {
 		ArrayList<SSTMetaInfo> res = new ArrayList<>(tables.values());
 		Collections.reverse(res);
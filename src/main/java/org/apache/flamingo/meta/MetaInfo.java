@@ -15,9 +15,10 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Slf4j
-public class MetaInfo {
+public class MetaInfo implements AutoCloseable {
 
 	private final Map<Integer, LevelMetaInfo> metaInfo = new HashMap<>();
 
@@ -28,13 +29,37 @@ public class MetaInfo {
 	@Getter
 	private final Compact compact;
 
+	private final CompactionScheduler compactionScheduler;
+
+	@Getter
 	private final int maxLevel;
 
+	private final int level0CompactionTrigger;
+
+	private final long maxBytesForLevelBase;
+
+	private final int maxBytesForLevelMultiplier;
+
+	@Getter
+	private final VLogMetaInfo vLogMetaInfo = new VLogMetaInfo();
+
+	/**
+	 * Held exclusively while a flushed table is installed, shared while a snapshot
+	 * captures its sequence number, memory tables and version, so a table flushed in
+	 * between is never pinned with writes newer than the snapshot.
+	 */
+	@Getter
+	private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock();
+
 	public MetaInfo(String filePath) {
 		this.metaFileLocation = filePath;
 		this.maxLevel = Integer.parseInt(Options.MaxLevel.getValue());
+		this.level0CompactionTrigger = Integer.parseInt(Options.Level0FileNumCompactionTrigger.getValue());
+		this.maxBytesForLevelBase = Long.parseLong(Options.MaxBytesForLevelBase.getValue());
+		this.maxBytesForLevelMultiplier = Integer.parseInt(Options.MaxBytesForLevelMultiplier.getValue());
 		this.compact = new Compact(this);
 		initEmptyLevel();
+		this.compactionScheduler = new CompactionScheduler(this);
 	}
 
 	public MetaInfo() {
@@ -54,10 +79,16 @@ public class MetaInfo {
 		checkSST(table);
 		int level = table.getLevel();
 		LevelMetaInfo levelMetaInfo = metaInfo.get(level);
-		levelMetaInfo.addTable(table);
-		if (levelMetaInfo.size() > maxLevelSize(level) && level != maxLevel - 1) {
-			compact(level);
+		flushLock.writeLock().lock();
+		try {
+			levelMetaInfo.addTable(table);
 		}
+		finally {
+			flushLock.writeLock().unlock();
+		}
+		serialize();
+		// The flush returns right away, compactions run in the background
+		compactionScheduler.maybeSchedule();
 	}
 
 	public void removeTable(List<SSTMetaInfo> tables) {
@@ -70,21 +101,41 @@ public class MetaInfo {
 	}
 
 	/**
-	 * Merge data from the level layer
-	 * @param level level number
+	 * Install the result of a compaction. The outputs replace the inputs of the target
+	 * level in one step, then the inputs of the levels above are dropped from the deepest
+	 * level up, so a reader finds every key at any time.
+	 * @param inputs compaction inputs, on the target level or above
+	 * @param newTables compaction outputs
+	 * @param targetLevel level of the outputs
 	 */
-	private void compact(int level) {
-		LevelMetaInfo levelMetaInfo = metaInfo.get(level);
-		List<SSTMetaInfo> upperLevel = levelMetaInfo.chooseNeedCompactTable();
-		if (upperLevel.isEmpty()) {
-			serialize();
-			throw new NullPointerException("Upper Level is Empty!");
+	public void installCompaction(List<SSTMetaInfo> inputs, List<SSTMetaInfo> newTables, int targetLevel) {
+		newTables.forEach(this::checkSST);
+		TreeMap<Integer, List<SSTMetaInfo>> inputsByLevel = new TreeMap<>(Comparator.reverseOrder());
+		inputs.forEach(table -> inputsByLevel.computeIfAbsent(table.getLevel(), level -> new ArrayList<>()).add(table));
+		List<SSTMetaInfo> lowerTables = inputsByLevel.remove(targetLevel);
+		metaInfo.get(targetLevel).replaceTables(lowerTables == null ? new ArrayList<>() : lowerTables, newTables);
+		inputsByLevel.forEach((level, tables) -> metaInfo.get(level).deleteTable(tables));
+		serialize();
+	}
+
+	/**
+	 * Block until no compaction runs and no level is waiting for one.
+	 */
+	public void awaitCompactions() {
+		try {
+			compactionScheduler.awaitIdle();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for compactions!", e);
 		}
-		List<SSTMetaInfo> lowerLevel = getOverlapTables(upperLevel, level + 1);
-		compact.majorCompact(upperLevel, lowerLevel);
 	}
 
-	private List<SSTMetaInfo> getOverlapTables(List<SSTMetaInfo> upperTables, int nextLevel) {
+	LevelMetaInfo getLevelMetaInfo(int level) {
+		return metaInfo.get(level);
+	}
+
+	List<SSTMetaInfo> getOverlapTables(List<SSTMetaInfo> upperTables, int nextLevel) {
 		LevelMetaInfo levelMetaInfo = metaInfo.get(nextLevel);
 		ArrayList<SSTMetaInfo> lowerTable = new ArrayList<>();
 		upperTables.forEach(table -> {
@@ -97,10 +148,49 @@ public class MetaInfo {
 	}
 
 	/**
-	 * 计算每层sst的数量阈值
+	 * @return number of sstables on the level
+	 */
+	public int getLevelSize(int level) {
+		return metaInfo.get(level).size();
+	}
+
+	/**
+	 * @return bytes of the sst files on the level
+	 */
+	public long getLevelBytes(int level) {
+		return metaInfo.get(level).bytes();
+	}
+
+	/**
+	 * 计算每层sst的字节数阈值, level 0 is limited by the number of tables instead
+	 */
+	public long maxBytesForLevel(int level) {
+		long target = maxBytesForLevelBase;
+		for (int i = 1; i < level; i++) {
+			target *= maxBytesForLevelMultiplier;
+		}
+		return target;
+	}
+
+	/**
+	 * Compaction score of the level, the level needs a compaction from 1 on. Level 0
+	 * counts tables against level0_file_num_compaction_trigger since every table may
+	 * overlap every other one, the other levels count bytes against their target.
 	 */
-	public int maxLevelSize(int level) {
-		return 2 << level;
+	public double score(int level) {
+		return score(level, Collections.emptyList());
+	}
+
+	/**
+	 * @param compacting tables of the level being merged into the next one, they no
+	 * longer count
+	 */
+	double score(int level, List<SSTMetaInfo> compacting) {
+		if (level == 0) {
+			return (double) (getLevelSize(0) - compacting.size()) / level0CompactionTrigger;
+		}
+		long bytes = getLevelBytes(level) - compacting.stream().mapToLong(SSTMetaInfo::getFileSize).sum();
+		return (double) bytes / maxBytesForLevel(level);
 	}
 
 	public byte[] search(byte[] key) {
@@ -114,7 +204,33 @@ public class MetaInfo {
 		return null;
 	}
 
-	public void serialize() {
+	/**
+	 * Pin the tables of every level, see {@link Version}. Levels are pinned from the top
+	 * down and compactions install their outputs before dropping their inputs, so no
+	 * record is missed.
+	 */
+	public Version currentVersion() {
+		SSTMetaInfo[][] levels = new SSTMetaInfo[maxLevel][];
+		for (int level = 0; level < maxLevel; level++) {
+			levels[level] = metaInfo.get(level).pinTables();
+		}
+		return new Version(levels);
+	}
+
+	/**
+	 * @return the largest sequence number stored in the sstables
+	 */
+	public long getLargestSequence() {
+		long largest = 0;
+		for (int level = 0; level < maxLevel; level++) {
+			for (SSTMetaInfo table : metaInfo.get(level).getTables()) {
+				largest = Math.max(largest, table.getLargestSequence());
+			}
+		}
+		return largest;
+	}
+
+	public synchronized void serialize() {
 		ObjectNode node = mapper.createObjectNode();
 		for (int level = 0; level < maxLevel; level++) {
 			LevelMetaInfo levelMetaInfo = metaInfo.get(level);
@@ -123,6 +239,7 @@ public class MetaInfo {
 				node.set(String.valueOf(level), serialized);
 			}
 		}
+		node.set("vlog", vLogMetaInfo.serialize(mapper));
 		try (FileWriter fileWriter = new FileWriter(metaFileLocation)) {
 			String prettyString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(node);
 			fileWriter.write(prettyString);
@@ -137,20 +254,29 @@ public class MetaInfo {
 		int maxLevel = Integer.parseInt(Options.MaxLevel.getValue());
 		File file = new File(metaFile);
 		try {
-			MetaInfo metaInfo = new MetaInfo();
+			MetaInfo metaInfo = new MetaInfo(metaFile);
 			JsonNode jsonObject = mapper.readTree(file);
 			for (int level = 0; level < maxLevel; level++) {
-				JsonNode levelInfo = jsonObject.get(level);
+				JsonNode levelInfo = jsonObject.get(String.valueOf(level));
 				if (levelInfo != null) {
 					LevelMetaInfo levelMetaInfo = metaInfo.metaInfo.get(level);
-					Iterator<JsonNode> elements = levelInfo.elements();
-					while (elements.hasNext()) {
-						JsonNode node = elements.next();
+					// Tables are serialized from newest to oldest
+					List<JsonNode> nodes = new ArrayList<>();
+					levelInfo.elements().forEachRemaining(nodes::add);
+					Collections.reverse(nodes);
+					for (JsonNode node : nodes) {
 						SSTMetaInfo info = SSTMetaInfo.fromJSON(node);
+						// Opens the table, loading the index and the bloom filter
 						levelMetaInfo.addTable(info);
 					}
 				}
 			}
+			JsonNode vlog = jsonObject.get("vlog");
+			if (vlog != null) {
+				metaInfo.vLogMetaInfo.deserialize(vlog);
+			}
+			// Levels over their thresholds before the restart must not wait for a flush
+			metaInfo.compactionScheduler.maybeSchedule();
 			return metaInfo;
 		}
 		catch (IOException e) {
@@ -158,6 +284,15 @@ public class MetaInfo {
 		}
 	}
 
+	/**
+	 * Wait for the running compactions and stop the compaction threads.
+	 */
+	@Override
+	public void close() {
+		compactionScheduler.close();
+		compact.close();
+	}
+
 	private void checkSST(SSTMetaInfo sst) {
 		if (sst == null || sst.getLevel() >= maxLevel) {
 			throw new RuntimeException("Error sst be added!, info: " + (sst == null ? "null" : sst));
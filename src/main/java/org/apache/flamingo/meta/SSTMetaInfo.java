@@ -1,20 +1,19 @@
 package org.apache.flamingo.meta;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.bean.SLNode;
 import org.apache.flamingo.core.Context;
 import org.apache.flamingo.file.FileUtil;
+import org.apache.flamingo.sstable.SSTReader;
 import org.apache.flamingo.utils.Pair;
 import org.apache.flamingo.utils.StringUtil;
 
-import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Arrays;
 
 @Slf4j
 @Data
@@ -44,12 +43,35 @@ public class SSTMetaInfo {
 
 	private long count = 0;
 
+	/**
+	 * Bytes of the sst file, drives the level targets and the choice of the table to
+	 * compact.
+	 */
+	private long fileSize;
+
+	/**
+	 * Largest sequence number of the records, restores the sequence counter on restart.
+	 */
+	private long largestSequence;
+
+	/**
+	 * Time the table was written, FIFO compaction drops level 0 tables in this order.
+	 */
+	@Builder.Default
 	private long createTime = System.currentTimeMillis();
 
+	@JsonIgnore
+	private volatile SSTReader reader;
+
 	public SSTMetaInfo() {
+		this.createTime = System.currentTimeMillis();
 	}
 
 	public void delete() {
+		if (reader != null) {
+			// Running lookups keep the reader alive until they finish
+			reader.close();
+		}
 		FileUtil.deleteFile(fileName);
 	}
 
@@ -60,22 +82,29 @@ public class SSTMetaInfo {
 		return null;
 	}
 
-	public static SSTMetaInfo fromJSON(JsonNode node) {
+	public static SSTMetaInfo fromJSON(JsonNode node) throws IOException {
 		String fileName = node.get("fileName").asText();
 		int level = node.get("level").asInt();
 		String id = node.get("id").asText();
-		String minimumValue = node.get("minimumValue").asText();
-		String maximumValue = node.get("maximumValue").asText();
+		// byte[] is serialized as base64 text
+		byte[] minimumValue = node.get("minimumValue").binaryValue();
+		byte[] maximumValue = node.get("maximumValue").binaryValue();
 		long count = node.get("count").asLong();
 		long createTime = node.get("createTime").asLong();
+		// Missing in meta files written before sequence numbers were persisted
+		long largestSequence = node.has("largestSequence") ? node.get("largestSequence").asLong() : 0;
+		// Missing in meta files written before file sizes were persisted
+		long fileSize = node.has("fileSize") ? node.get("fileSize").asLong() : new File(fileName).length();
 		return SSTMetaInfo.builder()
 			.fileName(fileName)
 			.level(level)
 			.id(id)
-			.minimumValue(StringUtil.fromString(minimumValue))
-			.maximumValue(StringUtil.fromString(maximumValue))
+			.minimumValue(minimumValue)
+			.maximumValue(maximumValue)
 			.count(count)
+			.fileSize(fileSize)
 			.createTime(createTime)
+			.largestSequence(largestSequence)
 			.build();
 	}
 
@@ -84,37 +113,69 @@ public class SSTMetaInfo {
 		return "SSTableInfo [fileName=" + fileName + ", level=" + level + "]";
 	}
 
+	/**
+	 * @return false if no key of the table starts with the prefix, judged by the key
+	 * range and the prefix bloom filter
+	 */
+	public boolean mayContainPrefix(byte[] prefix) {
+		// The key range is checked first, the prefix filter catches tables whose range
+		// covers the prefix without containing it
+		if (StringUtil.compareByteArrays(maximumValue, prefix) < 0) {
+			return false;
+		}
+		if (StringUtil.compareByteArrays(minimumValue, prefix) > 0 && !StringUtil.startsWith(minimumValue, prefix)) {
+			return false;
+		}
+		return getReader().mayContainPrefix(prefix);
+	}
+
 	/**
 	 * @param key search key
 	 * @return f0: value, f1: find
 	 */
 	public Pair<byte[], Boolean> search(byte[] key) {
-		try (InputStream inputStream = Files.newInputStream(Paths.get(fileName));
-				DataInputStream reader = new DataInputStream(inputStream)) {
-			while (reader.available() > 0) {
-				byte b = reader.readByte();
-				boolean delFlag = b == (byte) 1;
-				int kl = reader.readInt();
-				byte[] k = new byte[kl];
-				reader.readFully(k);
-				int vl = reader.readInt();
-				byte[] v = new byte[vl];
-				reader.readFully(v);
-				// Search
-				if (Arrays.equals(key, k)) {
-					if (delFlag) {
-						return Pair.of(null, true);
-					}
-					else {
-						return Pair.of(v, true);
-					}
-				}
-			}
+		SLNode node = get(key);
+		if (node == null) {
 			return Pair.of(null, false);
 		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
+		// Null for tombstones, kv separated values come from the value log
+		return Pair.of(Context.getInstance().getVLogReader().resolve(node), true);
+	}
+
+	/**
+	 * @return the entry of the key as stored, tombstones included, null if the table does
+	 * not hold the key
+	 */
+	public SLNode get(byte[] key) {
+		SSTReader current = getReader();
+		if (!current.retain()) {
+			// Deleted by a compaction, the data lives in the next level now
+			return null;
+		}
+		try {
+			return current.get(key);
+		}
+		finally {
+			current.release();
+		}
+	}
+
+	/**
+	 * The reader is opened when the table is registered to a level (or lazily on first
+	 * access) and shared by all lookups.
+	 */
+	public SSTReader getReader() {
+		SSTReader current = reader;
+		if (current == null) {
+			synchronized (this) {
+				current = reader;
+				if (current == null) {
+					current = new SSTReader(fileName);
+					reader = current;
+				}
+			}
 		}
+		return current;
 	}
 
 }
@@ -0,0 +1,168 @@
+package org.apache.flamingo.meta;
+
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks compactions of the universal style, as the RocksDB universal compaction. Every
+ * level 0 table and every non-empty level below is one sorted run, newest first. Runs are
+ * merged only when there are at least level0_file_num_compaction_trigger of them, so most
+ * data is rewritten far less often than in the leveled style.
+ * <p>
+ * The triggers are tried in order:
+ * <ol>
+ * <li>size amplification: the newer runs hold universal_max_size_amplification_percent of
+ * the bytes of the oldest one, every run is merged</li>
+ * <li>size ratio: newer runs of similar size, each at most universal_size_ratio percent
+ * larger than the runs before it together</li>
+ * <li>run count: more runs than the trigger, the newest ones, just enough to get back to
+ * the trigger</li>
+ * </ol>
+ * The output is one run on a level below level 0, in the deepest free level above the
+ * next older run. Level 0 is searched newest table first, so once a level 0 table is
+ * picked all older level 0 tables are merged with it.
+ */
+class UniversalCompactionPicker {
+
+	private final MetaInfo metaInfo;
+
+	private final int runCountTrigger;
+
+	private final int sizeRatio;
+
+	private final int minMergeWidth;
+
+	private final int maxSizeAmplificationPercent;
+
+	UniversalCompactionPicker(MetaInfo metaInfo) {
+		this.metaInfo = metaInfo;
+		this.runCountTrigger = Integer.parseInt(Options.Level0FileNumCompactionTrigger.getValue());
+		this.sizeRatio = Integer.parseInt(Options.UniversalSizeRatio.getValue());
+		this.minMergeWidth = Math.max(2, Integer.parseInt(Options.UniversalMinMergeWidth.getValue()));
+		this.maxSizeAmplificationPercent = Integer.parseInt(Options.UniversalMaxSizeAmplificationPercent.getValue());
+	}
+
+	/**
+	 * @return f0: the runs to merge, newest first, f1: level of the output. Null if no
+	 * trigger fires
+	 */
+	Pair<List<List<SSTMetaInfo>>, Integer> pick() {
+		List<SortedRun> runs = sortedRuns();
+		if (runs.size() < Math.max(runCountTrigger, 2)) {
+			return null;
+		}
+		int end = pickSizeAmplification(runs);
+		int start = 0;
+		if (end < 0) {
+			int[] similar = pickSizeRatio(runs);
+			if (similar != null) {
+				start = similar[0];
+				end = similar[1];
+			}
+		}
+		if (end < 0) {
+			if (runs.size() <= runCountTrigger) {
+				return null;
+			}
+			end = Math.min(runs.size(), Math.max(minMergeWidth, runs.size() - runCountTrigger + 1));
+		}
+		return toCompaction(runs, start, end);
+	}
+
+	/**
+	 * @return end of the runs to merge from the newest one, -1 if the size amplification
+	 * is fine
+	 */
+	private int pickSizeAmplification(List<SortedRun> runs) {
+		long newer = 0;
+		for (int i = 0; i < runs.size() - 1; i++) {
+			newer += runs.get(i).bytes;
+		}
+		long oldest = runs.get(runs.size() - 1).bytes;
+		return newer * 100 >= oldest * maxSizeAmplificationPercent ? runs.size() : -1;
+	}
+
+	/**
+	 * @return start and end of the first series of similar runs, null if there is none
+	 */
+	private int[] pickSizeRatio(List<SortedRun> runs) {
+		for (int start = 0; start < runs.size() - 1; start++) {
+			long total = runs.get(start).bytes;
+			int end = start + 1;
+			while (end < runs.size() && runs.get(end).bytes * 100 <= total * (100 + sizeRatio)) {
+				total += runs.get(end).bytes;
+				end++;
+			}
+			if (end - start >= minMergeWidth) {
+				return new int[] { start, end };
+			}
+		}
+		return null;
+	}
+
+	private Pair<List<List<SSTMetaInfo>>, Integer> toCompaction(List<SortedRun> runs, int start, int end) {
+		if (runs.get(start).level == 0) {
+			// Older level 0 tables would hide the merged keys once they are below level 0
+			while (end < runs.size() && runs.get(end).level == 0) {
+				end++;
+			}
+		}
+		int targetLevel;
+		if (runs.get(end - 1).level > 0) {
+			targetLevel = runs.get(end - 1).level;
+		}
+		else if (end == runs.size()) {
+			targetLevel = metaInfo.getMaxLevel() - 1;
+		}
+		else if (runs.get(end).level > 1) {
+			targetLevel = runs.get(end).level - 1;
+		}
+		else {
+			// No free level between level 0 and level 1, merge level 1 as well
+			targetLevel = 1;
+			end++;
+		}
+		List<List<SSTMetaInfo>> picked = new ArrayList<>();
+		for (int i = start; i < end; i++) {
+			picked.add(runs.get(i).tables);
+		}
+		return Pair.of(picked, targetLevel);
+	}
+
+	private List<SortedRun> sortedRuns() {
+		List<SortedRun> runs = new ArrayList<>();
+		// Level 0 in search order, newest table first
+		for (SSTMetaInfo table : metaInfo.getLevelMetaInfo(0).getTables()) {
+			List<SSTMetaInfo> tables = new ArrayList<>();
+			tables.add(table);
+			runs.add(new SortedRun(0, tables));
+		}
+		for (int level = 1; level < metaInfo.getMaxLevel(); level++) {
+			List<SSTMetaInfo> tables = metaInfo.getLevelMetaInfo(level).getTables();
+			if (!tables.isEmpty()) {
+				runs.add(new SortedRun(level, tables));
+			}
+		}
+		return runs;
+	}
+
+	private static final class SortedRun {
+
+		private final int level;
+
+		private final List<SSTMetaInfo> tables;
+
+		private final long bytes;
+
+		private SortedRun(int level, List<SSTMetaInfo> tables) {
+			this.level = level;
+			this.tables = tables;
+			this.bytes = tables.stream().mapToLong(SSTMetaInfo::getFileSize).sum();
+		}
+
+	}
+
+}
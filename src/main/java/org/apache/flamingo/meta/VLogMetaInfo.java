@@ -0,0 +1,108 @@
+package org.apache.flamingo.meta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Live and garbage bytes of the value log files whose memory table has been flushed, the
+ * input of the value log garbage collection.
+ * <p>
+ * A file starts with the kv separated records its sstable references as live bytes.
+ * Everything else in it (inline values, tombstones, overwritten versions) is garbage from
+ * the start, those records live on in the sstable or nowhere. Compactions move the
+ * separated records they drop to the garbage.
+ */
+public class VLogMetaInfo {
+
+	private final ConcurrentHashMap<Long, FileStats> files = new ConcurrentHashMap<>();
+
+	public void addFile(long fileId, long totalBytes, long liveBytes) {
+		files.put(fileId, new FileStats(fileId, totalBytes, liveBytes));
+	}
+
+	/**
+	 * A record of the file is no longer referenced. Unknown files, such as the ones of
+	 * memory tables not flushed yet or already collected, are ignored.
+	 */
+	public void addGarbage(long fileId, long bytes) {
+		FileStats stats = files.get(fileId);
+		if (stats != null) {
+			stats.liveBytes.accumulateAndGet(bytes, (live, dropped) -> Math.max(0, live - dropped));
+		}
+	}
+
+	public void removeFile(long fileId) {
+		files.remove(fileId);
+	}
+
+	public FileStats getFile(long fileId) {
+		return files.get(fileId);
+	}
+
+	/**
+	 * @return files whose garbage ratio reaches the threshold, the most garbage first
+	 */
+	public List<FileStats> pickFiles(double minGarbageRatio) {
+		return files.values()
+			.stream()
+			.filter(stats -> stats.getGarbageRatio() >= minGarbageRatio)
+			.sorted(Comparator.comparingDouble(FileStats::getGarbageRatio).reversed())
+			.collect(Collectors.toList());
+	}
+
+	public ArrayNode serialize(ObjectMapper mapper) {
+		ArrayNode arrayNode = mapper.createArrayNode();
+		List<FileStats> sorted = new ArrayList<>(files.values());
+		sorted.sort(Comparator.comparingLong(FileStats::getFileId));
+		for (FileStats stats : sorted) {
+			ObjectNode node = arrayNode.addObject();
+			node.put("fileId", stats.getFileId());
+			node.put("totalBytes", stats.getTotalBytes());
+			node.put("liveBytes", stats.getLiveBytes());
+		}
+		return arrayNode;
+	}
+
+	public void deserialize(JsonNode arrayNode) {
+		arrayNode.elements()
+			.forEachRemaining(node -> addFile(node.get("fileId").asLong(), node.get("totalBytes").asLong(),
+					node.get("liveBytes").asLong()));
+	}
+
+	public static class FileStats {
+
+		@Getter
+		private final long fileId;
+
+		@Getter
+		private final long totalBytes;
+
+		private final AtomicLong liveBytes;
+
+		private FileStats(long fileId, long totalBytes, long liveBytes) {
+			this.fileId = fileId;
+			this.totalBytes = totalBytes;
+			this.liveBytes = new AtomicLong(liveBytes);
+		}
+
+		public long getLiveBytes() {
+			return liveBytes.get();
+		}
+
+		public double getGarbageRatio() {
+			return totalBytes == 0 ? 1.0 : 1.0 - (double) getLiveBytes() / totalBytes;
+		}
+
+	}
+
+}
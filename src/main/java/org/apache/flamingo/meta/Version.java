@@ -0,0 +1,165 @@
+package org.apache.flamingo.meta;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The sstables of every level at one point in time, as in the LevelDB version. The
+ * readers of the tables are retained, so a compaction may replace and delete them while
+ * the version still reads them. Must be released.
+ */
+public class Version implements AutoCloseable {
+
+	private final SSTMetaInfo[][] levels;
+
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	Version(SSTMetaInfo[][] levels) {
+		this.levels = levels;
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * @return tables of the level in search order: level 0 newest first, the other levels
+	 * by minimum key
+	 */
+	public SSTMetaInfo[] getTables(int level) {
+		return levels[level];
+	}
+
+	/**
+	 * @return f0: value, f1: whether the key was found, a tombstone counts as found
+	 */
+	public Pair<byte[], Boolean> search(byte[] key) {
+		for (int level = 0; level < levels.length; level++) {
+			Pair<byte[], Boolean> pair = LevelMetaInfo.search(level, levels[level], key);
+			if (pair.getF1()) {
+				return pair;
+			}
+		}
+		return Pair.of(null, false);
+	}
+
+	/**
+	 * @return the newest entry of the key as stored, tombstones included, null if no
+	 * table holds the key
+	 */
+	public SLNode get(byte[] key) {
+		for (int level = 0; level < levels.length; level++) {
+			SLNode node = LevelMetaInfo.get(level, levels[level], key);
+			if (node != null) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Look up many keys level by level. A table is read once for all the keys it may
+	 * hold: level 0 tables one after another from the newest, the tables of a deeper
+	 * level independently of each other, on the executor if there is one.
+	 * @param keys sorted distinct keys
+	 * @param found entries already found, filled in where a table holds the key,
+	 * tombstones included
+	 * @param executor null to read on the calling thread
+	 */
+	public void multiGet(byte[][] keys, SLNode[] found, Executor executor) {
+		for (int level = 0; level < levels.length; level++) {
+			if (level == 0) {
+				for (SSTMetaInfo table : levels[0]) {
+					multiGet(table, pending(keys, found, table), keys, found);
+				}
+				continue;
+			}
+			// Tables of a deeper level are sorted and do not overlap, so the sorted keys
+			// of one table are adjacent
+			SSTMetaInfo[] tables = levels[level];
+			List<Pair<SSTMetaInfo, List<Integer>>> groups = new ArrayList<>();
+			for (int i = 0; i < keys.length; i++) {
+				if (found[i] != null) {
+					continue;
+				}
+				SSTMetaInfo table = LevelMetaInfo.findTable(tables, keys[i]);
+				if (table == null) {
+					continue;
+				}
+				if (groups.isEmpty() || groups.get(groups.size() - 1).getF0() != table) {
+					groups.add(Pair.of(table, new ArrayList<>()));
+				}
+				groups.get(groups.size() - 1).getF1().add(i);
+			}
+			if (executor == null || groups.size() < 2) {
+				for (Pair<SSTMetaInfo, List<Integer>> group : groups) {
+					multiGet(group.getF0(), group.getF1(), keys, found);
+				}
+				continue;
+			}
+			// Every task fills distinct slots, joining publishes them
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[groups.size()];
+			for (int i = 0; i < futures.length; i++) {
+				Pair<SSTMetaInfo, List<Integer>> group = groups.get(i);
+				futures[i] = CompletableFuture.runAsync(() -> multiGet(group.getF0(), group.getF1(), keys, found),
+						executor);
+			}
+			CompletableFuture.allOf(futures).join();
+		}
+	}
+
+	/**
+	 * @return indexes of the keys not found yet that lie in the range of the table
+	 */
+	private static List<Integer> pending(byte[][] keys, SLNode[] found, SSTMetaInfo table) {
+		List<Integer> pending = new ArrayList<>();
+		for (int i = 0; i < keys.length; i++) {
+			if (found[i] == null && LevelMetaInfo.inRange(table, keys[i])) {
+				pending.add(i);
+			}
+		}
+		return pending;
+	}
+
+	private static void multiGet(SSTMetaInfo table, List<Integer> indexes, byte[][] keys, SLNode[] found) {
+		if (indexes.isEmpty()) {
+			return;
+		}
+		byte[][] probe = new byte[indexes.size()][];
+		for (int i = 0; i < probe.length; i++) {
+			probe[i] = keys[indexes.get(i)];
+		}
+		SLNode[] nodes = table.getReader().multiGet(probe);
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i] != null) {
+				found[indexes.get(i)] = nodes[i];
+			}
+		}
+	}
+
+	/**
+	 * Drop the references on the readers, idempotent.
+	 */
+	public void release() {
+		if (!released.compareAndSet(false, true)) {
+			return;
+		}
+		for (SSTMetaInfo[] tables : levels) {
+			for (SSTMetaInfo table : tables) {
+				table.getReader().release();
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		release();
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.apache.flamingo.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide engine counters.
+ */
+public class Statistics {
+
+	private static final Statistics INSTANCE = new Statistics();
+
+	private final AtomicLongArray tickers = new AtomicLongArray(Ticker.values().length);
+
+	private Statistics() {
+	}
+
+	public static Statistics getInstance() {
+		return INSTANCE;
+	}
+
+	public void record(Ticker ticker) {
+		record(ticker, 1);
+	}
+
+	public void record(Ticker ticker, long count) {
+		tickers.addAndGet(ticker.ordinal(), count);
+	}
+
+	public long get(Ticker ticker) {
+		return tickers.get(ticker.ordinal());
+	}
+
+	/**
+	 * False positives over all probes of keys that were not in the table.
+	 */
+	public double getBloomFilterFalsePositiveRate() {
+		long falsePositive = get(Ticker.BLOOM_FILTER_FALSE_POSITIVE);
+		long negative = falsePositive + get(Ticker.BLOOM_FILTER_USEFUL);
+		return negative == 0 ? 0 : (double) falsePositive / negative;
+	}
+
+	public void reset() {
+		for (int i = 0; i < tickers.length(); i++) {
+			tickers.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("Statistics{");
+		for (Ticker ticker : Ticker.values()) {
+			builder.append(ticker.name()).append('=').append(get(ticker)).append(", ");
+		}
+		builder.append("BLOOM_FILTER_FALSE_POSITIVE_RATE=").append(getBloomFilterFalsePositiveRate());
+		return builder.append('}').toString();
+	}
+
+}
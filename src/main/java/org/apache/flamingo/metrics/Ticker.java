@@ -0,0 +1,144 @@
+package org.apache.flamingo.metrics;
+
+/**
+ * Counters recorded by {@link Statistics}.
+ */
+public enum Ticker {
+
+	/**
+	 * The bloom filter ruled the key out, no block was read.
+	 */
+	BLOOM_FILTER_USEFUL,
+
+	/**
+	 * The bloom filter passed the key and the table contained it.
+	 */
+	BLOOM_FILTER_TRUE_POSITIVE,
+
+	/**
+	 * The bloom filter passed the key but the table did not contain it.
+	 */
+	BLOOM_FILTER_FALSE_POSITIVE,
+
+	/**
+	 * The prefix bloom filter ruled an sstable out of a prefix scan.
+	 */
+	PREFIX_FILTER_USEFUL,
+
+	/**
+	 * A data block was served from the block cache.
+	 */
+	BLOCK_CACHE_HIT,
+
+	/**
+	 * A data block had to be read from the file.
+	 */
+	BLOCK_CACHE_MISS,
+
+	/**
+	 * A data block was inserted into the block cache.
+	 */
+	BLOCK_CACHE_ADD,
+
+	/**
+	 * A data block was evicted to stay within the cache capacity.
+	 */
+	BLOCK_CACHE_EVICT,
+
+	/**
+	 * A write was delayed because level 0 reached the slowdown trigger.
+	 */
+	STALL_SLOWDOWN_WRITES,
+
+	/**
+	 * A write was blocked until a flush or compaction made room.
+	 */
+	STALL_STOP_WRITES,
+
+	/**
+	 * Microseconds writers spent delayed or blocked.
+	 */
+	STALL_MICROS,
+
+	/**
+	 * Compactions finished by the background scheduler.
+	 */
+	COMPACTIONS,
+
+	/**
+	 * Time spent in compactions.
+	 */
+	COMPACTION_MICROS,
+
+	/**
+	 * Key ranges merged in parallel by the compactions that were split.
+	 */
+	SUBCOMPACTIONS,
+
+	/**
+	 * Bytes of the sstables written by memory table flushes.
+	 */
+	FLUSH_WRITE_BYTES,
+
+	/**
+	 * Bytes of the sstables written by compactions, over FLUSH_WRITE_BYTES it is the
+	 * write amplification of the compactions.
+	 */
+	COMPACTION_WRITE_BYTES,
+
+	/**
+	 * Tables dropped whole by the FIFO compaction.
+	 */
+	FIFO_DELETED_TABLES,
+
+	/**
+	 * Group commits of the value log, each is one write.
+	 */
+	VLOG_BATCHES,
+
+	/**
+	 * Write requests served by value log group commits.
+	 */
+	VLOG_BATCHED_WRITES,
+
+	/**
+	 * Value log fsyncs.
+	 */
+	VLOG_SYNCS,
+
+	/**
+	 * Values read from the value log to resolve a kv separated record.
+	 */
+	VLOG_READS,
+
+	/**
+	 * Value log files opened by the reader, misses of its file handle cache.
+	 */
+	VLOG_FILE_OPENS,
+
+	/**
+	 * Kv separated records fetched by a read shared with neighbouring records.
+	 */
+	VLOG_COALESCED_RECORDS,
+
+	/**
+	 * Values an iterator read ahead of its position.
+	 */
+	VLOG_PREFETCHED_VALUES,
+
+	/**
+	 * Value log files rewritten by the garbage collection.
+	 */
+	VLOG_GC_FILES,
+
+	/**
+	 * Live records the garbage collection moved to the active value log.
+	 */
+	VLOG_GC_RELOCATED_RECORDS,
+
+	/**
+	 * Value log files deleted after the garbage collection rewrote them.
+	 */
+	VLOG_GC_DELETED_FILES
+
+}
@@ -21,10 +21,11 @@ public class Options {
 
 	public static Option DataDir = Option.builder().key("data_dir").value("data").doc("data dir").build();
 
-	public static Option MemoryTableThresholdSize = Option.builder()
-		.key("memory_table_threshold_size")
-		.value(String.valueOf(3000))
-		.doc("The memory table threshold size.")
+	public static Option MemoryTableThresholdBytes = Option.builder()
+		.key("memory_table_threshold_bytes")
+		.value(String.valueOf(4 * 1024 * 1024))
+		.doc("The active memory table is switched and flushed once its approximate memory usage "
+				+ "(keys, values and node overhead) exceeds this many bytes.")
 		.build();
 
 	public static Option SSTableMaxSize = Option.builder()
@@ -45,12 +46,244 @@ public class Options {
 		.doc("Max Value Size")
 		.build();
 
+	public static Option BlockSize = Option.builder()
+		.key("block_size")
+		.value(String.valueOf(4 * 1024))
+		.doc("Target size in bytes of each data block in an sstable.")
+		.build();
+
+	public static Option BloomFilterBitsPerKey = Option.builder()
+		.key("bloom_filter_bits_per_key")
+		.value(String.valueOf(10))
+		.doc("Bits per key of the bloom filter built for every sstable, 0 disables the filter.")
+		.build();
+
+	public static Option PrefixExtractor = Option.builder()
+		.key("prefix_extractor")
+		.value("")
+		.doc("Prefixes indexed by a second bloom filter of every sstable, so prefix scans skip tables: "
+				+ "fixed:<n> (the first n bytes), delimiter:<c> (every prefix ending with the character c) "
+				+ "or empty for none.")
+		.build();
+
+	public static Option MultiGetThreads = Option.builder()
+		.key("multi_get_threads")
+		.value(String.valueOf(0))
+		.doc("Threads reading the sstables of one level in parallel during a multi get, 0 reads on the calling thread.")
+		.build();
+
+	public static Option BlockCacheSize = Option.builder()
+		.key("block_cache_size")
+		.value(String.valueOf(8 * 1024 * 1024))
+		.doc("Capacity in bytes of the block cache shared by all sstables, 0 disables the cache.")
+		.build();
+
+	public static Option BlockCacheShardBits = Option.builder()
+		.key("block_cache_shard_bits")
+		.value(String.valueOf(4))
+		.doc("The block cache is split into 2^block_cache_shard_bits shards.")
+		.build();
+
+	public static Option UseMmapReads = Option.builder()
+		.key("use_mmap_reads")
+		.value(String.valueOf(false))
+		.doc("Map every sstable into memory once and serve reads from the mapping.")
+		.build();
+
+	public static Option MaxImmutableMemoryTables = Option.builder()
+		.key("max_immutable_memory_tables")
+		.value(String.valueOf(2))
+		.doc("Writers block while this many full memory tables are waiting to be flushed.")
+		.build();
+
+	public static Option Level0FileNumCompactionTrigger = Option.builder()
+		.key("level0_file_num_compaction_trigger")
+		.value(String.valueOf(3))
+		.doc("Level 0 is compacted once it has this many sstables.")
+		.build();
+
+	public static Option MaxBytesForLevelBase = Option.builder()
+		.key("max_bytes_for_level_base")
+		.value(String.valueOf(10 * 1024 * 1024))
+		.doc("Target size in bytes of level 1, a level over its target is compacted into the next one.")
+		.build();
+
+	public static Option MaxBytesForLevelMultiplier = Option.builder()
+		.key("max_bytes_for_level_multiplier")
+		.value(String.valueOf(10))
+		.doc("Every level below level 1 targets this many times the bytes of the level above.")
+		.build();
+
+	public static Option CompactionStyle = Option.builder()
+		.key("compaction_style")
+		.value("level")
+		.doc("level: every level is merged into the next one once over its target, few sorted runs for reads. "
+				+ "universal: the sorted runs, level 0 tables and whole levels, are merged only when the universal "
+				+ "triggers fire, less rewriting for write heavy workloads. fifo: tables stay on level 0 and are "
+				+ "dropped whole, oldest first, by fifo_ttl_seconds and fifo_max_table_files_size, nothing is "
+				+ "rewritten.")
+		.build();
+
+	public static Option FifoTtlSeconds = Option.builder()
+		.key("fifo_ttl_seconds")
+		.value(String.valueOf(0))
+		.doc("fifo: tables written this many seconds ago are dropped, 0 keeps them.")
+		.build();
+
+	public static Option FifoMaxTableFilesSize = Option.builder()
+		.key("fifo_max_table_files_size")
+		.value(String.valueOf(1024L * 1024 * 1024))
+		.doc("fifo: the oldest tables are dropped while level 0 holds more bytes than this, 0 for no cap.")
+		.build();
+
+	public static Option UniversalSizeRatio = Option.builder()
+		.key("universal_size_ratio")
+		.value(String.valueOf(1))
+		.doc("universal: a run joins the newer runs picked so far while it is at most this many percent larger "
+				+ "than their total.")
+		.build();
+
+	public static Option UniversalMinMergeWidth = Option.builder()
+		.key("universal_min_merge_width")
+		.value(String.valueOf(2))
+		.doc("universal: fewest sorted runs merged at once.")
+		.build();
+
+	public static Option UniversalMaxSizeAmplificationPercent = Option.builder()
+		.key("universal_max_size_amplification_percent")
+		.value(String.valueOf(200))
+		.doc("universal: every run is merged into one once the newer runs hold this many percent of the bytes "
+				+ "of the oldest one.")
+		.build();
+
+	public static Option CompactionPri = Option.builder()
+		.key("compaction_pri")
+		.value("min_overlapping_ratio")
+		.doc("Table of a level above level 0 picked for compaction. min_overlapping_ratio: the table with the "
+				+ "fewest overlapping bytes in the next level per own byte. round_robin: the table after the one "
+				+ "compacted last, in key order.")
+		.build();
+
+	public static Option Level0SlowdownWritesTrigger = Option.builder()
+		.key("level0_slowdown_writes_trigger")
+		.value(String.valueOf(20))
+		.doc("Every write is delayed by slowdown_write_delay_micros once level 0 has this many sstables.")
+		.build();
+
+	public static Option Level0StopWritesTrigger = Option.builder()
+		.key("level0_stop_writes_trigger")
+		.value(String.valueOf(36))
+		.doc("Writes block once level 0 has this many sstables.")
+		.build();
+
+	public static Option SlowdownWriteDelayMicros = Option.builder()
+		.key("slowdown_write_delay_micros")
+		.value(String.valueOf(1000))
+		.doc("Delay in microseconds of a write when level 0 reached level0_slowdown_writes_trigger.")
+		.build();
+
+	public static Option MaxBackgroundCompactions = Option.builder()
+		.key("max_background_compactions")
+		.value(String.valueOf(2))
+		.doc("Threads running compactions in the background, compactions of disjoint tables and key ranges run "
+				+ "concurrently.")
+		.build();
+
+	public static Option MaxSubcompactions = Option.builder()
+		.key("max_subcompactions")
+		.value(String.valueOf(4))
+		.doc("Key ranges one compaction is split into at most, merged in parallel. A range gets at least "
+				+ "sstable_max_size entries, 1 merges every compaction on one thread.")
+		.build();
+
+	public static Option VLogSyncMode = Option.builder()
+		.key("vlog_sync_mode")
+		.value("none")
+		.doc("When the value log is forced to disk: none (left to the operating system), "
+				+ "batch (after every group commit, before writers return) or periodic (every vlog_sync_interval_millis).")
+		.build();
+
+	public static Option VLogSyncIntervalMillis = Option.builder()
+		.key("vlog_sync_interval_millis")
+		.value(String.valueOf(1000))
+		.doc("Interval of the value log fsync in periodic vlog_sync_mode.")
+		.build();
+
+	public static Option VLogReaderMaxOpenFiles = Option.builder()
+		.key("vlog_reader_max_open_files")
+		.value(String.valueOf(64))
+		.doc("Value log files the reader keeps open, the least recently read one is closed beyond that.")
+		.build();
+
+	public static Option ScanPrefetchEntries = Option.builder()
+		.key("scan_prefetch_entries")
+		.value(String.valueOf(0))
+		.doc("Entries a forward iterator looks ahead, their kv separated values are read together before they are "
+				+ "asked for. 0 reads every value on demand.")
+		.build();
+
+	public static Option ScanPrefetchThreads = Option.builder()
+		.key("scan_prefetch_threads")
+		.value(String.valueOf(0))
+		.doc("Threads reading the prefetched values of iterators in parallel, 0 reads on the calling thread.")
+		.build();
+
+	public static Option VLogGCIntervalMillis = Option.builder()
+		.key("vlog_gc_interval_millis")
+		.value(String.valueOf(60 * 1000))
+		.doc("Interval of the background value log garbage collection, 0 disables it.")
+		.build();
+
+	public static Option VLogGCGarbageRatio = Option.builder()
+		.key("vlog_gc_garbage_ratio")
+		.value(String.valueOf(0.5))
+		.doc("Value log files with at least this share of garbage bytes are rewritten by the garbage collection.")
+		.build();
+
+	public static Option VLogGCBytesPerSecond = Option.builder()
+		.key("vlog_gc_bytes_per_second")
+		.value(String.valueOf(16 * 1024 * 1024))
+		.doc("Read and write rate of the value log garbage collection, 0 for no limit.")
+		.build();
+
+	public static Option AsyncWrite = Option.builder()
+		.key("async_write")
+		.value(String.valueOf(false))
+		.doc("Queue adds and deletes on a Disruptor ring buffer and return at once, "
+				+ "a journal thread logs them in batches and a memtable thread applies them in order.")
+		.build();
+
+	public static Option RingBufferSize = Option.builder()
+		.key("ring_buffer_size")
+		.value(String.valueOf(64 * 1024))
+		.doc("Number of slots of the async_write ring buffer, must be a power of two. Producers block while it is full.")
+		.build();
+
+	public static Option MemTableRepType = Option.builder()
+		.key("memtable_rep")
+		.value("concurrent_skiplist")
+		.doc("Memory table implementation: concurrent_skiplist (lock-free, many writers) "
+				+ "or arena_skiplist (lock-free, entries packed into arena blocks).")
+		.build();
+
+	public static Option ArenaBlockSize = Option.builder()
+		.key("arena_block_size")
+		.value(String.valueOf(1024 * 1024))
+		.doc("Size in bytes of each block allocated by an arena_skiplist memory table, rounded up to a power of two.")
+		.build();
+
+	public static Option ArenaOffHeap = Option.builder()
+		.key("arena_off_heap")
+		.value(String.valueOf(true))
+		.doc("Allocate arena blocks as direct buffers outside the java heap.")
+		.build();
+
 	public static void setDataDir(String dataDir) {
 		DataDir.setValue(dataDir);
 	}
 
-	public static void setMemoryTableThresholdSize(int memoryTableThresholdSize) {
-		MemoryTableThresholdSize.setValue(String.valueOf(memoryTableThresholdSize));
+	public static void setMemoryTableThresholdBytes(long memoryTableThresholdBytes) {
+		MemoryTableThresholdBytes.setValue(String.valueOf(memoryTableThresholdBytes));
 	}
 
 	public static Options getInstance() {
@@ -0,0 +1,296 @@
+package org.apache.flamingo.reader;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.bean.VLogEntity;
+import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read side of the value log: resolves the {@link VLogAddress} of a kv separated record
+ * to its value, as in WiscKey.
+ * <p>
+ * A value is one positional read of the file. The read fetches a few KB at once, so the
+ * record header and a typical value arrive together and only larger values need a second
+ * read.
+ * <p>
+ * Open files are kept in an LRU cache bounded by vlog_reader_max_open_files. Handles are
+ * reference counted like the sst readers, so evicting a file never closes it under a
+ * running read.
+ */
+@Slf4j
+public class VLogReader implements AutoCloseable {
+
+	private static final int READ_AHEAD = 4 * 1024;
+
+	/**
+	 * Records of one file this close are fetched with one read, the bytes in between are
+	 * read and dropped.
+	 */
+	private static final int MAX_COALESCE_GAP = 4 * 1024;
+
+	/**
+	 * Upper bound of one coalesced read.
+	 */
+	private static final int MAX_COALESCED_READ = 256 * 1024;
+
+	private final int maxOpenFiles;
+
+	/**
+	 * File id to handle, in access order.
+	 */
+	private final LinkedHashMap<Long, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Statistics statistics = Statistics.getInstance();
+
+	public VLogReader(int maxOpenFiles) {
+		this.maxOpenFiles = Math.max(1, maxOpenFiles);
+	}
+
+	public static VLogReader fromOptions() {
+		return new VLogReader(Integer.parseInt(Options.VLogReaderMaxOpenFiles.getValue()));
+	}
+
+	/**
+	 * @return the value of the entry, read from the value log if the entry only holds its
+	 * address, null for tombstones
+	 */
+	public byte[] resolve(SLNode entry) {
+		if (entry.isDeleted()) {
+			return null;
+		}
+		if (entry.getValue() != null || !entry.isStoreMode()) {
+			return entry.getValue();
+		}
+		return checkKey(read(entry.getAddress()), entry).getValue();
+	}
+
+	private static VLogEntity checkKey(VLogEntity record, SLNode entry) {
+		if (!Arrays.equals(record.getKey(), entry.getKey())) {
+			throw new RuntimeException("Value log record at " + describe(entry.getAddress()) + " belongs to key "
+					+ StringUtil.fromBytes(record.getKey()) + ", expected " + StringUtil.fromBytes(entry.getKey()));
+		}
+		return record;
+	}
+
+	/**
+	 * Resolve many entries at once. The kv separated records are read in file and offset
+	 * order and records that lie close together in a file are fetched with one read, so
+	 * entries written one after another cost a single sequential read.
+	 * @return the values in the order of the entries, null for tombstones
+	 */
+	public List<byte[]> resolveAll(List<SLNode> entries) {
+		byte[][] values = new byte[entries.size()][];
+		List<Integer> separated = new ArrayList<>();
+		for (int i = 0; i < values.length; i++) {
+			SLNode entry = entries.get(i);
+			// Addresses written before the record size was stored are read one by one
+			if (entry.isDeleted() || entry.getValue() != null || !entry.isStoreMode()
+					|| entry.getAddress().getSize() <= 0) {
+				values[i] = resolve(entry);
+			}
+			else {
+				separated.add(i);
+			}
+		}
+		separated.sort(Comparator.comparing((Integer i) -> entries.get(i).getAddress().getFieldID())
+			.thenComparing(i -> entries.get(i).getAddress().getOffset()));
+		int runStart = 0;
+		while (runStart < separated.size()) {
+			VLogAddress first = entries.get(separated.get(runStart)).getAddress();
+			long end = first.getOffset() + first.getSize();
+			int runEnd = runStart + 1;
+			while (runEnd < separated.size()) {
+				VLogAddress next = entries.get(separated.get(runEnd)).getAddress();
+				long nextEnd = Math.max(end, next.getOffset() + next.getSize());
+				if (!next.getFieldID().equals(first.getFieldID()) || next.getOffset() - end > MAX_COALESCE_GAP
+						|| nextEnd - first.getOffset() > MAX_COALESCED_READ) {
+					break;
+				}
+				end = nextEnd;
+				runEnd++;
+			}
+			readRun(entries, separated.subList(runStart, runEnd), first.getOffset(), end, values);
+			runStart = runEnd;
+		}
+		return Arrays.asList(values);
+	}
+
+	/**
+	 * Read [start, end) of one file and decode the records of the entries from it.
+	 */
+	private void readRun(List<SLNode> entries, List<Integer> run, long start, long end, byte[][] values) {
+		long fileId = entries.get(run.get(0)).getAddress().getFieldID();
+		ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+		Handle handle = acquire(fileId);
+		try {
+			handle.read(buffer, start);
+		}
+		finally {
+			handle.release();
+		}
+		statistics.record(Ticker.VLOG_READS);
+		if (run.size() > 1) {
+			statistics.record(Ticker.VLOG_COALESCED_RECORDS, run.size());
+		}
+		for (int index : run) {
+			SLNode entry = entries.get(index);
+			VLogAddress address = entry.getAddress();
+			int position = (int) (address.getOffset() - start);
+			if (buffer.position() < position + address.getSize()) {
+				throw new RuntimeException("Value log record at " + describe(address) + " is truncated");
+			}
+			ByteBuffer record = ByteBuffer.wrap(buffer.array(), position, address.getSize()).slice();
+			VLogEntity entity = VLogEntity.deserialize(record);
+			values[index] = checkKey(entity, entry).getValue();
+		}
+	}
+
+	public VLogEntity read(VLogAddress address) {
+		Handle handle = acquire(address.getFieldID());
+		try {
+			long offset = address.getOffset();
+			ByteBuffer buffer = ByteBuffer.allocate(READ_AHEAD);
+			handle.read(buffer, offset);
+			if (buffer.position() < Integer.BYTES) {
+				throw new RuntimeException("Value log record at " + describe(address) + " is truncated");
+			}
+			int total = buffer.getInt(0);
+			if (total > buffer.position()) {
+				ByteBuffer record = ByteBuffer.allocate(total);
+				buffer.flip();
+				record.put(buffer);
+				handle.read(record, offset + record.position());
+				buffer = record;
+			}
+			if (buffer.position() < total) {
+				throw new RuntimeException("Value log record at " + describe(address) + " is truncated");
+			}
+			buffer.flip();
+			statistics.record(Ticker.VLOG_READS);
+			return VLogEntity.deserialize(buffer);
+		}
+		finally {
+			handle.release();
+		}
+	}
+
+	private Handle acquire(long fileId) {
+		synchronized (handles) {
+			Handle handle = handles.get(fileId);
+			if (handle == null) {
+				handle = new Handle(open(fileId));
+				handles.put(fileId, handle);
+				statistics.record(Ticker.VLOG_FILE_OPENS);
+				Iterator<Map.Entry<Long, Handle>> iterator = handles.entrySet().iterator();
+				while (handles.size() > maxOpenFiles) {
+					iterator.next().getValue().release();
+					iterator.remove();
+				}
+			}
+			// Handles leave the cache under this lock, so a cached one is still open
+			handle.refs.incrementAndGet();
+			return handle;
+		}
+	}
+
+	private static FileChannel open(long fileId) {
+		String fileName = NamedUtil.getValueFilePath(fileId);
+		try {
+			return FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Open value log " + fileName + " failed", e);
+		}
+	}
+
+	private static String describe(VLogAddress address) {
+		return address.getFieldID() + ":" + address.getOffset();
+	}
+
+	/**
+	 * Close the file if it is cached, used once the file has been deleted.
+	 */
+	public void evict(long fileId) {
+		synchronized (handles) {
+			Handle handle = handles.remove(fileId);
+			if (handle != null) {
+				handle.release();
+			}
+		}
+	}
+
+	/**
+	 * Close the cached files, the reader opens them again when needed.
+	 */
+	@Override
+	public void close() {
+		synchronized (handles) {
+			handles.values().forEach(Handle::release);
+			handles.clear();
+		}
+	}
+
+	private static final class Handle {
+
+		private final FileChannel channel;
+
+		/**
+		 * One for the cache, one for every running read.
+		 */
+		private final AtomicInteger refs = new AtomicInteger(1);
+
+		private Handle(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Fill the buffer from the position, or up to the end of the file.
+		 */
+		private void read(ByteBuffer buffer, long position) {
+			try {
+				while (buffer.hasRemaining()) {
+					int n = channel.read(buffer, position);
+					if (n < 0) {
+						return;
+					}
+					position += n;
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Read value log failed", e);
+			}
+		}
+
+		private void release() {
+			if (refs.decrementAndGet() == 0) {
+				try {
+					channel.close();
+				}
+				catch (IOException e) {
+					log.warn("Failed to close value log file", e);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,41 @@
+package org.apache.flamingo.sstable;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Location of a block inside an sst file.
+ * <p>
+ * [offset(8), size(4)]
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+public class BlockHandle {
+
+	public static final int ENCODED_LENGTH = 8 + 4;
+
+	private final long offset;
+
+	private final int size;
+
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.putLong(offset);
+		buffer.putInt(size);
+	}
+
+	public static BlockHandle decodeFrom(ByteBuffer buffer) {
+		long offset = buffer.getLong();
+		int size = buffer.getInt();
+		return new BlockHandle(offset, size);
+	}
+
+	@Override
+	public String toString() {
+		return "BlockHandle{" + "offset=" + offset + ", size=" + size + '}';
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.apache.flamingo.sstable;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter over the keys of one sst, using double hashing to derive the probe
+ * positions from a single 32 bit hash.
+ * <p>
+ * [bit_array, probe_count(1)]
+ */
+public class BloomFilter {
+
+	public static final String META_KEY = "filter.bloom";
+
+	/**
+	 * Prefix filters are named after their extractor.
+	 */
+	public static String prefixMetaKey(PrefixExtractor extractor) {
+		return "filter.prefix." + extractor.getName();
+	}
+
+	private final byte[] data;
+
+	private final int bits;
+
+	private final int probes;
+
+	public BloomFilter(byte[] data) {
+		this.data = data;
+		this.bits = (data.length - 1) * 8;
+		this.probes = data.length > 0 ? data[data.length - 1] : 0;
+	}
+
+	/**
+	 * @return false if the key is definitely not in the table
+	 */
+	public boolean mayContain(byte[] key) {
+		if (data.length < 2 || probes > 30) {
+			// Unknown or malformed filter, treat as a potential match
+			return true;
+		}
+		int h = hash(key);
+		int delta = (h >>> 17) | (h << 15);
+		for (int i = 0; i < probes; i++) {
+			int bit = (int) ((h & 0xFFFFFFFFL) % bits);
+			if ((data[bit >>> 3] & (1 << (bit & 7))) == 0) {
+				return false;
+			}
+			h += delta;
+		}
+		return true;
+	}
+
+	public int size() {
+		return data.length;
+	}
+
+	/**
+	 * Murmur style hash.
+	 */
+	public static int hash(byte[] key) {
+		final int m = 0xc6a4a793;
+		final int seed = 0xbc9f1d34;
+		int h = seed ^ (key.length * m);
+		int i = 0;
+		for (; i + 4 <= key.length; i += 4) {
+			int w = (key[i] & 0xFF) | (key[i + 1] & 0xFF) << 8 | (key[i + 2] & 0xFF) << 16 | (key[i + 3] & 0xFF) << 24;
+			h += w;
+			h *= m;
+			h ^= (h >>> 16);
+		}
+		int rest = key.length - i;
+		if (rest == 3) {
+			h += (key[i + 2] & 0xFF) << 16;
+		}
+		if (rest >= 2) {
+			h += (key[i + 1] & 0xFF) << 8;
+		}
+		if (rest >= 1) {
+			h += key[i] & 0xFF;
+			h *= m;
+			h ^= (h >>> 24);
+		}
+		return h;
+	}
+
+	public static class Builder {
+
+		private final int bitsPerKey;
+
+		private int[] hashes = new int[256];
+
+		private int count = 0;
+
+		public Builder(int bitsPerKey) {
+			this.bitsPerKey = bitsPerKey;
+		}
+
+		public void addKey(byte[] key) {
+			if (count == hashes.length) {
+				hashes = Arrays.copyOf(hashes, count * 2);
+			}
+			hashes[count++] = hash(key);
+		}
+
+		public byte[] finish() {
+			// k = ln(2) * bits_per_key minimizes the false positive rate
+			int probes = Math.max(1, Math.min(30, (int) (bitsPerKey * 0.69)));
+			int bits = Math.max(64, count * bitsPerKey);
+			int bytes = (bits + 7) / 8;
+			bits = bytes * 8;
+			byte[] data = new byte[bytes + 1];
+			data[bytes] = (byte) probes;
+			for (int i = 0; i < count; i++) {
+				int h = hashes[i];
+				int delta = (h >>> 17) | (h << 15);
+				for (int j = 0; j < probes; j++) {
+					int bit = (int) ((h & 0xFFFFFFFFL) % bits);
+					data[bit >>> 3] |= (byte) (1 << (bit & 7));
+					h += delta;
+				}
+			}
+			return data;
+		}
+
+	}
+
+}
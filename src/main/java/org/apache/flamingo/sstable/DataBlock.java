@@ -0,0 +1,85 @@
+package org.apache.flamingo.sstable;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A data block is a run of sorted records in the {@link SLNode#serialize(SLNode)} format.
+ * Blocks are small, so a lookup inside a block is a linear scan that compares keys in
+ * place and only decodes the matching record.
+ */
+public class DataBlock {
+
+	private static final int KEY_SIZE_OFFSET = 4 + 1 + 1;
+
+	private static final int KEY_OFFSET = KEY_SIZE_OFFSET + 4;
+
+	private final ByteBuffer data;
+
+	public DataBlock(ByteBuffer data) {
+		this.data = data;
+	}
+
+	public int limit() {
+		return data.limit();
+	}
+
+	public int size() {
+		return data.capacity();
+	}
+
+	public SLNode get(byte[] key) {
+		int position = 0;
+		while (position < data.limit()) {
+			int keySize = data.getInt(position + KEY_SIZE_OFFSET);
+			int cmp = StringUtil.compareByteArrays(data, position + KEY_OFFSET, keySize, key);
+			if (cmp == 0) {
+				return decode(position);
+			}
+			if (cmp > 0) {
+				// Records are sorted, the key can not appear later in this block
+				return null;
+			}
+			position = next(position);
+		}
+		return null;
+	}
+
+	/**
+	 * Compare the key of the record at the position with the key, in place.
+	 */
+	public int compareKey(int position, byte[] key) {
+		int keySize = data.getInt(position + KEY_SIZE_OFFSET);
+		return StringUtil.compareByteArrays(data, position + KEY_OFFSET, keySize, key);
+	}
+
+	/**
+	 * @return the start position of every record, in order
+	 */
+	public int[] positions() {
+		int count = 0;
+		for (int position = 0; position < data.limit(); position = next(position)) {
+			count++;
+		}
+		int[] positions = new int[count];
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			positions[i] = position;
+			position = next(position);
+		}
+		return positions;
+	}
+
+	public int next(int position) {
+		return position + data.getInt(position);
+	}
+
+	public SLNode decode(int position) {
+		ByteBuffer record = data.duplicate();
+		record.position(position);
+		return SLNode.deserialization(record);
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.apache.flamingo.sstable;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size footer at the tail of every sst file.
+ * <p>
+ * [meta_index_handle(12), index_handle(12), magic(8)]
+ */
+@Getter
+@AllArgsConstructor
+public class Footer {
+
+	public static final long MAGIC = 0x666C616D696E676FL; // "flamingo"
+
+	public static final int ENCODED_LENGTH = BlockHandle.ENCODED_LENGTH * 2 + 8;
+
+	private final BlockHandle metaIndexHandle;
+
+	private final BlockHandle indexHandle;
+
+	public byte[] encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(ENCODED_LENGTH);
+		metaIndexHandle.encodeTo(buffer);
+		indexHandle.encodeTo(buffer);
+		buffer.putLong(MAGIC);
+		return buffer.array();
+	}
+
+	public static Footer decode(ByteBuffer buffer) {
+		BlockHandle metaIndexHandle = BlockHandle.decodeFrom(buffer);
+		BlockHandle indexHandle = BlockHandle.decodeFrom(buffer);
+		long magic = buffer.getLong();
+		if (magic != MAGIC) {
+			throw new RuntimeException("Bad sst magic number: " + Long.toHexString(magic));
+		}
+		return new Footer(metaIndexHandle, indexHandle);
+	}
+
+}
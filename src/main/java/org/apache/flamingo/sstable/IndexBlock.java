@@ -0,0 +1,110 @@
+package org.apache.flamingo.sstable;
+
+import org.apache.flamingo.utils.StringUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sparse index: maps the last key of every data block to the handle of that block. The
+ * meta index uses the same layout with the meta block name as key.
+ * <p>
+ * [count, (key_size, key, offset, size)*]
+ */
+public class IndexBlock {
+
+	private final byte[][] keys;
+
+	private final BlockHandle[] handles;
+
+	private IndexBlock(byte[][] keys, BlockHandle[] handles) {
+		this.keys = keys;
+		this.handles = handles;
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	public byte[] getKey(int index) {
+		return keys[index];
+	}
+
+	public BlockHandle getHandle(int index) {
+		return handles[index];
+	}
+
+	/**
+	 * Binary search for the first block whose last key is greater than or equal to the
+	 * search key.
+	 * @return block index, or -1 if the key is greater than every key in the table
+	 */
+	public int find(byte[] key) {
+		int low = 0;
+		int high = keys.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (StringUtil.compareByteArrays(keys[mid], key) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		return low < keys.length ? low : -1;
+	}
+
+	/**
+	 * Exact lookup, used by the meta index.
+	 */
+	public BlockHandle get(byte[] key) {
+		int index = find(key);
+		if (index >= 0 && StringUtil.compareByteArrays(keys[index], key) == 0) {
+			return handles[index];
+		}
+		return null;
+	}
+
+	public static IndexBlock decode(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		byte[][] keys = new byte[count][];
+		BlockHandle[] handles = new BlockHandle[count];
+		for (int i = 0; i < count; i++) {
+			byte[] key = new byte[buffer.getInt()];
+			buffer.get(key);
+			keys[i] = key;
+			handles[i] = BlockHandle.decodeFrom(buffer);
+		}
+		return new IndexBlock(keys, handles);
+	}
+
+	public static class Builder {
+
+		private final List<byte[]> keys = new ArrayList<>();
+
+		private final List<BlockHandle> handles = new ArrayList<>();
+
+		private int encodedSize = 4;
+
+		public void add(byte[] key, BlockHandle handle) {
+			keys.add(key);
+			handles.add(handle);
+			encodedSize += 4 + key.length + BlockHandle.ENCODED_LENGTH;
+		}
+
+		public byte[] finish() {
+			ByteBuffer buffer = ByteBuffer.allocate(encodedSize);
+			buffer.putInt(keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] key = keys.get(i);
+				buffer.putInt(key.length);
+				buffer.put(key);
+				handles.get(i).encodeTo(buffer);
+			}
+			return buffer.array();
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.apache.flamingo.sstable;
+
+import org.apache.flamingo.options.Options;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Derives the prefixes of a key that the prefix bloom filter of an sstable indexes,
+ * configured by {@link Options#PrefixExtractor}.
+ * <p>
+ * The filter block is stored under a name that includes the extractor, so tables written
+ * with another extractor are read as having no prefix filter.
+ */
+public abstract class PrefixExtractor {
+
+	private final String name;
+
+	PrefixExtractor(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Hand every indexed prefix of the key to the consumer, shortest first.
+	 */
+	public abstract void prefixes(byte[] key, Consumer<byte[]> consumer);
+
+	/**
+	 * @return the longest indexed prefix that every key starting with the scan prefix
+	 * has, or null if the filter can not answer for the scan prefix
+	 */
+	public abstract byte[] filterKey(byte[] scanPrefix);
+
+	/**
+	 * @return the configured extractor, or null if prefix filters are disabled
+	 */
+	public static PrefixExtractor fromOptions() {
+		return create(Options.PrefixExtractor.getValue());
+	}
+
+	/**
+	 * @param spec fixed:&lt;n&gt;, delimiter:&lt;c&gt; or empty
+	 */
+	public static PrefixExtractor create(String spec) {
+		if (spec == null || spec.isEmpty()) {
+			return null;
+		}
+		int colon = spec.indexOf(':');
+		String type = colon < 0 ? spec : spec.substring(0, colon);
+		String argument = colon < 0 ? "" : spec.substring(colon + 1);
+		switch (type) {
+			case "fixed":
+				return new Fixed(spec, Integer.parseInt(argument));
+			case "delimiter":
+				if (argument.length() != 1 || argument.charAt(0) > 0x7F) {
+					throw new IllegalArgumentException("Delimiter must be one ascii character: " + spec);
+				}
+				return new Delimiter(spec, (byte) argument.charAt(0));
+			default:
+				throw new IllegalArgumentException("Unknown prefix_extractor: " + spec);
+		}
+	}
+
+	/**
+	 * The first n bytes, shorter keys have no prefix.
+	 */
+	private static final class Fixed extends PrefixExtractor {
+
+		private final int length;
+
+		private Fixed(String name, int length) {
+			super(name);
+			if (length <= 0) {
+				throw new IllegalArgumentException("Prefix length must be positive: " + name);
+			}
+			this.length = length;
+		}
+
+		@Override
+		public void prefixes(byte[] key, Consumer<byte[]> consumer) {
+			if (key.length >= length) {
+				consumer.accept(Arrays.copyOf(key, length));
+			}
+		}
+
+		@Override
+		public byte[] filterKey(byte[] scanPrefix) {
+			return scanPrefix.length >= length ? Arrays.copyOf(scanPrefix, length) : null;
+		}
+
+	}
+
+	/**
+	 * Every prefix ending with the delimiter, so tenant|entity|ts is indexed as tenant|
+	 * and tenant|entity|.
+	 */
+	private static final class Delimiter extends PrefixExtractor {
+
+		private final byte delimiter;
+
+		private Delimiter(String name, byte delimiter) {
+			super(name);
+			this.delimiter = delimiter;
+		}
+
+		@Override
+		public void prefixes(byte[] key, Consumer<byte[]> consumer) {
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] == delimiter) {
+					consumer.accept(Arrays.copyOf(key, i + 1));
+				}
+			}
+		}
+
+		@Override
+		public byte[] filterKey(byte[] scanPrefix) {
+			for (int i = scanPrefix.length - 1; i >= 0; i--) {
+				if (scanPrefix[i] == delimiter) {
+					return Arrays.copyOf(scanPrefix, i + 1);
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.apache.flamingo.sstable;
+
+import org.apache.flamingo.bean.SLNode;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sequential iterator over every record of an sst file, one data block in memory at a
+ * time. The iterator holds a reference on the reader until it is closed.
+ */
+public class SSTIterator implements Iterator<SLNode>, AutoCloseable {
+
+	private final SSTReader reader;
+
+	private final boolean fillCache;
+
+	private int blockIndex = -1;
+
+	private DataBlock block;
+
+	private int position;
+
+	/**
+	 * Exclusive upper bound of the keys returned, null for none.
+	 */
+	private byte[] upperBound;
+
+	private boolean closed = false;
+
+	public SSTIterator(SSTReader reader, boolean fillCache) {
+		if (!reader.retain()) {
+			throw new RuntimeException("SST " + reader.getFileName() + " has already been released");
+		}
+		this.reader = reader;
+		this.fillCache = fillCache;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (block == null || position >= block.limit()) {
+			if (blockIndex + 1 >= reader.getBlockCount()) {
+				return false;
+			}
+			block = reader.readDataBlock(++blockIndex, fillCache);
+			position = 0;
+		}
+		return upperBound == null || block.compareKey(position, upperBound) < 0;
+	}
+
+	/**
+	 * Skip to the first record whose key is greater than or equal to the target, only the
+	 * data block holding it is read.
+	 */
+	public void seek(byte[] target) {
+		int found = reader.getIndex().find(target);
+		if (found < 0) {
+			blockIndex = reader.getBlockCount();
+			block = null;
+			return;
+		}
+		blockIndex = found;
+		block = reader.readDataBlock(found, fillCache);
+		position = 0;
+		// The last key of the block is not less than the target
+		while (block.compareKey(position, target) < 0) {
+			position = block.next(position);
+		}
+	}
+
+	/**
+	 * Stop before the first key greater than or equal to the bound.
+	 * @param upperBound exclusive, null for none
+	 */
+	public void setUpperBound(byte[] upperBound) {
+		this.upperBound = upperBound;
+	}
+
+	@Override
+	public SLNode next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		SLNode node = block.decode(position);
+		position = block.next(position);
+		return node;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			block = null;
+			reader.release();
+		}
+	}
+
+}
@@ -0,0 +1,326 @@
+package org.apache.flamingo.sstable;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.cache.BlockCache;
+import org.apache.flamingo.core.Context;
+import org.apache.flamingo.file.FileUtil;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read side of an sst file. The footer, the sparse index and the bloom filter are loaded
+ * once when the reader is opened, so a point lookup is a filter probe and a binary search
+ * in memory plus at most one block read.
+ * <p>
+ * In mmap mode the whole file is mapped once and data blocks are slices of the mapping,
+ * so lookups neither copy blocks nor go through the block cache.
+ * <p>
+ * The reader is reference counted: the owner holds one reference, every lookup or
+ * iterator holds one more while it runs. Resources (and the mapping) are released when
+ * the last reference is gone, so a table deleted by compaction is never unmapped under a
+ * running reader.
+ */
+@Slf4j
+public class SSTReader implements AutoCloseable {
+
+	private static final AtomicLong NEXT_CACHE_ID = new AtomicLong(0);
+
+	@Getter
+	private final String fileName;
+
+	/**
+	 * Identifies the blocks of this table in the block cache. Sst ids are only unique
+	 * within one data dir, the cache is shared by the whole process.
+	 */
+	@Getter
+	private final long cacheId = NEXT_CACHE_ID.getAndIncrement();
+
+	private final FileChannel channel;
+
+	/**
+	 * Null unless the reader runs in mmap mode.
+	 */
+	private final MappedByteBuffer mapped;
+
+	@Getter
+	private final long fileSize;
+
+	@Getter
+	private final IndexBlock index;
+
+	@Getter
+	private final IndexBlock metaIndex;
+
+	/**
+	 * Null if the table was written without a filter.
+	 */
+	@Getter
+	private final BloomFilter filter;
+
+	/**
+	 * Null if the table has no prefix filter for the configured extractor.
+	 */
+	@Getter
+	private final BloomFilter prefixFilter;
+
+	private final PrefixExtractor prefixExtractor;
+
+	private final AtomicInteger refs = new AtomicInteger(1);
+
+	public SSTReader(String fileName) {
+		this(fileName, Boolean.parseBoolean(Options.UseMmapReads.getValue()));
+	}
+
+	public SSTReader(String fileName, boolean mmap) {
+		this.fileName = fileName;
+		try {
+			FileChannel fileChannel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+			this.fileSize = fileChannel.size();
+			if (fileSize < Footer.ENCODED_LENGTH) {
+				fileChannel.close();
+				throw new RuntimeException("File " + fileName + " is too short to be an sst file");
+			}
+			if (mmap && fileSize <= Integer.MAX_VALUE) {
+				this.mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+				// The mapping stays valid after the channel is closed
+				fileChannel.close();
+				this.channel = null;
+			}
+			else {
+				this.mapped = null;
+				this.channel = fileChannel;
+			}
+			Footer footer = Footer.decode(read(fileSize - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH));
+			this.metaIndex = IndexBlock.decode(read(footer.getMetaIndexHandle()));
+			this.index = IndexBlock.decode(read(footer.getIndexHandle()));
+			BlockHandle filterHandle = metaIndex.get(StringUtil.fromString(BloomFilter.META_KEY));
+			this.filter = filterHandle == null ? null : new BloomFilter(readBytes(filterHandle));
+			this.prefixExtractor = PrefixExtractor.fromOptions();
+			BlockHandle prefixFilterHandle = prefixExtractor == null ? null
+					: metaIndex.get(StringUtil.fromString(BloomFilter.prefixMetaKey(prefixExtractor)));
+			this.prefixFilter = prefixFilterHandle == null ? null : new BloomFilter(readBytes(prefixFilterHandle));
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Open sst file " + fileName + " failed", e);
+		}
+	}
+
+	public boolean isMmap() {
+		return mapped != null;
+	}
+
+	/**
+	 * @return the record of the key, including tombstones, or null if absent
+	 */
+	public SLNode get(byte[] key) {
+		if (!mayContain(key)) {
+			return null;
+		}
+		int blockIndex = index.find(key);
+		SLNode node = blockIndex < 0 ? null : readDataBlock(blockIndex).get(key);
+		recordFilterResult(node);
+		return node;
+	}
+
+	/**
+	 * Look up many keys at once. Keys that fall into the same data block share one read
+	 * of the block.
+	 * @param keys sorted keys
+	 * @return the record of every key, including tombstones, null where absent
+	 */
+	public SLNode[] multiGet(byte[][] keys) {
+		SLNode[] nodes = new SLNode[keys.length];
+		int blockIndex = -1;
+		DataBlock block = null;
+		for (int i = 0; i < keys.length; i++) {
+			byte[] key = keys[i];
+			if (!mayContain(key)) {
+				continue;
+			}
+			int found = index.find(key);
+			if (found >= 0) {
+				if (found != blockIndex) {
+					block = readDataBlock(found);
+					blockIndex = found;
+				}
+				nodes[i] = block.get(key);
+			}
+			recordFilterResult(nodes[i]);
+		}
+		return nodes;
+	}
+
+	private boolean mayContain(byte[] key) {
+		if (filter != null && !filter.mayContain(key)) {
+			Statistics.getInstance().record(Ticker.BLOOM_FILTER_USEFUL);
+			return false;
+		}
+		return true;
+	}
+
+	private void recordFilterResult(SLNode node) {
+		if (filter != null) {
+			Statistics.getInstance()
+				.record(node == null ? Ticker.BLOOM_FILTER_FALSE_POSITIVE : Ticker.BLOOM_FILTER_TRUE_POSITIVE);
+		}
+	}
+
+	/**
+	 * @return false if no key of the table starts with the prefix
+	 */
+	public boolean mayContainPrefix(byte[] prefix) {
+		if (prefixFilter == null) {
+			return true;
+		}
+		byte[] filterKey = prefixExtractor.filterKey(prefix);
+		if (filterKey == null || prefixFilter.mayContain(filterKey)) {
+			return true;
+		}
+		Statistics.getInstance().record(Ticker.PREFIX_FILTER_USEFUL);
+		return false;
+	}
+
+	public int getBlockCount() {
+		return index.size();
+	}
+
+	public DataBlock readDataBlock(int blockIndex) {
+		return readDataBlock(blockIndex, true);
+	}
+
+	/**
+	 * @param fillCache whether a block read from the file is inserted into the block
+	 * cache, bulk scans such as compaction should not evict the hot blocks
+	 */
+	public DataBlock readDataBlock(int blockIndex, boolean fillCache) {
+		BlockHandle handle = index.getHandle(blockIndex);
+		BlockCache cache = Context.getInstance().getBlockCache();
+		// Mapped blocks are already in memory, caching slices of the mapping would also
+		// keep them alive after the table is unmapped
+		if (cache == null || mapped != null) {
+			return new DataBlock(read(handle));
+		}
+		ByteBuffer block = cache.get(cacheId, handle.getOffset());
+		if (block == null) {
+			block = read(handle);
+			if (fillCache) {
+				cache.put(cacheId, handle.getOffset(), block);
+			}
+		}
+		return new DataBlock(block);
+	}
+
+	public SSTIterator iterator() {
+		return iterator(true);
+	}
+
+	public SSTIterator iterator(boolean fillCache) {
+		return new SSTIterator(this, fillCache);
+	}
+
+	/**
+	 * @return bidirectional iterator, it holds a reference on the reader until closed
+	 */
+	public TableIterator newIterator(boolean fillCache) {
+		return new TableIterator(this, fillCache);
+	}
+
+	/**
+	 * Take a reference before using the reader.
+	 * @return false if the reader has already been released
+	 */
+	public boolean retain() {
+		while (true) {
+			int current = refs.get();
+			if (current <= 0) {
+				return false;
+			}
+			if (refs.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void release() {
+		int current = refs.decrementAndGet();
+		if (current == 0) {
+			releaseResources();
+		}
+		else if (current < 0) {
+			throw new RuntimeException("SST reader " + fileName + " released too many times");
+		}
+	}
+
+	private void releaseResources() {
+		if (mapped != null) {
+			FileUtil.unmap(mapped);
+			log.debug("Unmapped sst file {}", fileName);
+		}
+		else {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	ByteBuffer read(BlockHandle handle) {
+		return read(handle.getOffset(), handle.getSize());
+	}
+
+	private byte[] readBytes(BlockHandle handle) {
+		ByteBuffer buffer = read(handle);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private ByteBuffer read(long offset, int size) {
+		if (mapped != null) {
+			ByteBuffer slice = mapped.duplicate();
+			slice.position((int) offset);
+			slice.limit((int) offset + size);
+			return slice.slice();
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		try {
+			long position = offset;
+			while (buffer.hasRemaining()) {
+				int n = channel.read(buffer, position);
+				if (n < 0) {
+					throw new RuntimeException("Unexpected end of sst file " + fileName);
+				}
+				position += n;
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Read sst file " + fileName + " failed", e);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Drop the owner reference.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+
+}
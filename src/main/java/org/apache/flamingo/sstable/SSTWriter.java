@@ -0,0 +1,202 @@
+package org.apache.flamingo.sstable;
+
+import lombok.Getter;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Build an sst file from records added in strictly increasing key order.
+ * <p>
+ * [data_block_0, ..., data_block_n, filter_block, prefix_filter_block, meta_index_block,
+ * index_block, footer]
+ */
+@Getter
+public class SSTWriter implements AutoCloseable {
+
+	private final String fileName;
+
+	private final int blockSize;
+
+	private final FileOutputStream outputStream;
+
+	private final FileChannel channel;
+
+	private final ByteArrayOutputStream blockBuffer;
+
+	private final IndexBlock.Builder indexBuilder = new IndexBlock.Builder();
+
+	private final IndexBlock.Builder metaIndexBuilder = new IndexBlock.Builder();
+
+	private final BloomFilter.Builder filterBuilder;
+
+	/**
+	 * Null unless a prefix extractor is configured.
+	 */
+	private final PrefixExtractor prefixExtractor;
+
+	private final BloomFilter.Builder prefixFilterBuilder;
+
+	/**
+	 * Prefixes of the previous key, sorted keys repeat them.
+	 */
+	private final List<byte[]> lastPrefixes = new ArrayList<>();
+
+	private final List<byte[]> prefixes = new ArrayList<>();
+
+	private long offset = 0;
+
+	private long count = 0;
+
+	private byte[] minKey;
+
+	private byte[] maxKey;
+
+	private boolean finished = false;
+
+	public SSTWriter(String fileName) {
+		this.fileName = fileName;
+		this.blockSize = Integer.parseInt(Options.BlockSize.getValue());
+		this.blockBuffer = new ByteArrayOutputStream(blockSize * 2);
+		int bitsPerKey = Integer.parseInt(Options.BloomFilterBitsPerKey.getValue());
+		this.filterBuilder = bitsPerKey > 0 ? new BloomFilter.Builder(bitsPerKey) : null;
+		this.prefixExtractor = bitsPerKey > 0 ? PrefixExtractor.fromOptions() : null;
+		this.prefixFilterBuilder = prefixExtractor != null ? new BloomFilter.Builder(bitsPerKey) : null;
+		try {
+			this.outputStream = new FileOutputStream(fileName);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Create file " + fileName + " failed", e);
+		}
+		this.channel = outputStream.getChannel();
+	}
+
+	/**
+	 * @param key record key, must be greater than the previous one
+	 * @param record serialized record
+	 */
+	public void add(byte[] key, byte[] record) {
+		if (maxKey != null && StringUtil.compareByteArrays(maxKey, key) >= 0) {
+			throw new RuntimeException("Keys must be added to sst " + fileName + " in increasing order");
+		}
+		if (minKey == null) {
+			minKey = key;
+		}
+		maxKey = key;
+		if (filterBuilder != null) {
+			filterBuilder.addKey(key);
+		}
+		if (prefixFilterBuilder != null) {
+			addPrefixes(key);
+		}
+		blockBuffer.write(record, 0, record.length);
+		count++;
+		if (blockBuffer.size() >= blockSize) {
+			flushBlock();
+		}
+	}
+
+	private void addPrefixes(byte[] key) {
+		prefixes.clear();
+		prefixExtractor.prefixes(key, prefixes::add);
+		for (byte[] prefix : prefixes) {
+			boolean repeated = false;
+			for (byte[] last : lastPrefixes) {
+				if (Arrays.equals(last, prefix)) {
+					repeated = true;
+					break;
+				}
+			}
+			if (!repeated) {
+				prefixFilterBuilder.addKey(prefix);
+			}
+		}
+		lastPrefixes.clear();
+		lastPrefixes.addAll(prefixes);
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Write the pending data block, the index block and the footer, then force the file
+	 * to disk.
+	 * @return file size
+	 */
+	public long finish() {
+		flushBlock();
+		if (filterBuilder != null) {
+			BlockHandle filterHandle = writeBlock(filterBuilder.finish());
+			metaIndexBuilder.add(StringUtil.fromString(BloomFilter.META_KEY), filterHandle);
+		}
+		if (prefixFilterBuilder != null) {
+			BlockHandle prefixFilterHandle = writeBlock(prefixFilterBuilder.finish());
+			metaIndexBuilder.add(StringUtil.fromString(BloomFilter.prefixMetaKey(prefixExtractor)), prefixFilterHandle);
+		}
+		BlockHandle metaIndexHandle = writeBlock(metaIndexBuilder.finish());
+		BlockHandle indexHandle = writeBlock(indexBuilder.finish());
+		writeRaw(new Footer(metaIndexHandle, indexHandle).encode());
+		try {
+			channel.force(true);
+			outputStream.close();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		finished = true;
+		return offset;
+	}
+
+	private void flushBlock() {
+		if (blockBuffer.size() == 0) {
+			return;
+		}
+		BlockHandle handle = writeBlock(blockBuffer.toByteArray());
+		indexBuilder.add(maxKey, handle);
+		blockBuffer.reset();
+	}
+
+	private BlockHandle writeBlock(byte[] block) {
+		BlockHandle handle = new BlockHandle(offset, block.length);
+		writeRaw(block);
+		return handle;
+	}
+
+	private void writeRaw(byte[] bytes) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			offset += bytes.length;
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Write file " + fileName + " failed", e);
+		}
+	}
+
+	/**
+	 * Close the file without finishing it, used when nothing has been written.
+	 */
+	@Override
+	public void close() {
+		if (!finished) {
+			try {
+				outputStream.close();
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+}
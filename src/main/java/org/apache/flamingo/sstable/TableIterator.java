@@ -0,0 +1,204 @@
+package org.apache.flamingo.sstable;
+
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.iterator.InternalIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Bidirectional iterator over an sst file. Seeks go through the sparse index to one data
+ * block and binary search the record positions of that block, so only the blocks the
+ * cursor passes are read. The iterator holds a reference on the reader until it is
+ * closed.
+ */
+public class TableIterator implements InternalIterator {
+
+	private final SSTReader reader;
+
+	private final boolean fillCache;
+
+	private int blockIndex = -1;
+
+	private DataBlock block;
+
+	/**
+	 * Record positions of the current block.
+	 */
+	private int[] positions;
+
+	private int slot;
+
+	private SLNode entry;
+
+	private boolean closed = false;
+
+	public TableIterator(SSTReader reader, boolean fillCache) {
+		if (!reader.retain()) {
+			throw new RuntimeException("SST " + reader.getFileName() + " has already been released");
+		}
+		this.reader = reader;
+		this.fillCache = fillCache;
+	}
+
+	@Override
+	public boolean isValid() {
+		return block != null;
+	}
+
+	@Override
+	public void seekToFirst() {
+		if (loadBlock(0)) {
+			setSlot(0);
+		}
+	}
+
+	@Override
+	public void seekToLast() {
+		if (loadBlock(reader.getBlockCount() - 1)) {
+			setSlot(positions.length - 1);
+		}
+	}
+
+	@Override
+	public void seek(byte[] target) {
+		int found = reader.getIndex().find(target);
+		if (found < 0) {
+			invalidate();
+			return;
+		}
+		if (loadBlock(found)) {
+			// The last key of the block is not less than the target
+			setSlot(lowerBound(target));
+		}
+	}
+
+	@Override
+	public void seekForPrev(byte[] target) {
+		int found = reader.getIndex().find(target);
+		if (found < 0) {
+			seekToLast();
+			return;
+		}
+		if (!loadBlock(found)) {
+			return;
+		}
+		int upper = upperBound(target);
+		if (upper > 0) {
+			setSlot(upper - 1);
+		}
+		else if (loadBlock(found - 1)) {
+			setSlot(positions.length - 1);
+		}
+	}
+
+	@Override
+	public void next() {
+		checkValid();
+		if (slot + 1 < positions.length) {
+			setSlot(slot + 1);
+		}
+		else if (loadBlock(blockIndex + 1)) {
+			setSlot(0);
+		}
+	}
+
+	@Override
+	public void prev() {
+		checkValid();
+		if (slot > 0) {
+			setSlot(slot - 1);
+		}
+		else if (loadBlock(blockIndex - 1)) {
+			setSlot(positions.length - 1);
+		}
+	}
+
+	@Override
+	public SLNode entry() {
+		checkValid();
+		if (entry == null) {
+			entry = block.decode(positions[slot]);
+		}
+		return entry;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			invalidate();
+			reader.release();
+		}
+	}
+
+	/**
+	 * @return false, and the iterator is invalid, if there is no such block
+	 */
+	private boolean loadBlock(int index) {
+		if (index < 0 || index >= reader.getBlockCount()) {
+			invalidate();
+			return false;
+		}
+		if (index != blockIndex || block == null) {
+			block = reader.readDataBlock(index, fillCache);
+			positions = block.positions();
+			blockIndex = index;
+		}
+		return true;
+	}
+
+	private void setSlot(int slot) {
+		this.slot = slot;
+		this.entry = null;
+	}
+
+	/**
+	 * @return first slot whose key is greater than or equal to the target
+	 */
+	private int lowerBound(byte[] target) {
+		int low = 0;
+		int high = positions.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (block.compareKey(positions[mid], target) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return first slot whose key is greater than the target
+	 */
+	private int upperBound(byte[] target) {
+		int low = 0;
+		int high = positions.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (block.compareKey(positions[mid], target) <= 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void invalidate() {
+		block = null;
+		positions = null;
+		blockIndex = -1;
+		entry = null;
+	}
+
+	private void checkValid() {
+		if (block == null) {
+			throw new NoSuchElementException();
+		}
+	}
+
+}
@@ -4,14 +4,27 @@ import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flamingo.memtable.MemoryTable;
 
+import java.util.function.BiConsumer;
+
 @Slf4j
 @Builder
 public class MemoryTableTask implements Task {
 
 	private final MemoryTable memoryTable;
 
+	/**
+	 * Called after every flush attempt with whether the sstable was registered, may be
+	 * null.
+	 */
+	private final BiConsumer<MemoryTable, Boolean> flushCallback;
+
 	public MemoryTableTask(MemoryTable memTable) {
+		this(memTable, null);
+	}
+
+	public MemoryTableTask(MemoryTable memTable, BiConsumer<MemoryTable, Boolean> flushCallback) {
 		this.memoryTable = memTable;
+		this.flushCallback = flushCallback;
 	}
 
 	@Override
@@ -21,7 +34,24 @@ public class MemoryTableTask implements Task {
 
 	@Override
 	public void execute() {
-		memoryTable.flush();
+		boolean success = false;
+		try {
+			memoryTable.flush();
+			// The sstable is registered, retrying would register it twice
+			success = true;
+			try {
+				// The value log of a flushed table takes no more writes
+				memoryTable.closeWriter();
+			}
+			catch (RuntimeException e) {
+				log.error("Close the value log of flushed memory table {} failed", memoryTable.getWriter(), e);
+			}
+		}
+		finally {
+			if (flushCallback != null) {
+				flushCallback.accept(memoryTable, success);
+			}
+		}
 	}
 
 	@Override
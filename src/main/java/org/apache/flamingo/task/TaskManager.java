@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * flush mem_table to disk.
@@ -16,6 +17,18 @@ public class TaskManager {
 
 	private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
 
+	/**
+	 * Backoff of a failed task, doubled after every failure up to the maximum.
+	 */
+	static final long RETRY_MIN_MILLIS = 100;
+
+	static final long RETRY_MAX_MILLIS = 10_000;
+
+	/**
+	 * Attempts a failing task still gets once the manager is closing, so close returns.
+	 */
+	static final int CLOSING_ATTEMPTS = 3;
+
 	private volatile boolean stop = false;
 
 	private final CountDownLatch latch;
@@ -43,8 +56,12 @@ public class TaskManager {
 				while (!stop || !tasks.isEmpty()) {
 					log.debug("Get tasks from queue and executing tasks...");
 					try {
-						Task task = tasks.take();
-						task.executeTask();
+						// Poll, close may set stop right after the last task was taken
+						Task task = tasks.poll(100, TimeUnit.MILLISECONDS);
+						if (task == null) {
+							continue;
+						}
+						execute(task);
 					}
 					catch (InterruptedException e) {
 						log.debug("Interruption occurred while executing tasks.", e);
@@ -64,6 +81,29 @@ public class TaskManager {
 		workerThread.start();
 	}
 
+	/**
+	 * Run the task until it succeeds. A failed flush keeps its memory table readable, so
+	 * the task is retried with a backoff rather than dropped, and the worker survives.
+	 */
+	private void execute(Task task) throws InterruptedException {
+		long backoffMillis = RETRY_MIN_MILLIS;
+		for (int attempt = 1;; attempt++) {
+			try {
+				task.executeTask();
+				return;
+			}
+			catch (RuntimeException e) {
+				if (stop && attempt >= CLOSING_ATTEMPTS) {
+					log.error("Task {} failed {} times while closing, giving up.", task, attempt, e);
+					return;
+				}
+				log.error("Task {} failed, retrying in {} ms.", task, backoffMillis, e);
+			}
+			Thread.sleep(backoffMillis);
+			backoffMillis = Math.min(backoffMillis * 2, RETRY_MAX_MILLIS);
+		}
+	}
+
 	public void close() throws InterruptedException {
 		stop = true;
 		log.debug("Stopping task manager...");
@@ -0,0 +1,44 @@
+package org.apache.flamingo.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits background I/O to a number of bytes per second. Callers reserve their bytes and
+ * sleep until the reservation is due, so bursts are smoothed over time.
+ */
+public class RateLimiter {
+
+	private final long bytesPerSecond;
+
+	/**
+	 * When the bytes reserved so far have been paid for.
+	 */
+	private long nextFreeNanos = System.nanoTime();
+
+	/**
+	 * @param bytesPerSecond 0 or less for no limit
+	 */
+	public RateLimiter(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public void acquire(long bytes) {
+		if (bytesPerSecond <= 0 || bytes <= 0) {
+			return;
+		}
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (nextFreeNanos < now) {
+				nextFreeNanos = now;
+			}
+			waitNanos = nextFreeNanos - now;
+			nextFreeNanos += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+		}
+		if (waitNanos > 0) {
+			LockSupport.parkNanos(waitNanos);
+		}
+	}
+
+}
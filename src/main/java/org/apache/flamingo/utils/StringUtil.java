@@ -1,6 +1,8 @@
 package org.apache.flamingo.utils;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @Author venus
@@ -35,6 +37,51 @@ public class StringUtil {
 		return Integer.compare(array1.length, array2.length);
 	}
 
+	/**
+	 * Compare the bytes stored in {@code buffer[offset, offset + length)} with
+	 * {@code array} without copying them out of the buffer.
+	 */
+	public static int compareByteArrays(ByteBuffer buffer, int offset, int length, byte[] array) {
+		int minLength = Math.min(length, array.length);
+		for (int i = 0; i < minLength; i++) {
+			byte b = buffer.get(offset + i);
+			if (b != array[i]) {
+				return Byte.compare(b, array[i]);
+			}
+		}
+		return Integer.compare(length, array.length);
+	}
+
+	public static boolean startsWith(byte[] array, byte[] prefix) {
+		if (array.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (array[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Keys compare as signed bytes, see {@link #compareByteArrays(byte[], byte[])}.
+	 * @return the smallest key greater than every key starting with the prefix, or null
+	 * if there is none
+	 */
+	public static byte[] prefixSuccessor(byte[] prefix) {
+		int last = prefix.length - 1;
+		while (last >= 0 && prefix[last] == Byte.MAX_VALUE) {
+			last--;
+		}
+		if (last < 0) {
+			return null;
+		}
+		byte[] successor = Arrays.copyOf(prefix, last + 1);
+		successor[last]++;
+		return successor;
+	}
+
 	public static byte fromBool(boolean flag) {
 		return flag ? (byte) 1 : (byte) 0;
 	}
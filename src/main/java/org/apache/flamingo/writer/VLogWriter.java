@@ -1,57 +1,265 @@
 package org.apache.flamingo.writer;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.flamingo.bean.VLogAddress;
 import org.apache.flamingo.bean.VLogEntity;
 import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
 import org.apache.flamingo.utils.Pair;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 往Value_log中写入的对象
+ * <p>
+ * Group commit: writers enqueue their records and wait, a single committer thread drains
+ * everything queued so far, appends it with one write, syncs according to
+ * {@link SyncMode} and completes every writer's future with its address.
  */
-@Getter
+@Slf4j
 public class VLogWriter {
 
 	public static final String ACTIVE = "v_active_%s.wal";
 
 	public static final String SILENCE = "v_silence_%d.wal";
 
+	/**
+	 * Upper bound of the requests coalesced into one write.
+	 */
+	private static final int MAX_BATCH_SIZE = 1024;
+
+	private static final PendingWrite CLOSE = new PendingWrite(Collections.emptyList());
+
+	@Getter
 	private final RandomAccessFile writer;
 
+	@Getter
 	private final long activeID;
 
+	@Getter
 	private final String activeFullPath;
 
+	private final FileChannel channel;
+
+	private final SyncMode syncMode;
+
+	private final long syncIntervalNanos;
+
+	private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+
+	private final Thread committer;
+
+	/**
+	 * Only touched by the committer thread.
+	 */
+	private long position;
+
+	private boolean dirty = false;
+
+	private long lastSync = System.nanoTime();
+
+	@Getter
+	private volatile boolean closed = false;
+
 	public VLogWriter() {
 		Pair<String, Long> pair = NamedUtil.getValueFilePath();
 		this.activeID = pair.getF1();
 		this.activeFullPath = pair.getF0();
+		this.syncMode = SyncMode.from(Options.VLogSyncMode.getValue());
+		this.syncIntervalNanos = TimeUnit.MILLISECONDS
+			.toNanos(Long.parseLong(Options.VLogSyncIntervalMillis.getValue()));
 		try {
 			this.writer = new RandomAccessFile(activeFullPath, "rw");
+			this.channel = writer.getChannel();
+			this.position = writer.length();
 		}
-		catch (FileNotFoundException e) {
+		catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		this.committer = new Thread(this::commitLoop, "vlog-committer-" + activeID);
+		this.committer.setDaemon(true);
+		this.committer.start();
 	}
 
-	// public VLogAddress append(byte[] key, byte[] value, boolean deleted) throws
-	// IOException {
-	// VLogEntity entity = VLogEntity.from(key, value, deleted);
-	// return write(entity);
-	// }
-
+	/**
+	 * Append one record and wait until it is written (and synced if the mode asks for
+	 * it).
+	 */
 	public VLogAddress write(VLogEntity entity) throws IOException {
-		long offset = writer.getFilePointer();
-		byte[] serialize = VLogEntity.serialize(entity);
-		writer.write(serialize);
-		return VLogAddress.from(activeID, offset);
+		return write(Collections.singletonList(entity)).get(0);
+	}
+
+	/**
+	 * Append the records next to each other in one request.
+	 * @return address of every record, in order
+	 */
+	public List<VLogAddress> write(List<VLogEntity> entities) throws IOException {
+		try {
+			return writeAsync(entities).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the value log commit", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Enqueue the records for the committer thread without waiting.
+	 */
+	public CompletableFuture<List<VLogAddress>> writeAsync(List<VLogEntity> entities) {
+		PendingWrite pending = new PendingWrite(entities);
+		if (closed) {
+			pending.future.completeExceptionally(new IOException("Value log writer is closed: " + activeFullPath));
+			return pending.future;
+		}
+		queue.add(pending);
+		if (closed && queue.remove(pending)) {
+			// Lost the race with close, the committer will not see it
+			pending.future.completeExceptionally(new IOException("Value log writer is closed: " + activeFullPath));
+		}
+		return pending.future;
+	}
+
+	private void commitLoop() {
+		List<PendingWrite> batch = new ArrayList<>();
+		boolean running = true;
+		while (running) {
+			try {
+				PendingWrite first = queue.poll(pollTimeoutNanos(), TimeUnit.NANOSECONDS);
+				if (first == null) {
+					// Idle, make periodic mode durable anyway
+					syncIfDue();
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+				if (batch.remove(CLOSE)) {
+					running = false;
+					// Writers that raced with close are still served
+					queue.drainTo(batch);
+					batch.remove(CLOSE);
+				}
+				commit(batch);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+			finally {
+				batch.clear();
+			}
+		}
+		try {
+			if (dirty && syncMode != SyncMode.NONE) {
+				channel.force(false);
+			}
+		}
+		catch (IOException e) {
+			log.error("Failed to sync value log {}", activeFullPath, e);
+		}
+	}
+
+	private long pollTimeoutNanos() {
+		return syncMode == SyncMode.PERIODIC && dirty ? syncIntervalNanos : TimeUnit.SECONDS.toNanos(1);
+	}
+
+	private void commit(List<PendingWrite> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		int size = 0;
+		for (PendingWrite pending : batch) {
+			size += pending.size();
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		long start = position;
+		for (PendingWrite pending : batch) {
+			List<VLogAddress> addresses = new ArrayList<>(pending.entities.size());
+			for (VLogEntity entity : pending.entities) {
+				addresses.add(VLogAddress.from(activeID, start + buffer.position(), entity.getTotalSize()));
+				buffer.put(VLogEntity.serialize(entity));
+			}
+			pending.addresses = addresses;
+		}
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			dirty = true;
+			if (syncMode == SyncMode.BATCH) {
+				sync();
+			}
+			else {
+				syncIfDue();
+			}
+		}
+		catch (IOException e) {
+			// The file may hold a torn tail now, writers have to treat the
+			// records as lost
+			batch.forEach(pending -> pending.future.completeExceptionally(e));
+			return;
+		}
+		Statistics.getInstance().record(Ticker.VLOG_BATCHES);
+		Statistics.getInstance().record(Ticker.VLOG_BATCHED_WRITES, batch.size());
+		batch.forEach(pending -> pending.future.complete(pending.addresses));
+	}
+
+	private void syncIfDue() {
+		if (syncMode == SyncMode.PERIODIC && dirty && System.nanoTime() - lastSync >= syncIntervalNanos) {
+			try {
+				sync();
+			}
+			catch (IOException e) {
+				log.error("Failed to sync value log {}", activeFullPath, e);
+			}
+		}
+	}
+
+	private void sync() throws IOException {
+		channel.force(false);
+		dirty = false;
+		lastSync = System.nanoTime();
+		Statistics.getInstance().record(Ticker.VLOG_SYNCS);
 	}
 
 	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.add(CLOSE);
+		try {
+			committer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		PendingWrite pending;
+		while ((pending = queue.poll()) != null) {
+			pending.future.completeExceptionally(new IOException("Value log writer is closed: " + activeFullPath));
+		}
 		try {
 			writer.close();
 		}
@@ -60,4 +268,61 @@ public class VLogWriter {
 		}
 	}
 
+	/**
+	 * When the value log is forced to disk.
+	 */
+	public enum SyncMode {
+
+		/**
+		 * Leave it to the operating system.
+		 */
+		NONE,
+
+		/**
+		 * After every group commit, before any writer of the group returns.
+		 */
+		BATCH,
+
+		/**
+		 * At most once per vlog_sync_interval_millis, writers do not wait for it.
+		 */
+		PERIODIC;
+
+		public static SyncMode from(String value) {
+			switch (value) {
+				case "none":
+					return NONE;
+				case "batch":
+					return BATCH;
+				case "periodic":
+					return PERIODIC;
+				default:
+					throw new IllegalArgumentException("Unknown vlog_sync_mode: " + value);
+			}
+		}
+
+	}
+
+	private static final class PendingWrite {
+
+		private final List<VLogEntity> entities;
+
+		private final CompletableFuture<List<VLogAddress>> future = new CompletableFuture<>();
+
+		private List<VLogAddress> addresses;
+
+		private PendingWrite(List<VLogEntity> entities) {
+			this.entities = entities;
+		}
+
+		private int size() {
+			int size = 0;
+			for (VLogEntity entity : entities) {
+				size += entity.getTotalSize();
+			}
+			return size;
+		}
+
+	}
+
 }
@@ -0,0 +1,57 @@
+package org.apache.flamingo.cache;
+
+import junit.framework.TestCase;
+import org.apache.flamingo.core.Context;
+import org.apache.flamingo.meta.SSTableTest;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.sstable.SSTReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+public class BlockCacheTest extends TestCase {
+
+	private final Statistics statistics = Statistics.getInstance();
+
+	public void testEvictLeastRecentlyUsed() {
+		// One shard, room for two 1KB blocks
+		BlockCache cache = new BlockCache(2 * (1024 + 64), 0);
+		cache.put(1, 0, ByteBuffer.allocate(1024));
+		cache.put(1, 1024, ByteBuffer.allocate(1024));
+		// Touch the first block so the second one becomes the eldest
+		assertNotNull(cache.get(1, 0));
+		long evicted = statistics.get(Ticker.BLOCK_CACHE_EVICT);
+		cache.put(2, 0, ByteBuffer.allocate(1024));
+		assertEquals(evicted + 1, statistics.get(Ticker.BLOCK_CACHE_EVICT));
+		assertNotNull(cache.get(1, 0));
+		assertNull(cache.get(1, 1024));
+		assertNotNull(cache.get(2, 0));
+		assertTrue(cache.getUsage() <= cache.getCapacity());
+	}
+
+	public void testSSTReadThroughCache() throws IOException {
+		ArrayList<byte[]> keys = SSTableTest.generateSortedKeys(2000);
+		String fileName = SSTableTest.writeSSTable(keys);
+		BlockCache previous = Context.getInstance().getBlockCache();
+		Context.getInstance().setBlockCache(new BlockCache(64 * 1024 * 1024, 4));
+		try (SSTReader reader = new SSTReader(fileName, false)) {
+			for (byte[] key : keys) {
+				assertNotNull(reader.get(key));
+			}
+			long misses = statistics.get(Ticker.BLOCK_CACHE_MISS);
+			long hits = statistics.get(Ticker.BLOCK_CACHE_HIT);
+			for (byte[] key : keys) {
+				assertNotNull(reader.get(key));
+			}
+			// Every block is cached after the first pass
+			assertEquals(misses, statistics.get(Ticker.BLOCK_CACHE_MISS));
+			assertEquals(hits + keys.size(), statistics.get(Ticker.BLOCK_CACHE_HIT));
+		}
+		finally {
+			Context.getInstance().setBlockCache(previous);
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.apache.flamingo.lsm;
+
+import junit.framework.TestCase;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of the write and read paths, they only log numbers. Run with
+ * {@code mvn test -Pbenchmark}.
+ */
+@Slf4j
+public class FlamingoLSMBenchmark extends TestCase {
+
+	public void testAsyncWriteThroughput() throws Exception {
+		int threads = 4;
+		int writesPerThread = 20000;
+		double sync = ingest("sync_", threads, writesPerThread);
+		double async;
+		Options.AsyncWrite.setValue("true");
+		try {
+			async = ingest("async_", threads, writesPerThread);
+		}
+		finally {
+			Options.AsyncWrite.setValue("false");
+		}
+		log.info("Ingest {} writes, sync: {} writes/ms, async_write: {} writes/ms", threads * writesPerThread,
+				String.format("%.1f", sync), String.format("%.1f", async));
+	}
+
+	public void testWriteBatch() throws Exception {
+		int total = 50000;
+		int batchSize = 100;
+		byte[][] keys = new byte[total][];
+		for (int i = 0; i < total; i++) {
+			keys[i] = StringUtil.fromString("bench_" + i);
+		}
+		long loop;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			long start = System.nanoTime();
+			for (byte[] key : keys) {
+				lsm.add(key, key);
+			}
+			loop = System.nanoTime() - start;
+		}
+		long batched;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			long start = System.nanoTime();
+			WriteBatch batch = new WriteBatch();
+			for (byte[] key : keys) {
+				batch.put(key, key);
+				if (batch.count() == batchSize) {
+					lsm.write(batch);
+					batch = new WriteBatch();
+				}
+			}
+			lsm.write(batch);
+			batched = System.nanoTime() - start;
+		}
+		log.info("Write {} records, looped add: {} ms, write batches of {}: {} ms", total,
+				TimeUnit.NANOSECONDS.toMillis(loop), batchSize, TimeUnit.NANOSECONDS.toMillis(batched));
+	}
+
+	public void testMultiGet() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		Options.setMemoryTableThresholdBytes(64 * 1024);
+		int total = 20000;
+		int batchSize = 200;
+		int rounds = 50;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int i = 0; i < total; i++) {
+				lsm.add(StringUtil.fromString("multi_bench_" + i), StringUtil.fromString("v" + i));
+			}
+			List<List<byte[]>> batches = new ArrayList<>();
+			for (int r = 0; r < rounds; r++) {
+				List<byte[]> batch = new ArrayList<>(batchSize);
+				for (int i = 0; i < batchSize; i++) {
+					batch.add(StringUtil.fromString("multi_bench_" + ThreadLocalRandom.current().nextInt(total)));
+				}
+				batches.add(batch);
+			}
+			long start = System.nanoTime();
+			for (List<byte[]> batch : batches) {
+				for (byte[] key : batch) {
+					assertNotNull(lsm.search(key));
+				}
+			}
+			long loop = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (List<byte[]> batch : batches) {
+				for (byte[] value : lsm.multiGet(batch)) {
+					assertNotNull(value);
+				}
+			}
+			long multi = System.nanoTime() - start;
+			log.info("Read {} batches of {} keys, looped search: {} ms, multiGet: {} ms", rounds, batchSize,
+					TimeUnit.NANOSECONDS.toMillis(loop), TimeUnit.NANOSECONDS.toMillis(multi));
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+		}
+	}
+
+	public void testCompactionStyleWriteAmplification() throws Exception {
+		int writes = 80000;
+		double[] writeAmplification = FlamingoLSMTest.compactionStyleWriteAmplification(writes, 64 * 1024, 128 * 1024);
+		log.info("Write {} records, write amplification level: {}, universal: {}", writes,
+				String.format("%.2f", writeAmplification[0]), String.format("%.2f", writeAmplification[1]));
+	}
+
+	/**
+	 * Write from several threads, wait for everything to be applied.
+	 * @return writes per millisecond
+	 */
+	private double ingest(String prefix, int threads, int writesPerThread) throws Exception {
+		long start = System.nanoTime();
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			Thread[] writers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				writers[t] = new Thread(() -> {
+					try {
+						for (int i = 0; i < writesPerThread; i++) {
+							byte[] key = StringUtil.fromString(prefix + id + "_" + i);
+							lsm.add(key, key);
+							if (i % 100 == 0) {
+								lsm.delete(key);
+							}
+						}
+					}
+					catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				writers[t].start();
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		}
+		return (double) threads * writesPerThread / ((System.nanoTime() - start) / 1_000_000.0);
+	}
+
+}
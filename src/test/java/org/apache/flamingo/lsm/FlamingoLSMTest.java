@@ -1,13 +1,33 @@
 package org.apache.flamingo.lsm;
 
 import junit.framework.TestCase;
+import org.apache.flamingo.core.IDAssign;
+import org.apache.flamingo.file.FileUtil;
+import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
 import org.apache.flamingo.utils.GeneratorDataUtil;
 import org.apache.flamingo.utils.StringUtil;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 public class FlamingoLSMTest extends TestCase {
 
@@ -31,6 +51,988 @@ public class FlamingoLSMTest extends TestCase {
 		}
 	}
 
+	public void testConcurrentAdd() throws Exception {
+		int threads = 4;
+		int pairSize = 5000;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			Thread[] writers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				writers[t] = new Thread(() -> {
+					try {
+						for (int i = 0; i < pairSize; i++) {
+							byte[] key = StringUtil.fromString("concurrent_" + id + "_" + i);
+							lsm.add(key, key);
+						}
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				});
+				writers[t].start();
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+			assertNull(failure.get());
+			for (int t = 0; t < threads; t++) {
+				for (int i = 0; i < pairSize; i++) {
+					String key = "concurrent_" + t + "_" + i;
+					assertEquals(key, StringUtil.fromBytes(lsm.search(StringUtil.fromString(key))));
+				}
+			}
+		}
+	}
+
+	public void testSwitchByBytes() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		long threshold = 64 * 1024;
+		Options.setMemoryTableThresholdBytes(threshold);
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			byte[] value = new byte[1024];
+			for (int i = 0; i < 300; i++) {
+				lsm.add(StringUtil.fromString("switch_" + i), value);
+				// The table is switched by the write that crosses the threshold
+				assertTrue(lsm.getMemoryTableUsage() <= threshold + 2 * 1024);
+			}
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+		}
+	}
+
+	public void testStallOnImmutableMemoryTables() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		String defaultMaxImmutable = Options.MaxImmutableMemoryTables.getValue();
+		Options.setMemoryTableThresholdBytes(16 * 1024);
+		Options.MaxImmutableMemoryTables.setValue("1");
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			byte[] value = new byte[1024];
+			for (int i = 0; i < 500; i++) {
+				lsm.add(StringUtil.fromString("stall_" + i), value);
+				assertTrue(lsm.getImmutableMemoryTableCount() <= 1);
+			}
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+			Options.MaxImmutableMemoryTables.setValue(defaultMaxImmutable);
+		}
+	}
+
+	public void testSlowdownOnLevel0() throws Exception {
+		String defaultSlowdown = Options.Level0SlowdownWritesTrigger.getValue();
+		String defaultDelay = Options.SlowdownWriteDelayMicros.getValue();
+		// Level 0 always has at least 0 sstables, so every write is delayed
+		Options.Level0SlowdownWritesTrigger.setValue("0");
+		Options.SlowdownWriteDelayMicros.setValue("100");
+		Statistics.getInstance().reset();
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int i = 0; i < 100; i++) {
+				lsm.add(StringUtil.fromString("slow_" + i), StringUtil.fromString("value"));
+			}
+			assertEquals(100, Statistics.getInstance().get(Ticker.STALL_SLOWDOWN_WRITES));
+			assertTrue(Statistics.getInstance().get(Ticker.STALL_MICROS) >= 100 * 100);
+		}
+		finally {
+			Options.Level0SlowdownWritesTrigger.setValue(defaultSlowdown);
+			Options.SlowdownWriteDelayMicros.setValue(defaultDelay);
+		}
+	}
+
+	public void testSearchWhileFlushing() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		Options.setMemoryTableThresholdBytes(16 * 1024);
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			int total = 2000;
+			for (int i = 0; i < total; i++) {
+				lsm.add(StringUtil.fromString("flushing_" + i), StringUtil.fromString("value_" + i));
+				// Recent keys sit in the active or a flushing memory table, older
+				// ones on disk
+				int probe = ThreadLocalRandom.current().nextInt(i + 1);
+				assertKey(lsm.search(StringUtil.fromString("flushing_" + probe)), "value_" + probe);
+			}
+			for (int i = 0; i < total; i += 3) {
+				lsm.delete(StringUtil.fromString("flushing_" + i));
+			}
+			for (int i = 0; i < total; i++) {
+				byte[] value = lsm.search(StringUtil.fromString("flushing_" + i));
+				if (i % 3 == 0) {
+					assertNull(value);
+				}
+				else {
+					assertKey(value, "value_" + i);
+				}
+			}
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+		}
+	}
+
+	/**
+	 * Write from several threads, wait for everything to be applied.
+	 */
+	private void ingest(String prefix, int threads, int writesPerThread) throws Exception {
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			Thread[] writers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				writers[t] = new Thread(() -> {
+					try {
+						for (int i = 0; i < writesPerThread; i++) {
+							byte[] key = StringUtil.fromString(prefix + id + "_" + i);
+							lsm.add(key, key);
+							if (i % 100 == 0) {
+								lsm.delete(key);
+							}
+						}
+					}
+					catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				writers[t].start();
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		}
+	}
+
+	public void testAsyncWrite() throws Exception {
+		int threads = 4;
+		int writesPerThread = 20000;
+		Options.AsyncWrite.setValue("true");
+		try {
+			ingest("async_", threads, writesPerThread);
+		}
+		finally {
+			Options.AsyncWrite.setValue("false");
+		}
+		// Everything published before close is durable and readable
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int t = 0; t < threads; t++) {
+				for (int i = 0; i < writesPerThread; i += 97) {
+					String key = "async_" + t + "_" + i;
+					byte[] value = lsm.search(StringUtil.fromString(key));
+					if (i % 100 == 0) {
+						assertNull(value);
+					}
+					else {
+						assertKey(value, key);
+					}
+				}
+			}
+		}
+	}
+
+	public void testAsyncWriteBackgroundError() throws Exception {
+		Options.AsyncWrite.setValue("true");
+		try {
+			FlamingoLSM lsm = new FlamingoLSM();
+			// A closed value log fails the journal
+			lsm.getMemoryTable().getWriter().close();
+			boolean stopped = false;
+			long deadline = System.currentTimeMillis() + 10_000;
+			for (int i = 0; !stopped && System.currentTimeMillis() < deadline; i++) {
+				try {
+					lsm.add(StringUtil.fromString("async_error_" + i), StringUtil.fromString("value"));
+					Thread.sleep(1);
+				}
+				catch (RuntimeException expected) {
+					stopped = true;
+				}
+			}
+			assertTrue(stopped);
+			try {
+				lsm.close();
+				fail("Close hid the background error");
+			}
+			catch (RuntimeException expected) {
+				assertTrue(expected.getCause() instanceof IOException);
+			}
+		}
+		finally {
+			Options.AsyncWrite.setValue("false");
+		}
+	}
+
+	public void testWriteBatch() throws Exception {
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			lsm.add(StringUtil.fromString("batch_deleted"), StringUtil.fromString("old"));
+			WriteBatch batch = new WriteBatch();
+			for (int i = 0; i < 100; i++) {
+				batch.put(StringUtil.fromString("batch_" + i), StringUtil.fromString("value_" + i));
+			}
+			batch.delete(StringUtil.fromString("batch_deleted"));
+			// Later operations of the batch win
+			batch.put(StringUtil.fromString("batch_0"), StringUtil.fromString("value_new"));
+			assertEquals(102, batch.count());
+			lsm.write(batch);
+			assertKey(lsm.search(StringUtil.fromString("batch_0")), "value_new");
+			assertKey(lsm.search(StringUtil.fromString("batch_99")), "value_99");
+			assertNull(lsm.search(StringUtil.fromString("batch_deleted")));
+		}
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			assertKey(lsm.search(StringUtil.fromString("batch_0")), "value_new");
+			assertKey(lsm.search(StringUtil.fromString("batch_50")), "value_50");
+			assertNull(lsm.search(StringUtil.fromString("batch_deleted")));
+		}
+	}
+
+	public void testWriteBatchAtomicVisibility() throws Exception {
+		int batches = 2000;
+		int keys = 10;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			AtomicBoolean done = new AtomicBoolean(false);
+			AtomicReference<String> violation = new AtomicReference<>();
+			Thread reader = new Thread(() -> {
+				while (!done.get()) {
+					// The first key of a batch is inserted first, once it shows
+					// batch n the last key must show n or newer
+					long first = versionOf(lsm.search(StringUtil.fromString("atomic_0")));
+					long last = versionOf(lsm.search(StringUtil.fromString("atomic_" + (keys - 1))));
+					if (last < first) {
+						violation.set("first key at " + first + ", last key at " + last);
+					}
+				}
+			});
+			reader.start();
+			for (int n = 0; n < batches; n++) {
+				WriteBatch batch = new WriteBatch();
+				for (int i = 0; i < keys; i++) {
+					batch.put(StringUtil.fromString("atomic_" + i), StringUtil.fromString(String.valueOf(n)));
+				}
+				lsm.write(batch);
+			}
+			done.set(true);
+			reader.join();
+			assertNull(violation.get(), violation.get());
+		}
+	}
+
+	private static long versionOf(byte[] value) {
+		return value == null ? -1 : Long.parseLong(StringUtil.fromBytes(value));
+	}
+
+	/**
+	 * A write batch costs one value log request, where a loop of adds costs one per
+	 * record. The timing is in {@link FlamingoLSMBenchmark}.
+	 */
+	public void testWriteBatchValueLogRequests() throws Exception {
+		int total = 5000;
+		int batchSize = 100;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			Statistics.getInstance().reset();
+			for (int i = 0; i < total; i++) {
+				byte[] key = StringUtil.fromString("requests_loop_" + i);
+				lsm.add(key, key);
+			}
+			assertEquals(total, Statistics.getInstance().get(Ticker.VLOG_BATCHED_WRITES));
+			Statistics.getInstance().reset();
+			WriteBatch batch = new WriteBatch();
+			for (int i = 0; i < total; i++) {
+				byte[] key = StringUtil.fromString("requests_batch_" + i);
+				batch.put(key, key);
+				if (batch.count() == batchSize) {
+					lsm.write(batch);
+					batch = new WriteBatch();
+				}
+			}
+			assertEquals(total / batchSize, Statistics.getInstance().get(Ticker.VLOG_BATCHED_WRITES));
+			assertKey(lsm.search(StringUtil.fromString("requests_batch_" + (total - 1))),
+					"requests_batch_" + (total - 1));
+		}
+	}
+
+	public void testAsyncWriteBatch() throws Exception {
+		Options.AsyncWrite.setValue("true");
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int n = 0; n < 100; n++) {
+				WriteBatch batch = new WriteBatch();
+				for (int i = 0; i < 10; i++) {
+					String key = "async_batch_" + n + "_" + i;
+					batch.put(StringUtil.fromString(key), StringUtil.fromString(key));
+				}
+				batch.delete(StringUtil.fromString("async_batch_" + n + "_0"));
+				lsm.write(batch);
+				lsm.add(StringUtil.fromString("async_single_" + n), StringUtil.fromString("single"));
+			}
+		}
+		finally {
+			Options.AsyncWrite.setValue("false");
+		}
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int n = 0; n < 100; n += 7) {
+				assertNull(lsm.search(StringUtil.fromString("async_batch_" + n + "_0")));
+				assertKey(lsm.search(StringUtil.fromString("async_batch_" + n + "_9")), "async_batch_" + n + "_9");
+				assertKey(lsm.search(StringUtil.fromString("async_single_" + n)), "single");
+			}
+		}
+	}
+
+	public void testSnapshot() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		Options.setMemoryTableThresholdBytes(16 * 1024);
+		int total = 500;
+		long lastSequence;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int i = 0; i < total; i++) {
+				lsm.add(StringUtil.fromString("snapshot_" + i), StringUtil.fromString("old_" + i));
+			}
+			try (Snapshot snapshot = lsm.getSnapshot()) {
+				for (int i = 0; i < total; i++) {
+					if (i % 2 == 0) {
+						lsm.delete(StringUtil.fromString("snapshot_" + i));
+					}
+					else {
+						lsm.add(StringUtil.fromString("snapshot_" + i), StringUtil.fromString("new_" + i));
+					}
+					lsm.add(StringUtil.fromString("snapshot_added_" + i), StringUtil.fromString("added"));
+				}
+				// Push the snapshot data through flushes and compactions
+				for (int i = 0; i < 3000; i++) {
+					lsm.add(StringUtil.fromString("snapshot_filler_" + i), new byte[64]);
+				}
+				for (int i = 0; i < total; i++) {
+					byte[] key = StringUtil.fromString("snapshot_" + i);
+					assertKey(lsm.search(key, snapshot), "old_" + i);
+					assertNull(lsm.search(StringUtil.fromString("snapshot_added_" + i), snapshot));
+					if (i % 2 == 0) {
+						assertNull(lsm.search(key));
+					}
+					else {
+						assertKey(lsm.search(key), "new_" + i);
+					}
+				}
+			}
+			lastSequence = IDAssign.getLastSequence();
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+		}
+		// The sequence numbers went to disk with the records
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			assertEquals(lastSequence, IDAssign.getLastSequence());
+			assertKey(lsm.search(StringUtil.fromString("snapshot_1")), "new_1");
+		}
+	}
+
+	/**
+	 * A table written and flushed while a snapshot is taken is not pinned by it, its
+	 * writes are newer than the snapshot.
+	 */
+	public void testSnapshotWithFlushWhileTaken() throws Exception {
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			byte[] key = StringUtil.fromString("snapshot_flush");
+			lsm.add(key, StringUtil.fromString("old"));
+			lsm.flush(false);
+			awaitFlushes(lsm, 10_000);
+			assertTrue(lsm.getImmutableMemoryTables().isEmpty());
+			lsm.beforeVersionPinned = () -> {
+				try {
+					lsm.add(key, StringUtil.fromString("new"));
+				}
+				catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				// The flush must not install its table before the version is pinned
+				lsm.flush(false);
+				awaitFlushes(lsm, 300);
+			};
+			Snapshot snapshot;
+			try {
+				snapshot = lsm.getSnapshot();
+			}
+			finally {
+				lsm.beforeVersionPinned = null;
+			}
+			try {
+				assertEquals("old", StringUtil.fromBytes(lsm.search(key, snapshot)));
+				assertEquals("old", StringUtil.fromBytes(lsm.multiGet(Arrays.asList(key), snapshot).get(0)));
+				try (FlamingoIterator iterator = lsm.newIterator(key, null, snapshot)) {
+					iterator.seekToFirst();
+					assertEquals("old", StringUtil.fromBytes(iterator.value()));
+				}
+			}
+			finally {
+				snapshot.close();
+			}
+			assertEquals("new", StringUtil.fromBytes(lsm.search(key)));
+		}
+	}
+
+	private static void awaitFlushes(FlamingoLSM lsm, long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!lsm.getImmutableMemoryTables().isEmpty() && System.currentTimeMillis() < deadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	/**
+	 * Snapshots taken while several threads write see every write returned so far, and of
+	 * each writer a prefix of its writes.
+	 */
+	public void testSnapshotWhileWriting() throws Exception {
+		int threads = 4;
+		int writesPerThread = 2000;
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			AtomicIntegerArray returned = new AtomicIntegerArray(threads);
+			Thread[] writers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				writers[t] = new Thread(() -> {
+					try {
+						for (int i = 0; i < writesPerThread; i++) {
+							lsm.add(StringUtil.fromString("snapshot_writer_" + id + "_" + i),
+									StringUtil.fromString("value"));
+							returned.set(id, i + 1);
+						}
+					}
+					catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				writers[t].start();
+			}
+			boolean writing = true;
+			while (writing) {
+				writing = false;
+				int[] done = new int[threads];
+				for (int t = 0; t < threads; t++) {
+					done[t] = returned.get(t);
+					writing |= done[t] < writesPerThread;
+				}
+				try (Snapshot snapshot = lsm.getSnapshot()) {
+					for (int t = 0; t < threads; t++) {
+						if (done[t] > 0) {
+							assertNotNull(lsm
+								.search(StringUtil.fromString("snapshot_writer_" + t + "_" + (done[t] - 1)), snapshot));
+						}
+						for (int i = Math.max(1, done[t]); i < Math.min(done[t] + 20, writesPerThread); i++) {
+							if (lsm.search(StringUtil.fromString("snapshot_writer_" + t + "_" + i), snapshot) != null) {
+								assertNotNull(lsm.search(StringUtil.fromString("snapshot_writer_" + t + "_" + (i - 1)),
+										snapshot));
+							}
+						}
+					}
+				}
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		}
+	}
+
+	public void testRangeIterator() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		Options.setMemoryTableThresholdBytes(16 * 1024);
+		TreeMap<String, String> expected = new TreeMap<>();
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int i = 0; i < 1000; i++) {
+				String key = String.format("range_%04d", i);
+				lsm.add(StringUtil.fromString(key), StringUtil.fromString("v1_" + i));
+				expected.put(key, "v1_" + i);
+			}
+			for (int i = 0; i < 1000; i += 3) {
+				String key = String.format("range_%04d", i);
+				lsm.delete(StringUtil.fromString(key));
+				expected.remove(key);
+			}
+			// Push the keys through flushes and compactions
+			for (int i = 0; i < 3000; i++) {
+				lsm.add(StringUtil.fromString("range_filler_" + i), new byte[64]);
+			}
+			// Newer versions and tombstones in the memory tables hide the older
+			// ones on disk
+			for (int i = 0; i < 1000; i += 5) {
+				String key = String.format("range_%04d", i);
+				lsm.add(StringUtil.fromString(key), StringUtil.fromString("v2_" + i));
+				expected.put(key, "v2_" + i);
+			}
+			for (int i = 1; i < 1000; i += 7) {
+				String key = String.format("range_%04d", i);
+				lsm.delete(StringUtil.fromString(key));
+				expected.remove(key);
+			}
+			byte[] start = StringUtil.fromString("range_0100");
+			byte[] end = StringUtil.fromString("range_0900");
+			List<String> range = new ArrayList<>(expected.subMap("range_0100", "range_0900").keySet());
+			try (FlamingoIterator iterator = lsm.newIterator(start, end)) {
+				// Later writes are not seen by the iterator
+				lsm.add(StringUtil.fromString("range_0500_late"), StringUtil.fromString("late"));
+				List<String> forward = new ArrayList<>();
+				for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+					String key = StringUtil.fromBytes(iterator.key());
+					assertEquals(expected.get(key), StringUtil.fromBytes(iterator.value()));
+					forward.add(key);
+				}
+				assertEquals(range, forward);
+				List<String> reverse = new ArrayList<>();
+				for (iterator.seekToLast(); iterator.isValid(); iterator.prev()) {
+					reverse.add(StringUtil.fromBytes(iterator.key()));
+				}
+				Collections.reverse(reverse);
+				assertEquals(range, reverse);
+				// Change direction in the middle
+				iterator.seek(StringUtil.fromString("range_0500"));
+				String key = expected.ceilingKey("range_0500");
+				assertEquals(key, StringUtil.fromBytes(iterator.key()));
+				iterator.next();
+				iterator.next();
+				iterator.prev();
+				assertEquals(expected.higherKey(key), StringUtil.fromBytes(iterator.key()));
+				iterator.prev();
+				iterator.prev();
+				assertEquals(expected.lowerKey(key), StringUtil.fromBytes(iterator.key()));
+				iterator.next();
+				assertEquals(key, StringUtil.fromBytes(iterator.key()));
+				iterator.seekForPrev(StringUtil.fromString("range_0999"));
+				assertEquals(range.get(range.size() - 1), StringUtil.fromBytes(iterator.key()));
+				iterator.seek(StringUtil.fromString("range_0000"));
+				assertEquals(range.get(0), StringUtil.fromBytes(iterator.key()));
+			}
+			try (FlamingoIterator iterator = lsm.newIterator(StringUtil.fromString("range_0500"),
+					StringUtil.fromString("range_0501"))) {
+				iterator.seekToFirst();
+				assertEquals("range_0500", StringUtil.fromBytes(iterator.key()));
+				iterator.next();
+				assertEquals("range_0500_late", StringUtil.fromBytes(iterator.key()));
+				iterator.next();
+				assertFalse(iterator.isValid());
+			}
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+		}
+	}
+
+	public void testScanPrefix() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		String defaultExtractor = Options.PrefixExtractor.getValue();
+		Options.setMemoryTableThresholdBytes(16 * 1024);
+		Options.PrefixExtractor.setValue("delimiter:|");
+		TreeMap<String, String> expected = new TreeMap<>();
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			// Tenants a and z share every flush, so the key range of each table covers m
+			for (int i = 0; i < 2000; i++) {
+				String tenant = i % 2 == 0 ? "prefix_a|" : "prefix_z|";
+				String key = tenant + "e" + (i % 10) + "|" + String.format("%05d", i);
+				lsm.add(StringUtil.fromString(key), StringUtil.fromString("v" + i));
+				expected.put(key, "v" + i);
+			}
+			for (int i = 0; i < 2000; i += 4) {
+				String key = "prefix_a|e" + (i % 10) + "|" + String.format("%05d", i);
+				lsm.delete(StringUtil.fromString(key));
+				expected.remove(key);
+			}
+			for (String prefix : new String[] { "prefix_a|", "prefix_a|e2|", "prefix_z|e3|", "prefix_z|e3|0" }) {
+				List<String> actual = new ArrayList<>();
+				try (FlamingoIterator iterator = lsm.scanPrefix(StringUtil.fromString(prefix))) {
+					for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+						String key = StringUtil.fromBytes(iterator.key());
+						assertEquals(expected.get(key), StringUtil.fromBytes(iterator.value()));
+						actual.add(key);
+					}
+				}
+				List<String> wanted = new ArrayList<>();
+				for (String key : expected.tailMap(prefix).keySet()) {
+					if (!key.startsWith(prefix)) {
+						break;
+					}
+					wanted.add(key);
+				}
+				assertFalse(prefix, wanted.isEmpty());
+				assertEquals(prefix, wanted, actual);
+			}
+			Statistics.getInstance().reset();
+			try (FlamingoIterator iterator = lsm.scanPrefix(StringUtil.fromString("prefix_m|"))) {
+				iterator.seekToFirst();
+				assertFalse(iterator.isValid());
+			}
+			assertTrue(Statistics.getInstance().get(Ticker.PREFIX_FILTER_USEFUL) > 0);
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+			Options.PrefixExtractor.setValue(defaultExtractor);
+		}
+	}
+
+	public void testMultiGet() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		String defaultThreads = Options.MultiGetThreads.getValue();
+		Options.setMemoryTableThresholdBytes(16 * 1024);
+		Options.MultiGetThreads.setValue("2");
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int i = 0; i < 3000; i++) {
+				lsm.add(StringUtil.fromString("multi_get_" + i), StringUtil.fromString("v" + i));
+			}
+			for (int i = 0; i < 3000; i += 3) {
+				lsm.delete(StringUtil.fromString("multi_get_" + i));
+			}
+			lsm.add(StringUtil.fromString("multi_get_1"), StringUtil.fromString("new"));
+			List<byte[]> keys = new ArrayList<>();
+			for (int i = 2999; i >= 0; i -= 7) {
+				keys.add(StringUtil.fromString("multi_get_" + i));
+			}
+			keys.add(StringUtil.fromString("multi_get_1"));
+			keys.add(StringUtil.fromString("multi_get_missing"));
+			// Duplicates are answered for every occurrence
+			keys.add(StringUtil.fromString("multi_get_1"));
+			List<byte[]> values = lsm.multiGet(keys);
+			assertEquals(keys.size(), values.size());
+			for (int i = 0; i < keys.size(); i++) {
+				assertTrue(Arrays.equals(lsm.search(keys.get(i)), values.get(i)));
+			}
+			assertKey(values.get(values.size() - 1), "new");
+			assertNull(values.get(values.size() - 2));
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+			Options.MultiGetThreads.setValue(defaultThreads);
+		}
+	}
+
+	/**
+	 * Neighbouring keys share the block reads in a multi get, searched one by one every
+	 * key reads its block again. The timing is in {@link FlamingoLSMBenchmark}.
+	 */
+	public void testMultiGetSharesBlockReads() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		Options.setMemoryTableThresholdBytes(64 * 1024);
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			for (int i = 0; i < 20000; i++) {
+				lsm.add(StringUtil.fromString(String.format("multi_blocks_%05d", i)), StringUtil.fromString("v" + i));
+			}
+			// Written early, long flushed
+			List<byte[]> keys = new ArrayList<>();
+			for (int i = 2000; i < 2200; i++) {
+				keys.add(StringUtil.fromString(String.format("multi_blocks_%05d", i)));
+			}
+			Statistics.getInstance().reset();
+			for (byte[] key : keys) {
+				assertNotNull(lsm.search(key));
+			}
+			long loop = Statistics.getInstance().get(Ticker.BLOCK_CACHE_HIT)
+					+ Statistics.getInstance().get(Ticker.BLOCK_CACHE_MISS);
+			Statistics.getInstance().reset();
+			for (byte[] value : lsm.multiGet(keys)) {
+				assertNotNull(value);
+			}
+			long multi = Statistics.getInstance().get(Ticker.BLOCK_CACHE_HIT)
+					+ Statistics.getInstance().get(Ticker.BLOCK_CACHE_MISS);
+			assertTrue("looped search: " + loop + " block reads, multiGet: " + multi, multi * 4 < loop);
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+		}
+	}
+
+	public void testKvSeparatedValues() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		String defaultRep = Options.MemTableRepType.getValue();
+		String defaultArenaBlockSize = Options.ArenaBlockSize.getValue();
+		// The node blocks of an arena memory table take 256KB up front
+		Options.setMemoryTableThresholdBytes(300 * 1024);
+		Options.ArenaBlockSize.setValue(String.valueOf(4 * 1024));
+		int maxValueSize = Integer.parseInt(Options.MaxValueSize.getValue());
+		try {
+			// The arena memory table keeps only the address of separated values
+			for (String rep : new String[] { "concurrent_skiplist", "arena_skiplist" }) {
+				Options.MemTableRepType.setValue(rep);
+				List<byte[]> keys = new ArrayList<>();
+				try (FlamingoLSM lsm = new FlamingoLSM()) {
+					for (int i = 0; i < 3000; i++) {
+						byte[] key = StringUtil.fromString("separated_" + rep + "_" + String.format("%04d", i));
+						lsm.add(key, largeValue(i, maxValueSize));
+						keys.add(key);
+					}
+					for (int i = 0; i < 3000; i++) {
+						assertTrue(Arrays.equals(largeValue(i, maxValueSize), lsm.search(keys.get(i))));
+					}
+					List<byte[]> values = lsm.multiGet(keys);
+					for (int i = 0; i < 3000; i++) {
+						assertTrue(Arrays.equals(largeValue(i, maxValueSize), values.get(i)));
+					}
+					int count = 0;
+					try (FlamingoIterator iterator = lsm.scanPrefix(StringUtil.fromString("separated_" + rep + "_"))) {
+						for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+							assertTrue(Arrays.equals(largeValue(count++, maxValueSize), iterator.value()));
+						}
+					}
+					assertEquals(3000, count);
+				}
+			}
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+			Options.MemTableRepType.setValue(defaultRep);
+			Options.ArenaBlockSize.setValue(defaultArenaBlockSize);
+		}
+	}
+
+	public void testScanPrefetch() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		String defaultEntries = Options.ScanPrefetchEntries.getValue();
+		String defaultThreads = Options.ScanPrefetchThreads.getValue();
+		Options.setMemoryTableThresholdBytes(300 * 1024);
+		int maxValueSize = Integer.parseInt(Options.MaxValueSize.getValue());
+		int total = 5000;
+		byte[] prefix = StringUtil.fromString("prefetch_");
+		TreeMap<String, byte[]> expected = new TreeMap<>();
+		try {
+			try (FlamingoLSM lsm = new FlamingoLSM()) {
+				for (int i = 0; i < total; i++) {
+					String key = "prefetch_" + String.format("%05d", i);
+					// Large values are kv separated, every third one stays inline
+					byte[] value = i % 3 == 0 ? StringUtil.fromString("v" + i) : largeValue(i, maxValueSize * 20);
+					lsm.add(StringUtil.fromString(key), value);
+					expected.put(key, value);
+				}
+				for (int i = 0; i < total; i += 7) {
+					String key = "prefetch_" + String.format("%05d", i);
+					lsm.delete(StringUtil.fromString(key));
+					expected.remove(key);
+				}
+			}
+			for (int round = 0; round < 2; round++) {
+				boolean prefetch = round == 1;
+				Options.ScanPrefetchEntries.setValue(prefetch ? "64" : "0");
+				Options.ScanPrefetchThreads.setValue(prefetch ? "2" : "0");
+				try (FlamingoLSM lsm = new FlamingoLSM()) {
+					long prefetched = Statistics.getInstance().get(Ticker.VLOG_PREFETCHED_VALUES);
+					try (FlamingoIterator iterator = lsm.scanPrefix(prefix)) {
+						Iterator<Map.Entry<String, byte[]>> expectedEntries = expected.entrySet().iterator();
+						for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+							Map.Entry<String, byte[]> entry = expectedEntries.next();
+							assertEquals(entry.getKey(), StringUtil.fromBytes(iterator.key()));
+							assertTrue(Arrays.equals(entry.getValue(), iterator.value()));
+						}
+						assertFalse(expectedEntries.hasNext());
+					}
+					assertEquals(prefetch, Statistics.getInstance().get(Ticker.VLOG_PREFETCHED_VALUES) > prefetched);
+					// Turning around drops the window, the values stay right
+					try (FlamingoIterator iterator = lsm.scanPrefix(prefix)) {
+						String middle = "prefetch_02500";
+						iterator.seek(StringUtil.fromString(middle));
+						String key = expected.ceilingKey(middle);
+						for (int i = 0; i < 100; i++) {
+							iterator.next();
+							key = expected.higherKey(key);
+						}
+						for (int i = 0; i < 150; i++) {
+							iterator.prev();
+							key = expected.lowerKey(key);
+						}
+						for (int i = 0; i < 300; i++) {
+							assertEquals(key, StringUtil.fromBytes(iterator.key()));
+							assertTrue(Arrays.equals(expected.get(key), iterator.value()));
+							iterator.next();
+							key = expected.higherKey(key);
+						}
+						iterator.seekForPrev(StringUtil.fromString("prefetch_99999"));
+						assertEquals(expected.lastKey(), StringUtil.fromBytes(iterator.key()));
+						iterator.next();
+						assertFalse(iterator.isValid());
+					}
+				}
+			}
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+			Options.ScanPrefetchEntries.setValue(defaultEntries);
+			Options.ScanPrefetchThreads.setValue(defaultThreads);
+		}
+	}
+
+	public void testValueLogGC() throws Exception {
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		String defaultInterval = Options.VLogGCIntervalMillis.getValue();
+		Options.setMemoryTableThresholdBytes(64 * 1024);
+		Options.VLogGCIntervalMillis.setValue("0");
+		int maxValueSize = Integer.parseInt(Options.MaxValueSize.getValue());
+		int total = 2000;
+		try {
+			List<byte[]> keys = new ArrayList<>();
+			try (FlamingoLSM lsm = new FlamingoLSM()) {
+				// Every value log file ends up with more than half of garbage: an
+				// overwritten version for every key and a tombstone for every fifth
+				for (int i = 0; i < total; i++) {
+					byte[] key = StringUtil.fromString("vlog_gc_" + String.format("%04d", i));
+					keys.add(key);
+					lsm.add(key, largeValue(i, maxValueSize));
+					lsm.add(key, largeValue(i + 1, maxValueSize));
+					if (i % 5 == 0) {
+						lsm.delete(key);
+					}
+				}
+			}
+			try (FlamingoLSM lsm = new FlamingoLSM()) {
+				// The garbage statistics survive a restart
+				List<Long> collected = new ArrayList<>();
+				lsm.getMetaInfo().getVLogMetaInfo().pickFiles(0.5).forEach(stats -> collected.add(stats.getFileId()));
+				assertTrue(collected.size() > 1);
+				long deletedFiles = Statistics.getInstance().get(Ticker.VLOG_GC_DELETED_FILES);
+				Snapshot snapshot = lsm.getSnapshot();
+				assertEquals(collected.size(), lsm.collectValueLogGarbage());
+				assertTrue(lsm.getMetaInfo().getVLogMetaInfo().pickFiles(0.5).isEmpty());
+				assertValueLogGC(lsm, keys, maxValueSize);
+				// The snapshot may still read the rewritten files
+				assertEquals(0, lsm.collectValueLogGarbage());
+				for (long fileId : collected) {
+					assertTrue(new File(NamedUtil.getValueFilePath(fileId)).exists());
+				}
+				for (int i = 0; i < total; i++) {
+					byte[] value = lsm.search(keys.get(i), snapshot);
+					assertTrue(i % 5 == 0 ? value == null : Arrays.equals(largeValue(i + 1, maxValueSize), value));
+				}
+				snapshot.close();
+				// The memory table the last records moved to is not flushed yet, a crash
+				// would lose them with the rewritten file
+				lsm.collectValueLogGarbage();
+				assertTrue(
+						collected.stream().anyMatch(fileId -> new File(NamedUtil.getValueFilePath(fileId)).exists()));
+				lsm.flush(false);
+				long deadline = System.currentTimeMillis() + 10_000;
+				while (!lsm.getImmutableMemoryTables().isEmpty() && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				lsm.collectValueLogGarbage();
+				for (long fileId : collected) {
+					assertFalse(new File(NamedUtil.getValueFilePath(fileId)).exists());
+				}
+				assertTrue(
+						Statistics.getInstance().get(Ticker.VLOG_GC_DELETED_FILES) >= deletedFiles + collected.size());
+				assertValueLogGC(lsm, keys, maxValueSize);
+			}
+			try (FlamingoLSM lsm = new FlamingoLSM()) {
+				assertValueLogGC(lsm, keys, maxValueSize);
+			}
+		}
+		finally {
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+			Options.VLogGCIntervalMillis.setValue(defaultInterval);
+		}
+	}
+
+	private static void assertValueLogGC(FlamingoLSM lsm, List<byte[]> keys, int maxValueSize) {
+		for (int i = 0; i < keys.size(); i++) {
+			byte[] value = lsm.search(keys.get(i));
+			if (i % 5 == 0) {
+				assertNull(value);
+			}
+			else {
+				assertTrue(Arrays.equals(largeValue(i + 1, maxValueSize), value));
+			}
+		}
+	}
+
+	private static byte[] largeValue(int i, int maxValueSize) {
+		byte[] value = new byte[maxValueSize + 1 + i % 200];
+		Arrays.fill(value, (byte) i);
+		return value;
+	}
+
+	public void testCompactionStyleWriteAmplification() throws Exception {
+		double[] writeAmplification = compactionStyleWriteAmplification(10000, 16 * 1024, 32 * 1024);
+		assertTrue(writeAmplification[1] < writeAmplification[0]);
+	}
+
+	/**
+	 * Insert the same random keys with compaction_style level, then universal, each into
+	 * a store of its own, and check the values after a reopen.
+	 * @return write amplification of the level and the universal style, the bytes flushed
+	 * and compacted per byte flushed
+	 */
+	static double[] compactionStyleWriteAmplification(int writes, long memoryTableBytes, long levelBaseBytes)
+			throws Exception {
+		String defaultDataDir = Options.DataDir.getValue();
+		String defaultThreshold = Options.MemoryTableThresholdBytes.getValue();
+		String defaultStyle = Options.CompactionStyle.getValue();
+		String defaultBase = Options.MaxBytesForLevelBase.getValue();
+		String defaultMultiplier = Options.MaxBytesForLevelMultiplier.getValue();
+		String defaultTrigger = Options.Level0FileNumCompactionTrigger.getValue();
+		Options.setMemoryTableThresholdBytes(memoryTableBytes);
+		Options.MaxBytesForLevelBase.setValue(String.valueOf(levelBaseBytes));
+		Options.MaxBytesForLevelMultiplier.setValue("4");
+		// Universal compaction keeps up to this many sorted runs
+		Options.Level0FileNumCompactionTrigger.setValue("4");
+		int keys = 1000000;
+		double[] writeAmplification = new double[2];
+		String[] styles = { "level", "universal" };
+		try {
+			for (int round = 0; round < styles.length; round++) {
+				// A store of its own, the data of the other tests would be merged too
+				String dataDir = defaultDataDir + "/write_amp_" + styles[round];
+				FileUtil.deleteDirectory(Paths.get(dataDir));
+				Options.DataDir.setValue(dataDir);
+				Options.CompactionStyle.setValue(styles[round]);
+				long flushed = Statistics.getInstance().get(Ticker.FLUSH_WRITE_BYTES);
+				long compacted = Statistics.getInstance().get(Ticker.COMPACTION_WRITE_BYTES);
+				// The same random inserts for both styles
+				Random random = new Random(7);
+				String[] expected = new String[keys];
+				try (FlamingoLSM lsm = new FlamingoLSM()) {
+					for (int i = 0; i < writes; i++) {
+						int key = random.nextInt(keys);
+						expected[key] = "value_" + i;
+						lsm.add(StringUtil.fromString(String.format("wa_%07d", key)),
+								StringUtil.fromString(expected[key]));
+					}
+				}
+				try (FlamingoLSM lsm = new FlamingoLSM()) {
+					for (int key = 0; key < keys; key += 97) {
+						byte[] value = lsm.search(StringUtil.fromString(String.format("wa_%07d", key)));
+						assertEquals(expected[key], value == null ? null : StringUtil.fromBytes(value));
+					}
+				}
+				flushed = Statistics.getInstance().get(Ticker.FLUSH_WRITE_BYTES) - flushed;
+				compacted = Statistics.getInstance().get(Ticker.COMPACTION_WRITE_BYTES) - compacted;
+				writeAmplification[round] = (double) (flushed + compacted) / flushed;
+			}
+			return writeAmplification;
+		}
+		finally {
+			Options.DataDir.setValue(defaultDataDir);
+			Options.MemoryTableThresholdBytes.setValue(defaultThreshold);
+			Options.CompactionStyle.setValue(defaultStyle);
+			Options.MaxBytesForLevelBase.setValue(defaultBase);
+			Options.MaxBytesForLevelMultiplier.setValue(defaultMultiplier);
+			Options.Level0FileNumCompactionTrigger.setValue(defaultTrigger);
+			for (String style : styles) {
+				FileUtil.deleteDirectory(Paths.get(defaultDataDir + "/write_amp_" + style));
+			}
+		}
+	}
+
+	public void testSnapshotWithAsyncWrite() throws Exception {
+		Options.AsyncWrite.setValue("true");
+		try (FlamingoLSM lsm = new FlamingoLSM()) {
+			byte[] last = StringUtil.fromString("async_snapshot_99");
+			for (int i = 0; i < 100; i++) {
+				lsm.add(StringUtil.fromString("async_snapshot_" + i), StringUtil.fromString("old"));
+			}
+			while (lsm.search(last) == null) {
+				Thread.yield();
+			}
+			try (Snapshot snapshot = lsm.getSnapshot()) {
+				for (int i = 0; i < 100; i++) {
+					lsm.add(StringUtil.fromString("async_snapshot_" + i), StringUtil.fromString("new"));
+				}
+				while (!Arrays.equals(lsm.search(last), StringUtil.fromString("new"))) {
+					Thread.yield();
+				}
+				for (int i = 0; i < 100; i++) {
+					assertKey(lsm.search(StringUtil.fromString("async_snapshot_" + i), snapshot), "old");
+				}
+			}
+		}
+		finally {
+			Options.AsyncWrite.setValue("false");
+		}
+	}
+
 	// public void testPipeline() throws Exception {
 	// String dirValue = Options.DataDir.getValue();
 	// Path path = Paths.get(dirValue);
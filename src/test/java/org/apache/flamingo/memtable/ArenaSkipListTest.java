@@ -0,0 +1,83 @@
+package org.apache.flamingo.memtable;
+
+import junit.framework.TestCase;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.Iterator;
+
+public class ArenaSkipListTest extends TestCase {
+
+	private static byte[] key(int i) {
+		return StringUtil.fromString(String.format("key_%08d", i));
+	}
+
+	public void testPutAndSearch() {
+		ArenaSkipList skipList = new ArenaSkipList(4096, true);
+		// Reverse order, every insert goes to the front of the list
+		for (int i = 999; i >= 0; i--) {
+			skipList.put(new SLNode(key(i), StringUtil.fromString("value_" + i)));
+		}
+		assertEquals(1000, skipList.getSize());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("value_" + i, StringUtil.fromBytes(skipList.search(key(i)).getValue()));
+		}
+		assertNull(skipList.search(key(1000)));
+		Iterator<SLNode> iterator = skipList.iterator();
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(StringUtil.fromBytes(key(i)), StringUtil.fromBytes(iterator.next().getKey()));
+		}
+		assertFalse(iterator.hasNext());
+	}
+
+	public void testOverwriteAndTombstone() {
+		ArenaSkipList skipList = new ArenaSkipList(1024, false);
+		for (int i = 0; i < 100; i++) {
+			skipList.put(new SLNode(key(i), StringUtil.fromString("old")));
+		}
+		long usage = skipList.getMemoryUsage();
+		for (int i = 0; i < 100; i++) {
+			if (i % 2 == 0) {
+				skipList.put(new SLNode(key(i), null, true));
+			}
+			else {
+				skipList.put(new SLNode(key(i), StringUtil.fromString("new")));
+			}
+		}
+		assertEquals(100, skipList.getSize());
+		// Overwrites append records, the arena only grows
+		assertTrue(skipList.getMemoryUsage() > usage);
+		for (int i = 0; i < 100; i++) {
+			SLNode node = skipList.search(key(i));
+			if (i % 2 == 0) {
+				assertNull(node);
+			}
+			else {
+				assertEquals("new", StringUtil.fromBytes(node.getValue()));
+			}
+		}
+		int tombstones = 0;
+		Iterator<SLNode> iterator = skipList.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isDeleted()) {
+				tombstones++;
+			}
+		}
+		assertEquals(50, tombstones);
+	}
+
+	public void testLargeRecordAndAddress() {
+		ArenaSkipList skipList = new ArenaSkipList(1024, true);
+		byte[] large = new byte[5000];
+		large[4999] = 7;
+		skipList.put(new SLNode(key(1), large));
+		// kv separated entries only keep the value log address
+		skipList.put(new SLNode(key(2), new byte[100], true, VLogAddress.from(3L, 42L), false));
+		assertEquals(7, skipList.search(key(1)).getValue()[4999]);
+		SLNode separated = skipList.search(key(2));
+		assertTrue(separated.isStoreMode());
+		assertEquals(VLogAddress.from(3L, 42L), separated.getAddress());
+	}
+
+}
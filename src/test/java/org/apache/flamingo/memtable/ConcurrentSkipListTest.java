@@ -0,0 +1,117 @@
+package org.apache.flamingo.memtable;
+
+import junit.framework.TestCase;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class ConcurrentSkipListTest extends TestCase {
+
+	private static byte[] key(int i) {
+		return StringUtil.fromString(String.format("key_%08d", i));
+	}
+
+	/**
+	 * Run the task on every thread at the same time and wait for all of them.
+	 * @return elapsed nanoseconds
+	 */
+	private long runConcurrently(int threads, IntConsumer task) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		List<Throwable> errors = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			new Thread(() -> {
+				try {
+					start.await();
+					task.accept(id);
+				}
+				catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+				finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		assertTrue(errors.toString(), errors.isEmpty());
+		return elapsed;
+	}
+
+	private interface IntConsumer {
+
+		void accept(int value) throws Exception;
+
+	}
+
+	public void testConcurrentPut() throws InterruptedException {
+		int threads = 8;
+		int keysPerThread = 5000;
+		ConcurrentSkipList skipList = new ConcurrentSkipList();
+		// Threads write interleaved keys, so they keep inserting next to each other
+		runConcurrently(threads, id -> {
+			for (int i = 0; i < keysPerThread; i++) {
+				int k = i * threads + id;
+				skipList.put(new SLNode(key(k), key(k)));
+			}
+		});
+		int total = threads * keysPerThread;
+		assertEquals(total, skipList.getSize());
+		Iterator<SLNode> iterator = skipList.iterator();
+		for (int k = 0; k < total; k++) {
+			assertTrue(iterator.hasNext());
+			assertEquals(StringUtil.fromBytes(key(k)), StringUtil.fromBytes(iterator.next().getKey()));
+		}
+		assertFalse(iterator.hasNext());
+		for (int k = 0; k < total; k++) {
+			assertNotNull(skipList.search(key(k)));
+		}
+	}
+
+	public void testOverwriteAndTombstone() throws InterruptedException {
+		int threads = 4;
+		int keys = 1000;
+		ConcurrentSkipList skipList = new ConcurrentSkipList();
+		// Every thread writes the same keys, the key count must not grow
+		runConcurrently(threads, id -> {
+			for (int i = 0; i < keys; i++) {
+				skipList.put(new SLNode(key(i), StringUtil.fromString("v" + id)));
+			}
+		});
+		assertEquals(keys, skipList.getSize());
+		for (int i = 0; i < keys; i += 2) {
+			skipList.put(new SLNode(key(i), null, true));
+		}
+		skipList.put(new SLNode(key(1), StringUtil.fromString("last")));
+		assertEquals(keys, skipList.getSize());
+		for (int i = 0; i < keys; i++) {
+			SLNode node = skipList.search(key(i));
+			if (i % 2 == 0) {
+				assertNull(node);
+			}
+			else {
+				assertNotNull(node);
+			}
+		}
+		assertEquals("last", StringUtil.fromBytes(skipList.search(key(1)).getValue()));
+		int tombstones = 0;
+		Iterator<SLNode> iterator = skipList.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isDeleted()) {
+				tombstones++;
+			}
+		}
+		assertEquals(keys / 2, tombstones);
+	}
+
+}
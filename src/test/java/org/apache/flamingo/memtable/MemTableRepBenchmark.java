@@ -0,0 +1,118 @@
+package org.apache.flamingo.memtable;
+
+import junit.framework.TestCase;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.iterator.InternalIterator;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Random puts and searches from several threads against the lock-free skip lists and the
+ * single-threaded skip list behind a lock. Run with {@code mvn test -Pbenchmark}.
+ */
+@Slf4j
+public class MemTableRepBenchmark extends TestCase {
+
+	public void testThroughput() throws InterruptedException {
+		int opsPerThread = 50000;
+		byte[][] keys = new byte[opsPerThread * 4][];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = StringUtil.fromString(String.format("key_%08d", i));
+		}
+		// Warm up
+		throughput(2, opsPerThread, keys, ConcurrentSkipList::new);
+		throughput(2, opsPerThread, keys, () -> new ArenaSkipList(1024 * 1024, true));
+		throughput(2, opsPerThread, keys, LockedSkipList::new);
+		for (int threads : new int[] { 1, 2, 4, 8 }) {
+			double concurrent = throughput(threads, opsPerThread, keys, ConcurrentSkipList::new);
+			double arena = throughput(threads, opsPerThread, keys, () -> new ArenaSkipList(1024 * 1024, true));
+			double locked = throughput(threads, opsPerThread, keys, LockedSkipList::new);
+			log.info(
+					"Threads: {}, concurrent_skiplist: {} ops/ms, arena_skiplist: {} ops/ms, "
+							+ "synchronized skiplist: {} ops/ms",
+					threads, String.format("%.1f", concurrent), String.format("%.1f", arena),
+					String.format("%.1f", locked));
+		}
+	}
+
+	private double throughput(int threads, int opsPerThread, byte[][] keys, Supplier<MemTableRep> supplier)
+			throws InterruptedException {
+		MemTableRep table = supplier.get();
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				try {
+					start.await();
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int i = 0; i < opsPerThread; i++) {
+						byte[] key = keys[random.nextInt(keys.length)];
+						// 3 writes per read
+						if ((i & 3) == 0) {
+							table.search(key);
+						}
+						else {
+							table.put(new SLNode(key, key));
+						}
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		return (double) threads * opsPerThread / (elapsed / 1_000_000.0);
+	}
+
+	/**
+	 * Only puts and searches, as the benchmark needs.
+	 */
+	private static class LockedSkipList implements MemTableRep {
+
+		private final SkipList skipList = new SkipList();
+
+		@Override
+		public synchronized void put(SLNode node) {
+			skipList.put(node);
+		}
+
+		@Override
+		public synchronized SLNode get(byte[] key) {
+			return skipList.search(key);
+		}
+
+		@Override
+		public synchronized int getSize() {
+			return skipList.getSize();
+		}
+
+		@Override
+		public long getMemoryUsage() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Iterator<SLNode> iterator() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public InternalIterator newIterator(long sequence) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -1,6 +1,12 @@
 package org.apache.flamingo.memtable;
 
 import junit.framework.TestCase;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.core.Context;
+import org.apache.flamingo.file.FileUtil;
+import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.iterator.InternalIterator;
+import org.apache.flamingo.meta.MetaInfo;
 import org.apache.flamingo.utils.GeneratorDataUtil;
 import org.apache.flamingo.utils.StringUtil;
 
@@ -8,6 +14,14 @@ import java.io.IOException;
 
 public class MemTableTest extends TestCase {
 
+	@Override
+	protected void setUp() throws Exception {
+		FileUtil.createDirIfNotExists(NamedUtil.getKeyDir());
+		FileUtil.createDirIfNotExists(NamedUtil.getValueDir());
+		FileUtil.checkFileExistsOrCreate(NamedUtil.getMetaDir());
+		Context.getInstance().setMetaInfo(new MetaInfo());
+	}
+
 	public void testAdd() {
 		try (MemoryTable memoryTable = new MemoryTable()) {
 			String key = GeneratorDataUtil.generateRandomString();
@@ -19,4 +33,101 @@ public class MemTableTest extends TestCase {
 		}
 	}
 
+	public void testMemoryUsage() throws IOException {
+		try (MemoryTable memoryTable = new MemoryTable()) {
+			byte[] key = StringUtil.fromString("key");
+			memoryTable.add(key, new byte[1000]);
+			long usage = memoryTable.getMemoryUsage();
+			assertTrue(usage >= 1000 + key.length);
+			memoryTable.add(StringUtil.fromString("other"), new byte[10]);
+			assertTrue(memoryTable.getMemoryUsage() > usage);
+		}
+	}
+
+	public void testMemoryUsageOfEveryRep() {
+		MemTableRep[] reps = { new ConcurrentSkipList(), new ArenaSkipList(4096, false) };
+		for (MemTableRep rep : reps) {
+			long empty = rep.getMemoryUsage();
+			for (int i = 0; i < 100; i++) {
+				rep.put(new SLNode(StringUtil.fromString("key_" + i), new byte[100]));
+			}
+			long usage = rep.getMemoryUsage();
+			assertTrue(rep.getClass().getSimpleName(), usage - empty >= 100 * 100);
+			// Overwrites never make the table look smaller than its live data
+			for (int i = 0; i < 100; i++) {
+				rep.put(new SLNode(StringUtil.fromString("key_" + i), new byte[10]));
+			}
+			assertTrue(rep.getClass().getSimpleName(), rep.getMemoryUsage() - empty >= 100 * 10);
+		}
+	}
+
+	public void testVersionsOfEveryRep() {
+		MemTableRep[] reps = { new ConcurrentSkipList(), new ArenaSkipList(4096, false) };
+		byte[] key = StringUtil.fromString("versioned");
+		for (MemTableRep rep : reps) {
+			String name = rep.getClass().getSimpleName();
+			rep.put(version(key, "v10", 10));
+			rep.put(version(key, "v30", 30));
+			// Sequence numbers taken out of order, the older write arrives last
+			rep.put(version(key, "v20", 20));
+			SLNode tombstone = version(key, null, 40);
+			tombstone.setDeleted(true);
+			rep.put(tombstone);
+			assertEquals(name, 1, rep.getSize());
+			assertTrue(name, rep.get(key).isDeleted());
+			assertNull(name, rep.get(key, 9));
+			assertEquals(name, "v10", StringUtil.fromBytes(rep.get(key, 19).getValue()));
+			assertEquals(name, "v20", StringUtil.fromBytes(rep.get(key, 29).getValue()));
+			assertEquals(name, "v30", StringUtil.fromBytes(rep.get(key, 39).getValue()));
+			assertTrue(name, rep.get(key, 40).isDeleted());
+			assertEquals(name, 40, rep.iterator().next().getSequence());
+		}
+	}
+
+	public void testIteratorOfEveryRep() {
+		MemTableRep[] reps = { new ConcurrentSkipList(), new ArenaSkipList(4096, false) };
+		for (MemTableRep rep : reps) {
+			String name = rep.getClass().getSimpleName();
+			// key_0 .. key_8 at sequence 1 .. 9, key_4 written again later
+			for (int i = 0; i < 9; i++) {
+				rep.put(version(StringUtil.fromString("key_" + i), "v" + i, i + 1));
+			}
+			rep.put(version(StringUtil.fromString("key_4"), "new", 20));
+			InternalIterator iterator = rep.newIterator(5);
+			iterator.seekToFirst();
+			for (int i = 0; i < 5; i++) {
+				assertTrue(name, iterator.isValid());
+				assertEquals(name, "v" + i, StringUtil.fromBytes(iterator.entry().getValue()));
+				iterator.next();
+			}
+			// Keys written after the sequence number are invisible
+			assertFalse(name, iterator.isValid());
+			iterator.seekToLast();
+			assertEquals(name, "key_4", StringUtil.fromBytes(iterator.key()));
+			assertEquals(name, "v4", StringUtil.fromBytes(iterator.entry().getValue()));
+			iterator.prev();
+			assertEquals(name, "key_3", StringUtil.fromBytes(iterator.key()));
+			iterator.seek(StringUtil.fromString("key_25"));
+			assertEquals(name, "key_3", StringUtil.fromBytes(iterator.key()));
+			iterator.seekForPrev(StringUtil.fromString("key_25"));
+			assertEquals(name, "key_2", StringUtil.fromBytes(iterator.key()));
+			iterator.prev();
+			iterator.prev();
+			iterator.prev();
+			assertFalse(name, iterator.isValid());
+
+			iterator = rep.newIterator(Long.MAX_VALUE);
+			iterator.seekForPrev(StringUtil.fromString("key_9"));
+			assertEquals(name, "key_8", StringUtil.fromBytes(iterator.key()));
+			iterator.seek(StringUtil.fromString("key_4"));
+			assertEquals(name, "new", StringUtil.fromBytes(iterator.entry().getValue()));
+			iterator.seek(StringUtil.fromString("key_9"));
+			assertFalse(name, iterator.isValid());
+		}
+	}
+
+	private static SLNode version(byte[] key, String value, long sequence) {
+		return SLNode.builder().key(key).value(StringUtil.fromString(value)).sequence(sequence).build();
+	}
+
 }
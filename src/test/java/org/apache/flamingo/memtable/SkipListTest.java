@@ -37,8 +37,13 @@ public class SkipListTest extends TestCase {
 
 	public List<SLNode> generateSLNodes(int total) {
 		ArrayList<SLNode> nodes = new ArrayList<>(total);
-		for (int i = 0; i < total; i++) {
-			nodes.add(generationRandomNode());
+		Set<String> keys = new HashSet<>();
+		while (nodes.size() < total) {
+			SLNode node = generationRandomNode();
+			// Duplicate keys would make the delete/search assertions ambiguous
+			if (keys.add(StringUtil.fromBytes(node.getKey()))) {
+				nodes.add(node);
+			}
 		}
 		return nodes;
 	}
@@ -1,8 +1,24 @@
 package org.apache.flamingo.meta;
 
 import junit.framework.TestCase;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.core.Context;
+import org.apache.flamingo.file.FileUtil;
+import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.sstable.SSTWriter;
+import org.apache.flamingo.utils.Pair;
+import org.apache.flamingo.utils.StringUtil;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -28,4 +44,384 @@ public class MetaInfoTest extends TestCase {
 	// metaInfo.serialize();
 	// }
 
+	@Override
+	protected void setUp() throws Exception {
+		FileUtil.createDirIfNotExists(NamedUtil.getKeyDir());
+	}
+
+	/**
+	 * Write keys [from, to) with the given value suffix into a new level 0 table.
+	 */
+	private SSTMetaInfo writeLevel0Table(int from, int to, String suffix) {
+		return writeTable(0, from, to, suffix);
+	}
+
+	private SSTMetaInfo writeTable(int level, int from, int to, String suffix) {
+		Pair<String, Long> pair = NamedUtil.getKeyFilePath();
+		SSTMetaInfo sst = SSTMetaInfo.builder()
+			.fileName(pair.getF0())
+			.id(String.valueOf(pair.getF1()))
+			.level(level)
+			.build();
+		try (SSTWriter writer = new SSTWriter(sst.getFileName())) {
+			for (int i = from; i < to; i++) {
+				byte[] key = StringUtil.fromString(String.format("key_%05d", i));
+				writer.add(key, SLNode.serialize(new SLNode(key, StringUtil.fromString(i + suffix))));
+			}
+			sst.setFileSize(writer.finish());
+			sst.setMinimumValue(writer.getMinKey());
+			sst.setMaximumValue(writer.getMaxKey());
+			sst.setCount(writer.getCount());
+		}
+		return sst;
+	}
+
+	public void testCompactKeepsNewestValue() {
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			metaInfo.addTable(writeLevel0Table(0, 1000, "_a"));
+			metaInfo.addTable(writeLevel0Table(500, 1500, "_b"));
+			// The third table exceeds the level 0 threshold and triggers a compaction
+			metaInfo.addTable(writeLevel0Table(900, 1000, "_c"));
+			metaInfo.awaitCompactions();
+			assertEquals(2, metaInfo.getLevelSize(0));
+			for (int i = 0; i < 1500; i++) {
+				String expect = i >= 900 && i < 1000 ? i + "_c" : (i >= 500 ? i + "_b" : i + "_a");
+				byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+				assertEquals(expect, StringUtil.fromBytes(value));
+			}
+			assertNull(metaInfo.search(StringUtil.fromString("key_99999")));
+		}
+	}
+
+	public void testBackgroundCompaction() {
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			// Every table overwrites part of the previous one, reads run while the
+			// compactions push the tables down
+			for (int t = 0; t < 12; t++) {
+				metaInfo.addTable(writeLevel0Table(t * 300, t * 300 + 600, "_" + t));
+				for (int i = 0; i < t * 300 + 600; i += 97) {
+					String expect = i + "_" + (i < 300 ? 0 : Math.min(t, i / 300));
+					byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+					assertEquals(expect, StringUtil.fromBytes(value));
+				}
+			}
+			metaInfo.awaitCompactions();
+			for (int level = 0; level < metaInfo.getMaxLevel() - 1; level++) {
+				assertTrue(metaInfo.score(level) < 1);
+			}
+			for (int i = 0; i < 12 * 300 + 300; i++) {
+				String expect = i + "_" + (i < 300 ? 0 : Math.min(11, i / 300));
+				byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+				assertEquals(expect, StringUtil.fromBytes(value));
+			}
+		}
+	}
+
+	public void testFailedCompactionIsRetried() {
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			metaInfo.addTable(writeLevel0Table(0, 1000, "_a"));
+			metaInfo.addTable(writeLevel0Table(500, 1500, "_b"));
+			SSTMetaInfo last = writeLevel0Table(900, 1000, "_c");
+			// The first output file cannot be created, no flush follows the failure
+			File blocker = new File(NamedUtil.getKeyDir() + "/" + (Long.parseLong(last.getId()) + 1) + ".sst");
+			assertTrue(blocker.mkdir());
+			try {
+				metaInfo.addTable(last);
+				long deadline = System.currentTimeMillis() + 10_000;
+				while (metaInfo.getLevelSize(0) > 2 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(2, metaInfo.getLevelSize(0));
+				metaInfo.awaitCompactions();
+				assertEquals("950_c", StringUtil.fromBytes(metaInfo.search(StringUtil.fromString("key_00950"))));
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			finally {
+				blocker.delete();
+			}
+		}
+	}
+
+	public void testFailedCompactionLeavesNoFiles() throws InterruptedException {
+		String defaultMaxSize = Options.SSTableMaxSize.getValue();
+		Options.SSTableMaxSize.setValue("200");
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			metaInfo.addTable(writeLevel0Table(0, 1000, "_a"));
+			metaInfo.addTable(writeLevel0Table(500, 1500, "_b"));
+			SSTMetaInfo last = writeLevel0Table(900, 1000, "_c");
+			// The merge finishes two outputs and fails on the third
+			long firstOutput = Long.parseLong(last.getId()) + 1;
+			File blocker = new File(NamedUtil.getKeyDir() + "/" + (firstOutput + 2) + ".sst");
+			assertTrue(blocker.mkdir());
+			try {
+				metaInfo.addTable(last);
+				long deadline = System.currentTimeMillis() + 10_000;
+				while (metaInfo.getLevelSize(0) > 2 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				metaInfo.awaitCompactions();
+				assertEquals(2, metaInfo.getLevelSize(0));
+				assertFalse(new File(NamedUtil.getKeyDir() + "/" + firstOutput + ".sst").exists());
+				assertFalse(new File(NamedUtil.getKeyDir() + "/" + (firstOutput + 1) + ".sst").exists());
+				assertEquals("950_c", StringUtil.fromBytes(metaInfo.search(StringUtil.fromString("key_00950"))));
+			}
+			finally {
+				blocker.delete();
+			}
+		}
+		finally {
+			Options.SSTableMaxSize.setValue(defaultMaxSize);
+		}
+	}
+
+	public void testDeserializeSchedulesCompaction() {
+		String defaultTrigger = Options.Level0FileNumCompactionTrigger.getValue();
+		Options.Level0FileNumCompactionTrigger.setValue("10");
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			for (int t = 0; t < 4; t++) {
+				metaInfo.addTable(writeLevel0Table(t * 100, t * 100 + 200, "_" + t));
+			}
+			assertEquals(4, metaInfo.getLevelSize(0));
+		}
+		finally {
+			Options.Level0FileNumCompactionTrigger.setValue(defaultTrigger);
+		}
+		// Over the threshold once reopened, without any new table
+		try (MetaInfo restored = MetaInfo.deserialize(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(restored);
+			restored.awaitCompactions();
+			assertTrue(restored.score(0) < 1);
+			assertEquals("250_2", StringUtil.fromBytes(restored.search(StringUtil.fromString("key_00250"))));
+		}
+	}
+
+	public void testSubcompaction() {
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			SSTMetaInfo base = writeLevel0Table(0, 9000, "_a");
+			metaInfo.addTable(base);
+			// Too few inputs to split, level 1 gets three tables
+			assertTrue(metaInfo.getCompact()
+				.partition(Collections.singletonList(Collections.singletonList(base)))
+				.isEmpty());
+			metaInfo.getCompact().majorCompact(Collections.singletonList(base), new ArrayList<>());
+			SSTMetaInfo upper = writeLevel0Table(1500, 7500, "_b");
+			metaInfo.addTable(upper);
+			List<SSTMetaInfo> upperTables = Collections.singletonList(upper);
+			List<SSTMetaInfo> lowerTables = metaInfo.getOverlapTables(upperTables, 1);
+			assertEquals(3, lowerTables.size());
+			List<byte[]> boundaries = metaInfo.getCompact().partition(Arrays.asList(upperTables, lowerTables));
+			assertFalse(boundaries.isEmpty());
+			metaInfo.getCompact().majorCompact(upperTables, lowerTables);
+			assertEquals(0, metaInfo.getLevelSize(0));
+			// The outputs of the ranges are sorted and disjoint
+			List<SSTMetaInfo> tables = metaInfo.getLevelMetaInfo(1).getTablesInOrder();
+			tables.sort((t1, t2) -> StringUtil.compareByteArrays(t1.getMinimumValue(), t2.getMinimumValue()));
+			for (int i = 1; i < tables.size(); i++) {
+				assertTrue(StringUtil.compareByteArrays(tables.get(i - 1).getMaximumValue(),
+						tables.get(i).getMinimumValue()) < 0);
+			}
+			assertEquals(9000, tables.stream().mapToLong(SSTMetaInfo::getCount).sum());
+			for (int i = 0; i < 9000; i++) {
+				String expect = i >= 1500 && i < 7500 ? i + "_b" : i + "_a";
+				byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+				assertEquals(expect, StringUtil.fromBytes(value));
+			}
+		}
+	}
+
+	public void testUniversalCompaction() {
+		String defaultStyle = Options.CompactionStyle.getValue();
+		Options.CompactionStyle.setValue("universal");
+		int trigger = Integer.parseInt(Options.Level0FileNumCompactionTrigger.getValue());
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			for (int t = 0; t < 12; t++) {
+				metaInfo.addTable(writeLevel0Table(t * 300, t * 300 + 600, "_" + t));
+			}
+			metaInfo.awaitCompactions();
+			// The merges stop once there are no more sorted runs than the trigger
+			int runs = metaInfo.getLevelSize(0);
+			for (int level = 1; level < metaInfo.getMaxLevel(); level++) {
+				runs += metaInfo.getLevelSize(level) > 0 ? 1 : 0;
+			}
+			assertTrue(runs <= trigger);
+			// The first merge went to the last level
+			assertTrue(metaInfo.getLevelSize(0) < 12);
+			assertTrue(metaInfo.getLevelSize(metaInfo.getMaxLevel() - 1) > 0);
+			for (int i = 0; i < 12 * 300 + 300; i++) {
+				String expect = i + "_" + Math.min(11, i / 300);
+				byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+				assertEquals(expect, StringUtil.fromBytes(value));
+			}
+		}
+		finally {
+			Options.CompactionStyle.setValue(defaultStyle);
+		}
+	}
+
+	public void testFifoCompaction() {
+		String defaultStyle = Options.CompactionStyle.getValue();
+		String defaultTtl = Options.FifoTtlSeconds.getValue();
+		String defaultSize = Options.FifoMaxTableFilesSize.getValue();
+		List<SSTMetaInfo> tables = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			tables.add(writeLevel0Table(t * 300, t * 300 + 600, "_" + t));
+		}
+		// The two oldest tables expire, the cap leaves room for four tables of the rest
+		long now = System.currentTimeMillis();
+		for (int t = 0; t < tables.size(); t++) {
+			tables.get(t).setCreateTime(t < 2 ? now - TimeUnit.HOURS.toMillis(2) : now + t);
+		}
+		long size = tables.stream().mapToLong(SSTMetaInfo::getFileSize).max().getAsLong();
+		Options.CompactionStyle.setValue("fifo");
+		Options.FifoTtlSeconds.setValue(String.valueOf(TimeUnit.HOURS.toSeconds(1)));
+		Options.FifoMaxTableFilesSize.setValue(String.valueOf(size * 4));
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			for (int t = 0; t < 5; t++) {
+				metaInfo.addTable(tables.get(t));
+			}
+			metaInfo.awaitCompactions();
+			// Only the expired tables are dropped, nothing is merged
+			assertEquals(3, metaInfo.getLevelSize(0));
+			for (int t = 5; t < tables.size(); t++) {
+				metaInfo.addTable(tables.get(t));
+			}
+			metaInfo.awaitCompactions();
+			assertEquals(4, metaInfo.getLevelSize(0));
+			for (int level = 1; level < metaInfo.getMaxLevel(); level++) {
+				assertEquals(0, metaInfo.getLevelSize(level));
+			}
+			for (int t = 0; t < tables.size(); t++) {
+				assertEquals(t >= 4, new File(tables.get(t).getFileName()).exists());
+			}
+			for (int i = 0; i < 8 * 300 + 300; i++) {
+				byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+				if (i < 4 * 300) {
+					assertNull(value);
+				}
+				else {
+					assertEquals(i + "_" + Math.min(7, i / 300), StringUtil.fromBytes(value));
+				}
+			}
+		}
+		finally {
+			Options.CompactionStyle.setValue(defaultStyle);
+			Options.FifoTtlSeconds.setValue(defaultTtl);
+			Options.FifoMaxTableFilesSize.setValue(defaultSize);
+		}
+	}
+
+	public void testPickMinOverlappingRatio() {
+		// Merging b rewrites nothing in level 2, c overlaps a small table, a a large one
+		List<String> remaining = compactLevel1("min_overlapping_ratio", false);
+		assertEquals(Arrays.asList("a", "c"), remaining);
+	}
+
+	public void testPickRoundRobin() {
+		// a first, then the table after it once level 1 grows again
+		List<String> remaining = compactLevel1("round_robin", true);
+		assertEquals(Arrays.asList("c", "d"), remaining);
+	}
+
+	/**
+	 * Level 1 gets tables a, b and c, one table over its byte target, level 2 a large
+	 * table under a and a small one under c.
+	 * @param addFourth add table d to level 1 once the first compaction is done
+	 * @return the names of the tables left on level 1 in key order
+	 */
+	private List<String> compactLevel1(String compactionPri, boolean addFourth) {
+		String defaultPri = Options.CompactionPri.getValue();
+		String defaultBase = Options.MaxBytesForLevelBase.getValue();
+		Map<String, SSTMetaInfo> tables = new LinkedHashMap<>();
+		tables.put("x", writeTable(2, 0, 1000, "_x"));
+		tables.put("y", writeTable(2, 4000, 4100, "_y"));
+		tables.put("a", writeTable(1, 0, 1000, "_a"));
+		tables.put("b", writeTable(1, 2000, 3000, "_b"));
+		tables.put("c", writeTable(1, 4000, 5000, "_c"));
+		long size = tables.get("a").getFileSize();
+		Options.CompactionPri.setValue(compactionPri);
+		Options.MaxBytesForLevelBase.setValue(String.valueOf(size * 5 / 2));
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			tables.values().forEach(metaInfo::addTable);
+			metaInfo.awaitCompactions();
+			if (addFourth) {
+				tables.put("d", writeTable(1, 6000, 7000, "_d"));
+				metaInfo.addTable(tables.get("d"));
+				metaInfo.awaitCompactions();
+			}
+			assertTrue(metaInfo.score(1) < 1);
+			for (String name : Arrays.asList("a", "b", "c", "d")) {
+				int from = tables.containsKey(name) ? (int) (name.charAt(0) - 'a') * 2000 : -1;
+				for (int i = from; i >= 0 && i < from + 1000; i += 11) {
+					byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+					assertEquals(i + "_" + name, StringUtil.fromBytes(value));
+				}
+			}
+			List<String> remaining = new ArrayList<>();
+			List<SSTMetaInfo> level1 = metaInfo.getLevelMetaInfo(1).getTablesInOrder();
+			level1.sort((t1, t2) -> StringUtil.compareByteArrays(t1.getMinimumValue(), t2.getMinimumValue()));
+			for (SSTMetaInfo table : level1) {
+				tables.forEach((name, info) -> {
+					if (info.getId().equals(table.getId())) {
+						remaining.add(name);
+					}
+				});
+			}
+			return remaining;
+		}
+		finally {
+			Options.CompactionPri.setValue(defaultPri);
+			Options.MaxBytesForLevelBase.setValue(defaultBase);
+		}
+	}
+
+	public void testSearchSortedLevel() {
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			// Disjoint ranges with gaps, pushed down to level 1 and split into
+			// several tables
+			for (int t = 0; t < 6; t++) {
+				metaInfo.addTable(writeLevel0Table(t * 5000, t * 5000 + 4000, "_" + t));
+			}
+			for (int t = 0; t < 6; t++) {
+				for (int i = t * 5000; i < t * 5000 + 5000; i += 7) {
+					byte[] value = metaInfo.search(StringUtil.fromString(String.format("key_%05d", i)));
+					if (i < t * 5000 + 4000) {
+						assertEquals(i + "_" + t, StringUtil.fromBytes(value));
+					}
+					else {
+						assertNull(value);
+					}
+				}
+			}
+			assertNull(metaInfo.search(StringUtil.fromString("key")));
+		}
+	}
+
+	public void testDeserializeLoadsFilter() {
+		try (MetaInfo metaInfo = new MetaInfo(metaFileLocation)) {
+			Context.getInstance().setMetaInfo(metaInfo);
+			metaInfo.addTable(writeLevel0Table(0, 100, "_a"));
+			metaInfo.addTable(writeLevel0Table(50, 150, "_b"));
+			try (MetaInfo restored = MetaInfo.deserialize(metaFileLocation)) {
+				for (int i = 0; i < 150; i++) {
+					String expect = i >= 50 ? i + "_b" : i + "_a";
+					byte[] value = restored.search(StringUtil.fromString(String.format("key_%05d", i)));
+					assertEquals(expect, StringUtil.fromBytes(value));
+				}
+				assertNull(restored.search(StringUtil.fromString("key_00200")));
+			}
+		}
+	}
+
 }
@@ -3,8 +3,12 @@ package org.apache.flamingo.meta;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import junit.framework.TestCase;
+import org.apache.flamingo.utils.Pair;
 import org.apache.flamingo.utils.SSTMetaInfoUtil;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -26,4 +30,19 @@ public class SSTMetaInfoTest extends TestCase {
 	// System.out.println(prettyJSONString);
 	// }
 
+	public void testSearch() throws IOException {
+		ArrayList<byte[]> keys = SSTableTest.generateSortedKeys(100);
+		String fileName = SSTableTest.writeSSTable(keys);
+		SSTMetaInfo sst = SSTMetaInfo.builder().fileName(fileName).id("0").level(0).build();
+		Pair<byte[], Boolean> deleted = sst.search(keys.get(0));
+		assertTrue(deleted.getF1());
+		assertNull(deleted.getF0());
+		Pair<byte[], Boolean> found = sst.search(keys.get(2));
+		assertTrue(found.getF1());
+		assertTrue(Arrays.equals(keys.get(2), found.getF0()));
+		Pair<byte[], Boolean> missing = sst.search(new byte[] { 0 });
+		assertFalse(missing.getF1());
+		sst.delete();
+	}
+
 }
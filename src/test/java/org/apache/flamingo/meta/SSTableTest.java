@@ -1,8 +1,22 @@
 package org.apache.flamingo.meta;
 
 import junit.framework.TestCase;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
 import org.apache.flamingo.options.Options;
+import org.apache.flamingo.sstable.SSTIterator;
+import org.apache.flamingo.sstable.SSTReader;
+import org.apache.flamingo.sstable.SSTWriter;
 import org.apache.flamingo.utils.GeneratorDataUtil;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.TreeSet;
 
 /**
  * @Author venus
@@ -19,4 +33,160 @@ public class SSTableTest extends TestCase {
 	// return new SSTMetaInfo(fileName, level);
 	// }
 
+	public static ArrayList<byte[]> generateSortedKeys(int count) {
+		TreeSet<byte[]> keys = new TreeSet<>(StringUtil::compareByteArrays);
+		while (keys.size() < count) {
+			keys.add(StringUtil.fromString(GeneratorDataUtil.generateRandomString(5, 20)));
+		}
+		return new ArrayList<>(keys);
+	}
+
+	public static String writeSSTable(ArrayList<byte[]> keys) throws IOException {
+		File file = Files.createTempFile("flamingo", ".sst").toFile();
+		file.deleteOnExit();
+		try (SSTWriter writer = new SSTWriter(file.getPath())) {
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] key = keys.get(i);
+				SLNode node;
+				if (i % 10 == 0) {
+					node = new SLNode(key, null, true);
+				}
+				else if (i % 10 == 1) {
+					node = new SLNode(key, null, true, VLogAddress.from(1L, (long) i), false);
+				}
+				else {
+					node = new SLNode(key, key);
+				}
+				writer.add(key, SLNode.serialize(node));
+			}
+			writer.finish();
+		}
+		return file.getPath();
+	}
+
+	public void testBlockLookup() throws IOException {
+		ArrayList<byte[]> keys = generateSortedKeys(3000);
+		String fileName = writeSSTable(keys);
+		try (SSTReader reader = new SSTReader(fileName)) {
+			assertTrue(reader.getBlockCount() > 1);
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] key = keys.get(i);
+				SLNode node = reader.get(key);
+				assertNotNull(node);
+				assertEquals(StringUtil.fromBytes(key), StringUtil.fromBytes(node.getKey()));
+				if (i % 10 == 0) {
+					assertTrue(node.isDeleted());
+				}
+				else if (i % 10 == 1) {
+					assertTrue(node.isStoreMode());
+					assertEquals(VLogAddress.from(1L, (long) i), node.getAddress());
+				}
+				else {
+					assertEquals(StringUtil.fromBytes(key), StringUtil.fromBytes(node.getValue()));
+				}
+			}
+			// Lowercase letters sort after every generated key
+			assertNull(reader.get(StringUtil.fromString("zzzzzzzzzzzzzzzzzzzzz")));
+			assertNull(reader.get(StringUtil.fromString("0")));
+		}
+	}
+
+	public void testIterator() throws IOException {
+		ArrayList<byte[]> keys = generateSortedKeys(1000);
+		String fileName = writeSSTable(keys);
+		try (SSTReader reader = new SSTReader(fileName)) {
+			SSTIterator iterator = reader.iterator();
+			int index = 0;
+			while (iterator.hasNext()) {
+				SLNode node = iterator.next();
+				assertEquals(StringUtil.fromBytes(keys.get(index++)), StringUtil.fromBytes(node.getKey()));
+			}
+			assertEquals(keys.size(), index);
+		}
+	}
+
+	public void testBloomFilter() throws IOException {
+		ArrayList<byte[]> keys = generateSortedKeys(2000);
+		String fileName = writeSSTable(keys);
+		Statistics statistics = Statistics.getInstance();
+		statistics.reset();
+		try (SSTReader reader = new SSTReader(fileName)) {
+			assertNotNull(reader.getFilter());
+			for (byte[] key : keys) {
+				assertTrue(reader.getFilter().mayContain(key));
+			}
+			// Digits never appear in the generated alphabetic keys
+			for (int i = 0; i < 10000; i++) {
+				assertNull(reader.get(StringUtil.fromString(String.valueOf(i))));
+			}
+		}
+		assertTrue(statistics.getBloomFilterFalsePositiveRate() < 0.03);
+	}
+
+	public void testPrefixFilter() throws IOException {
+		String defaultExtractor = Options.PrefixExtractor.getValue();
+		Options.PrefixExtractor.setValue("delimiter:|");
+		try {
+			ArrayList<byte[]> keys = new ArrayList<>();
+			// Tenants are even numbers, every tenant has entities 0 .. 9
+			for (int tenant = 0; tenant < 200; tenant += 2) {
+				for (int entity = 0; entity < 10; entity++) {
+					keys.add(StringUtil.fromString(String.format("t%03d|e%d|ts", tenant, entity)));
+				}
+			}
+			String fileName = writeSSTable(keys);
+			Statistics statistics = Statistics.getInstance();
+			statistics.reset();
+			try (SSTReader reader = new SSTReader(fileName)) {
+				assertNotNull(reader.getPrefixFilter());
+				for (byte[] key : keys) {
+					String text = StringUtil.fromBytes(key);
+					assertTrue(reader.mayContainPrefix(StringUtil.fromString(text.substring(0, 5))));
+					assertTrue(reader.mayContainPrefix(StringUtil.fromString(text.substring(0, 8))));
+					// Not an indexed prefix, the filter can only be asked for t...|
+					assertTrue(reader.mayContainPrefix(StringUtil.fromString(text.substring(0, 7))));
+				}
+				int excluded = 0;
+				for (int tenant = 1; tenant < 200; tenant += 2) {
+					if (!reader.mayContainPrefix(StringUtil.fromString(String.format("t%03d|", tenant)))) {
+						excluded++;
+					}
+				}
+				assertTrue(excluded > 90);
+				assertEquals(excluded, statistics.get(Ticker.PREFIX_FILTER_USEFUL));
+			}
+			// Another extractor does not use the filter
+			Options.PrefixExtractor.setValue("fixed:5");
+			try (SSTReader reader = new SSTReader(fileName)) {
+				assertNull(reader.getPrefixFilter());
+				assertTrue(reader.mayContainPrefix(StringUtil.fromString("t001|")));
+			}
+		}
+		finally {
+			Options.PrefixExtractor.setValue(defaultExtractor);
+		}
+	}
+
+	public void testMmapLookup() throws IOException {
+		ArrayList<byte[]> keys = generateSortedKeys(3000);
+		String fileName = writeSSTable(keys);
+		SSTReader reader = new SSTReader(fileName, true);
+		assertTrue(reader.isMmap());
+		for (int i = 2; i < keys.size(); i += 10) {
+			SLNode node = reader.get(keys.get(i));
+			assertEquals(StringUtil.fromBytes(keys.get(i)), StringUtil.fromBytes(node.getValue()));
+		}
+		SSTIterator iterator = reader.iterator();
+		reader.close();
+		// The open iterator keeps the mapping alive after the owner released it
+		int count = 0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+		assertEquals(keys.size(), count);
+		iterator.close();
+		assertFalse(reader.retain());
+	}
+
 }
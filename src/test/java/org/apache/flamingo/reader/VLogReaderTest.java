@@ -0,0 +1,119 @@
+package org.apache.flamingo.reader;
+
+import junit.framework.TestCase;
+import org.apache.flamingo.bean.SLNode;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.bean.VLogEntity;
+import org.apache.flamingo.file.FileUtil;
+import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.utils.StringUtil;
+import org.apache.flamingo.writer.VLogWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class VLogReaderTest extends TestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		FileUtil.createDirIfNotExists(NamedUtil.getValueDir());
+		Statistics.getInstance().reset();
+	}
+
+	public void testReadBack() throws Exception {
+		VLogWriter first = new VLogWriter();
+		VLogWriter second = new VLogWriter();
+		List<VLogEntity> entities = new ArrayList<>();
+		List<VLogAddress> addresses = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			// Some values are larger than the read ahead
+			byte[] value = new byte[i % 10 == 0 ? 10000 + i : 100 + i];
+			Arrays.fill(value, (byte) i);
+			VLogEntity entity = VLogEntity.from(StringUtil.fromString("reader_" + i), value, false, i + 1);
+			entities.add(entity);
+			addresses.add((i % 2 == 0 ? first : second).write(entity));
+		}
+		first.close();
+		second.close();
+		// One open file at a time, the two files keep evicting each other
+		try (VLogReader reader = new VLogReader(1)) {
+			for (int i = 0; i < entities.size(); i++) {
+				VLogEntity read = reader.read(addresses.get(i));
+				assertTrue(Arrays.equals(entities.get(i).getKey(), read.getKey()));
+				assertTrue(Arrays.equals(entities.get(i).getValue(), read.getValue()));
+				assertEquals(i + 1, read.getSequence());
+			}
+		}
+		assertEquals(100, Statistics.getInstance().get(Ticker.VLOG_READS));
+		assertEquals(100, Statistics.getInstance().get(Ticker.VLOG_FILE_OPENS));
+	}
+
+	public void testResolveAll() throws Exception {
+		VLogWriter first = new VLogWriter();
+		VLogWriter second = new VLogWriter();
+		List<SLNode> entries = new ArrayList<>();
+		List<byte[]> expected = new ArrayList<>();
+		for (int i = 0; i < 60; i++) {
+			byte[] key = StringUtil.fromString("resolve_all_" + i);
+			byte[] value = new byte[i % 20 == 0 ? 10000 + i : 100 + i];
+			Arrays.fill(value, (byte) i);
+			VLogAddress address = (i < 40 ? first : second).write(VLogEntity.from(key, value, false, i + 1));
+			entries.add(new SLNode(key, null, true, address, false));
+			expected.add(value);
+		}
+		first.close();
+		second.close();
+		// Inline values and tombstones are mixed in, the order is not the file order
+		entries.add(new SLNode(StringUtil.fromString("inline"), StringUtil.fromString("inline")));
+		expected.add(StringUtil.fromString("inline"));
+		entries.add(new SLNode(StringUtil.fromString("deleted"), null, true));
+		expected.add(null);
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < entries.size(); i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(7));
+		List<SLNode> shuffled = new ArrayList<>();
+		order.forEach(i -> shuffled.add(entries.get(i)));
+		try (VLogReader reader = new VLogReader(4)) {
+			List<byte[]> values = reader.resolveAll(shuffled);
+			for (int i = 0; i < order.size(); i++) {
+				assertTrue(Arrays.equals(expected.get(order.get(i)), values.get(i)));
+			}
+		}
+		// One read per file
+		assertEquals(2, Statistics.getInstance().get(Ticker.VLOG_READS));
+		assertEquals(60, Statistics.getInstance().get(Ticker.VLOG_COALESCED_RECORDS));
+	}
+
+	public void testResolve() throws Exception {
+		VLogWriter writer = new VLogWriter();
+		byte[] key = StringUtil.fromString("resolve");
+		byte[] value = new byte[64];
+		VLogAddress address = writer.write(VLogEntity.from(key, value, false, 1));
+		writer.close();
+		try (VLogReader reader = new VLogReader(4)) {
+			SLNode separated = new SLNode(key, null, true, address, false);
+			assertTrue(Arrays.equals(value, reader.resolve(separated)));
+			assertTrue(Arrays.equals(value, reader.resolve(separated)));
+			// Inline values and tombstones need no read
+			assertEquals("inline",
+					StringUtil.fromBytes(reader.resolve(new SLNode(key, StringUtil.fromString("inline")))));
+			assertNull(reader.resolve(new SLNode(key, null, true)));
+			SLNode wrongKey = new SLNode(StringUtil.fromString("other"), null, true, address, false);
+			try {
+				reader.resolve(wrongKey);
+				fail();
+			}
+			catch (RuntimeException expected) {
+			}
+		}
+		assertEquals(1, Statistics.getInstance().get(Ticker.VLOG_FILE_OPENS));
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.apache.flamingo.task;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TaskManagerTest extends TestCase {
+
+	public void testFailedTaskIsRetried() throws InterruptedException {
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		TaskManager taskManager = new TaskManager();
+		taskManager.start();
+		taskManager.addTask(new NamedTask("failing", 2, executed));
+		taskManager.addTask(new NamedTask("next", 0, executed));
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (executed.size() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		taskManager.close();
+		// The worker survives the failures and runs the tasks in order
+		assertEquals(4, executed.size());
+		assertEquals("failing", executed.get(2));
+		assertEquals("next", executed.get(3));
+	}
+
+	public void testCloseGivesUpOnFailingTask() throws InterruptedException {
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		TaskManager taskManager = new TaskManager();
+		taskManager.start();
+		taskManager.addTask(new NamedTask("failing", Integer.MAX_VALUE, executed));
+		taskManager.close();
+		assertTrue(executed.size() >= TaskManager.CLOSING_ATTEMPTS);
+	}
+
+	private static class NamedTask implements Task {
+
+		private final String name;
+
+		private int failures;
+
+		private final List<String> executed;
+
+		private NamedTask(String name, int failures, List<String> executed) {
+			this.name = name;
+			this.failures = failures;
+			this.executed = executed;
+		}
+
+		@Override
+		public void start() {
+
+		}
+
+		@Override
+		public void execute() {
+			executed.add(name);
+			if (failures-- > 0) {
+				throw new IllegalStateException("Task " + name + " failed");
+			}
+		}
+
+		@Override
+		public void stop() {
+
+		}
+
+	}
+
+}
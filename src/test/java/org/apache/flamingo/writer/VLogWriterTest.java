@@ -0,0 +1,111 @@
+package org.apache.flamingo.writer;
+
+import junit.framework.TestCase;
+import org.apache.flamingo.bean.VLogAddress;
+import org.apache.flamingo.bean.VLogEntity;
+import org.apache.flamingo.file.FileUtil;
+import org.apache.flamingo.file.NamedUtil;
+import org.apache.flamingo.metrics.Statistics;
+import org.apache.flamingo.metrics.Ticker;
+import org.apache.flamingo.options.Options;
+import org.apache.flamingo.utils.StringUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+public class VLogWriterTest extends TestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		FileUtil.createDirIfNotExists(NamedUtil.getValueDir());
+		Statistics.getInstance().reset();
+	}
+
+	private void assertRecord(String fileName, VLogAddress address, VLogEntity expect) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			byte[] bytes = new byte[expect.getTotalSize()];
+			file.seek(address.getOffset());
+			file.readFully(bytes);
+			assertTrue(Arrays.equals(VLogEntity.serialize(expect), bytes));
+		}
+	}
+
+	public void testConcurrentWriters() throws Exception {
+		int threads = 8;
+		int writesPerThread = 500;
+		VLogWriter writer = new VLogWriter();
+		ConcurrentHashMap<VLogAddress, VLogEntity> written = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(threads);
+		List<Throwable> errors = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			new Thread(() -> {
+				try {
+					for (int i = 0; i < writesPerThread; i++) {
+						byte[] key = StringUtil.fromString(id + "_" + i);
+						VLogEntity entity = VLogEntity.from(key, key, i % 10 == 0);
+						assertNull(written.put(writer.write(entity), entity));
+					}
+				}
+				catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+				finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+		writer.close();
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(threads * writesPerThread, written.size());
+		for (VLogAddress address : written.keySet()) {
+			assertEquals(writer.getActiveID(), (long) address.getFieldID());
+			assertRecord(writer.getActiveFullPath(), address, written.get(address));
+		}
+		long batches = Statistics.getInstance().get(Ticker.VLOG_BATCHES);
+		assertEquals(threads * writesPerThread, Statistics.getInstance().get(Ticker.VLOG_BATCHED_WRITES));
+		assertTrue(batches > 0 && batches <= threads * writesPerThread);
+	}
+
+	public void testBatchSyncAndMultiRecordWrite() throws Exception {
+		String defaultMode = Options.VLogSyncMode.getValue();
+		Options.VLogSyncMode.setValue("batch");
+		try {
+			VLogWriter writer = new VLogWriter();
+			List<VLogEntity> entities = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				byte[] key = StringUtil.fromString("batch_" + i);
+				entities.add(VLogEntity.from(key, key, false));
+			}
+			List<VLogAddress> addresses = writer.write(entities);
+			VLogAddress single = writer.write(VLogEntity.from(StringUtil.fromString("single"), new byte[0], false));
+			writer.close();
+			for (int i = 0; i < entities.size(); i++) {
+				assertRecord(writer.getActiveFullPath(), addresses.get(i), entities.get(i));
+			}
+			// The records of one request are contiguous
+			assertEquals(addresses.get(9).getOffset() + entities.get(9).getTotalSize(), (long) single.getOffset());
+			assertEquals(Statistics.getInstance().get(Ticker.VLOG_BATCHES),
+					Statistics.getInstance().get(Ticker.VLOG_SYNCS));
+			try {
+				writer.write(entities.get(0));
+				fail("Closed writer accepted a record");
+			}
+			catch (IOException expected) {
+				// Closed
+			}
+		}
+		finally {
+			Options.VLogSyncMode.setValue(defaultMode);
+		}
+	}
+
+}